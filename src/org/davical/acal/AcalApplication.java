@@ -137,6 +137,14 @@ public class AcalApplication extends Application {
 	}
 
 	final private static ConcurrentHashMap<String,String> zoneAliasCache = new ConcurrentHashMap<String,String>();
+
+	/**
+	 * Forget the aliases we have looked up, after the timezone_alias table has changed.
+	 */
+	public static void clearZoneAliases() {
+		zoneAliasCache.clear();
+	}
+
 	public static String getOlsonFromAlias(String alias) {
 	    return zoneAliasCache.computeIfAbsent(alias, key -> {
     	    ContentResolver cr = getContext().getContentResolver();
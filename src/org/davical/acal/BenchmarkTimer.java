@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Times a piece of benchmark code and counts the bytes allocated while it ran, then logs both
+ * per operation.  Call start() before the code and stop() after it.
+ * The allocation count comes from the runtime's "art.gc.bytes-allocated" statistic, which covers
+ * the whole process, so run benchmarks while the app is otherwise idle.
+ */
+public final class BenchmarkTimer {
+
+	private final String tag;
+	private long startNanos;
+	private long startBytes;
+
+	/**
+	 * @param tag What to log the results as
+	 */
+	public BenchmarkTimer(String tag) {
+		this.tag = tag;
+	}
+
+	public void start() {
+		startBytes = bytesAllocated();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Log the time and allocations since start().
+	 * @param what What was measured
+	 * @param count How many operations were done, for the per operation figures
+	 * @return The time taken in nanoseconds
+	 */
+	public long stop(String what, int count) {
+		long nanos = System.nanoTime() - startNanos;
+		long bytes = bytesAllocated();
+		bytes = (bytes < 0 || startBytes < 0 ? -1 : bytes - startBytes);
+		count = Math.max(1, count);
+		Log.println(Constants.LOGI, tag, String.format("%s: %d in %dus, %d/sec, %s",
+					what, count, nanos / 1000, count * 1000000000L / Math.max(1, nanos),
+					(bytes < 0 ? "allocations unknown" : String.format("%d bytes allocated (%.1f each)", bytes, (double) bytes / count))));
+		return nanos;
+	}
+
+
+	/**
+	 * Run a benchmark on its own thread, since they take a while and shouldn't hold up the UI.
+	 */
+	public static void runInBackground(String name, Runnable benchmark) {
+		new Thread(benchmark, name).start();
+	}
+
+
+	/**
+	 * @return The bytes allocated by the process so far, or -1 if the runtime doesn't say.
+	 */
+	private static long bytesAllocated() {
+		try {
+			String stat = Debug.getRuntimeStat("art.gc.bytes-allocated");
+			return (stat == null ? -1 : Long.parseLong(stat));
+		}
+		catch( NumberFormatException e ) {
+			return -1;
+		}
+	}
+}
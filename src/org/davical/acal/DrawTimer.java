@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal;
+
+import android.util.Log;
+
+/**
+ * Times how long a view takes to draw.  Every frame is recorded in PerformanceStats, and when
+ * enabled the average and worst frame are logged every so often as well.
+ * Call start() at the beginning of draw() and stop() at the end, from the UI thread.
+ */
+public final class DrawTimer {
+
+	private static final int FRAMES_PER_REPORT = 120;
+
+	private final String name;
+	private final boolean enabled;
+	private long started;
+	private int frames = 0;
+	private long totalNanos = 0;
+	private long worstNanos = 0;
+
+	/**
+	 * @param name What to call the view in the log
+	 * @param enabled Whether to log the timings, usually one of the Constants.debugXxx flags
+	 */
+	public DrawTimer(String name, boolean enabled) {
+		this.name = name;
+		this.enabled = enabled;
+	}
+
+	public void start() {
+		started = System.nanoTime();
+	}
+
+	public void stop() {
+		long elapsed = System.nanoTime() - started;
+		PerformanceStats.record(name, PerformanceStats.DRAW, elapsed / 1000);
+		if ( !enabled ) return;
+		totalNanos += elapsed;
+		if ( elapsed > worstNanos ) worstNanos = elapsed;
+		if ( ++frames >= FRAMES_PER_REPORT ) {
+			Log.println(Constants.LOGD, name, String.format("Drew %d frames averaging %.2fms, worst %.2fms",
+						frames, totalNanos / 1000000.0 / frames, worstNanos / 1000000.0));
+			frames = 0;
+			totalNanos = 0;
+			worstNanos = 0;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * <p>
+ * Keeps the most recent measurements of how our views perform, so that we can compare one
+ * release with the next: how long each view takes to draw, how long it waits for the
+ * CacheManager to answer, and how much bitmap memory it allocates.
+ * </p>
+ * <p>
+ * Each source and kind of measurement has a fixed size ring buffer, so recording is cheap enough
+ * to leave on all the time.  The figures can be logged or exported as CSV from DebugSettings.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class PerformanceStats {
+
+	private static final String TAG = "aCal PerformanceStats";
+
+	/** How long a frame took to draw, in microseconds. */
+	public static final int DRAW = 0;
+	/** How long a cache request took from being made to being answered, in microseconds. */
+	public static final int CACHE_WAIT = 1;
+	/** The size of a bitmap which was allocated, in bytes. */
+	public static final int BITMAP = 2;
+
+	private static final String[] KIND_NAMES = new String[] { "draw_us", "cache_wait_us", "bitmap_bytes" };
+
+	// A frame which takes longer than this will have missed the display refresh
+	private static final long JANK_MICROS = 16667;
+
+	private static final int CAPACITY = 512;
+
+	// The rings for each source, indexed by kind
+	private static final ConcurrentHashMap<String,Ring[]> rings = new ConcurrentHashMap<String,Ring[]>();
+
+	private PerformanceStats() {
+	}
+
+	private static final class Ring {
+		final String source;
+		final int kind;
+		final long[] when = new long[CAPACITY];
+		final long[] values = new long[CAPACITY];
+		int next = 0;
+		int size = 0;
+		long total = 0;
+
+		Ring(String source, int kind) {
+			this.source = source;
+			this.kind = kind;
+		}
+
+		synchronized void add(long value) {
+			when[next] = System.currentTimeMillis();
+			values[next] = value;
+			next = (next + 1) % CAPACITY;
+			if ( size < CAPACITY ) size++;
+			total++;
+		}
+
+		/**
+		 * @return The measurements we still have, oldest first, as pairs of time and value.
+		 */
+		synchronized long[][] snapshot() {
+			long[][] result = new long[size][];
+			int start = (next - size + CAPACITY) % CAPACITY;
+			for( int i = 0; i < size; i++ ) {
+				int j = (start + i) % CAPACITY;
+				result[i] = new long[] { when[j], values[j] };
+			}
+			return result;
+		}
+
+		synchronized void clear() {
+			next = 0;
+			size = 0;
+			total = 0;
+		}
+	}
+
+
+	/**
+	 * Record a measurement.
+	 * @param source The view, or whatever else, the measurement is for
+	 * @param kind One of DRAW, CACHE_WAIT or BITMAP
+	 * @param value The measurement, in the units for that kind
+	 */
+	public static void record(String source, int kind, long value) {
+		Ring[] sourceRings = rings.get(source);
+		if ( sourceRings == null ) {
+			Ring[] newRings = new Ring[KIND_NAMES.length];
+			for( int k = 0; k < newRings.length; k++ ) newRings[k] = new Ring(source, k);
+			sourceRings = rings.putIfAbsent(source, newRings);
+			if ( sourceRings == null ) sourceRings = newRings;
+		}
+		sourceRings[kind].add(value);
+	}
+
+
+	/**
+	 * Record that a bitmap was allocated for a source.
+	 * @return The bitmap, so this can wrap the allocation.
+	 */
+	public static Bitmap bitmapAllocated(String source, Bitmap bitmap) {
+		if ( bitmap != null ) record(source, BITMAP, bitmap.getByteCount());
+		return bitmap;
+	}
+
+
+	/**
+	 * Forget all the measurements.
+	 */
+	public static void clear() {
+		for( Ring[] sourceRings : rings.values() )
+			for( Ring ring : sourceRings ) ring.clear();
+	}
+
+
+	private static ArrayList<Ring> sortedRings() {
+		ArrayList<Ring> result = new ArrayList<Ring>();
+		for( Ring[] sourceRings : rings.values() ) result.addAll(Arrays.asList(sourceRings));
+		Collections.sort(result, new Comparator<Ring>() {
+			@Override
+			public int compare(Ring a, Ring b) {
+				int c = a.source.compareTo(b.source);
+				return (c != 0 ? c : a.kind - b.kind);
+			}
+		});
+		return result;
+	}
+
+
+	/**
+	 * Log a line for each source and kind, with the median, 95th percentile and worst of the
+	 * recent measurements, and how many frames took too long.
+	 */
+	public static void logSummary() {
+		for( Ring ring : sortedRings() ) {
+			long[][] samples = ring.snapshot();
+			if ( samples.length == 0 ) continue;
+			long[] values = new long[samples.length];
+			long sum = 0;
+			int janky = 0;
+			for( int i = 0; i < samples.length; i++ ) {
+				values[i] = samples[i][1];
+				sum += values[i];
+				if ( values[i] > JANK_MICROS ) janky++;
+			}
+			Arrays.sort(values);
+			String line = String.format("%-30s %-14s %d recorded, last %d: mean %d, p50 %d, p95 %d, max %d",
+						ring.source, KIND_NAMES[ring.kind], ring.total, values.length, sum / values.length,
+						values[values.length / 2], values[(values.length * 95) / 100], values[values.length - 1]);
+			if ( ring.kind == DRAW ) line += ", " + janky + " janky";
+			Log.println(Constants.LOGI, TAG, line);
+		}
+	}
+
+
+	/**
+	 * @return Every measurement we still have, as CSV with a header line.
+	 */
+	public static String toCsv() {
+		StringBuilder csv = new StringBuilder("source,kind,time,value\n");
+		for( Ring ring : sortedRings() ) {
+			for( long[] sample : ring.snapshot() ) {
+				csv.append('"').append(ring.source.replace("\"", "\"\"")).append('"').append(',')
+					.append(KIND_NAMES[ring.kind]).append(',')
+					.append(sample[0]).append(',')
+					.append(sample[1]).append('\n');
+			}
+		}
+		return csv.toString();
+	}
+
+
+	/**
+	 * Write the measurements to a CSV file in the app's external files directory, or internal
+	 * storage if there isn't one.
+	 * @return The file written
+	 * @throws IOException
+	 */
+	public static File exportCsv(Context context) throws IOException {
+		File dir = context.getExternalFilesDir(null);
+		if ( dir == null ) dir = context.getFilesDir();
+		File file = new File(dir, "acal-performance-" + System.currentTimeMillis() + ".csv");
+		FileWriter out = new FileWriter(file);
+		try {
+			out.write(toCsv());
+		}
+		finally {
+			out.close();
+		}
+		Log.println(Constants.LOGI, TAG, "Exported performance measurements to " + file);
+		return file;
+	}
+}
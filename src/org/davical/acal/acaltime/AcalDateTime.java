@@ -36,7 +36,7 @@ import org.davical.acal.HashCodeUtil;
 import org.davical.acal.StaticHelpers;
 import org.davical.acal.davacal.AcalProperty;
 import org.davical.acal.davacal.PropertyName;
-import org.davical.acal.davacal.VCalendar;
+import org.davical.acal.davacal.TimeZoneCache;
 
 /**
  * <h1>AcalDateTime</h1>
@@ -103,6 +103,10 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	public static final int				SECONDS_IN_MINUTE	= 60;
 	public static final int				DAYS_IN_YEAR		= 365;
 
+	// The days in 400 Gregorian years, and from 0000-03-01 to 1970-01-01
+	private static final long			DAYS_IN_ERA			= 146097;
+	private static final long			DAYS_TO_EPOCH		= 719468;
+
 
 	public static final short			MIN_YEAR_VALUE		= 1582;
 	public static final short			MAX_YEAR_VALUE		= 32766;
@@ -165,6 +169,18 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	}
 
 
+	/**
+	 * Construct from the fields of an AcalInstant, leaving the date fields to be calculated
+	 * if they are wanted.
+	 */
+	AcalDateTime(long epoch, TimeZone tz, String tzName, boolean isDate) {
+		this.epoch = epoch;
+		this.tz = tz;
+		this.tzName = (tz == null ? null : tzName);
+		this.isDate = isDate;
+	}
+
+
 	/**
 	 * <p>
 	 * Return a floating time which will represent the specified milliseconds from Epoch.  This
@@ -228,7 +244,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 		this.second = (short) second;
 
 		if ( tzName != null ) {
-			tz = TimeZone.getTimeZone(tzName);
+			tz = TimeZoneCache.getTimeZone(tzName);
 			if ( tz != null ) this.tzName = tzName;
 		}
 		epoch = EPOCH_NOT_SET;
@@ -273,23 +289,86 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 
 	/**
 	 * <p>
-	 * Returns a count of the number of leap days between epoch and January 1st of this
-	 * year. Years in the range 1800 to 59999 should be OK, or beyond that to some extent,
-	 * but we don't, frankly, give a damn outside that range.
+	 * Returns the number of days from 1970-01-01 to the specified date.  We count from
+	 * March 1st in 400 year eras, so that the leap day is the last day of the year and
+	 * each era has the same number of days.
 	 * </p>
 	 * @param year
-	 * @return The number of leap days between 1970-01-01 and January 1st of the specified year.
+	 * @param month
+	 * @param day
+	 * @return The number of days, negative before 1970.
 	 */
-	private static int epochLeapDays(int year) {
-		if ( year < 1972 ) {
-			year = 1999 - year;
-			return 7 - ((year / 4) - (year/100) + (year/400));
-		}
-		year -= 1969;
-		if ( year < 130 ) return (year / 4);
+	static long daysFromCivil(int year, int month, int day) {
+		long y = (month <= 2 ? year - 1 : year);
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * DAYS_IN_YEAR + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * DAYS_IN_ERA + dayOfEra - DAYS_TO_EPOCH;
+	}
+
 
-		year -= 32;
-		return 8 + ((year / 4) - (year / 100) + (year / 400));
+	/**
+	 * <p>
+	 * Returns the date which is this many days from 1970-01-01, as a number like 20110107 so
+	 * that we don't need to allocate anything.  The reverse of daysFromCivil().
+	 * </p>
+	 * @param epochDay
+	 * @return year * 10000 + month * 100 + day
+	 */
+	static int civilFromDays(long epochDay) {
+		long z = epochDay + DAYS_TO_EPOCH;
+		long era = (z >= 0 ? z : z - (DAYS_IN_ERA - 1)) / DAYS_IN_ERA;
+		long dayOfEra = z - era * DAYS_IN_ERA;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / (DAYS_IN_ERA - 1)) / DAYS_IN_YEAR;
+		long dayOfYear = dayOfEra - (DAYS_IN_YEAR * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long marchMonth = (5 * dayOfYear + 2) / 153;
+		int d = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+		int m = (int) (marchMonth < 10 ? marchMonth + 3 : marchMonth - 9);
+		int y = (int) (yearOfEra + era * 400 + (m <= 2 ? 1 : 0));
+		return y * 10000 + m * 100 + d;
+	}
+
+
+	/**
+	 * Sets the year, month and day to the date which is this many days from 1970-01-01.
+	 * @param epochDay
+	 */
+	private void setCivilFromDays(long epochDay) {
+		int ymd = civilFromDays(epochDay);
+		year = (short) (ymd / 10000);
+		month = (short) ((ymd / 100) % 100);
+		day = (short) (ymd % 100);
+	}
+
+
+	/**
+	 * Returns the UTC epoch for a local clock time in a timezone.  Where the clock time happens
+	 * twice, or not at all, because of a DST change we follow what Java does.
+	 * @param localSeconds The clock time, as seconds from 1970-01-01T00:00:00
+	 * @param tz The timezone, or null for a floating time, which we return unchanged.
+	 * @return Seconds since the epoch.
+	 */
+	static long epochFromLocal(long localSeconds, TimeZone tz) {
+		if ( tz == null ) return localSeconds;
+		long offset = ZoneOffsetCache.getOffset(tz, localSeconds * 1000L) / 1000;
+		if ( offset == 0 ) return localSeconds;
+		long epoch = localSeconds - offset;
+		long actualOffset = ZoneOffsetCache.getOffset(tz, epoch * 1000L) / 1000;
+		if ( offset == actualOffset ) return epoch;
+		return epoch + (offset - actualOffset);
+	}
+
+
+	/**
+	 * Returns the local clock time for a UTC epoch in a timezone.
+	 * @param epoch Seconds since the epoch
+	 * @param tz The timezone, or null for a floating time, which we return unchanged.
+	 * @return The clock time, as seconds from 1970-01-01T00:00:00
+	 */
+	static long localFromEpoch(long epoch, TimeZone tz) {
+		if ( tz == null ) return epoch;
+		return epoch + ZoneOffsetCache.getOffset(tz, epoch * 1000L) / 1000;
 	}
 
 
@@ -318,6 +397,74 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 		if ( dateString == null )
 			throw new IllegalArgumentException("Date may not be null.");
 
+		AcalDateTime newDateTime = parseIcalendarFormat(dateString);
+		if ( newDateTime == null ) newDateTime = parseWithPattern(dateString);
+		if ( Constants.debugDateTime ) newDateTime.checkEpoch();
+		return newDateTime;
+	}
+
+
+	/**
+	 * <p>
+	 * Parse the three forms of DATE and DATE-TIME which RFC5545 allows, which is what nearly all of
+	 * our dates look like: 20011215, 20011215T012315 and 20011215T012315Z.  This scans the
+	 * characters directly, rather than matching the pattern and parsing substrings of it.
+	 * </p>
+	 *
+	 * @param dateString
+	 * @return A new AcalDateTime, or null if the string is in some other format.
+	 * @throws IllegalArgumentException if the string is in one of these formats but the date is not valid.
+	 */
+	static AcalDateTime parseIcalendarFormat(String dateString) throws IllegalArgumentException {
+		int length = dateString.length();
+		if ( length != 8 && length != 15 && length != 16 ) return null;
+
+		int year = parseDigits(dateString, 0, 4);
+		int month = parseDigits(dateString, 4, 2);
+		int day = parseDigits(dateString, 6, 2);
+		if ( year < 1000 || year > 3999 || month < 1 || month > 12 || day < 0 || dateString.charAt(6) > '3' ) return null;
+
+		if ( length == 8 ) {
+			AcalDateTime newDateTime = new AcalDateTime(year, month, day, 0, 0, 0, null);
+			newDateTime.isDate = true;
+			return newDateTime;
+		}
+
+		if ( dateString.charAt(8) != 'T' ) return null;
+		int hour = parseDigits(dateString, 9, 2);
+		int minute = parseDigits(dateString, 11, 2);
+		int second = parseDigits(dateString, 13, 2);
+		if ( hour < 0 || minute < 0 || second < 0 ) return null;
+		if ( dateString.charAt(9) > '2' || dateString.charAt(11) > '5' || dateString.charAt(13) > '6' ) return null;
+		if ( length == 16 && dateString.charAt(15) != 'Z' ) return null;
+
+		AcalDateTime newDateTime = new AcalDateTime(year, month, day, hour, minute, second, null);
+		if ( length == 16 ) {
+			newDateTime.tz = UTC;
+			newDateTime.tzName = UTC_NAME;
+		}
+		return newDateTime;
+	}
+
+
+	/**
+	 * @return The value of count decimal digits starting at start, or -1 if they aren't all digits.
+	 */
+	private static int parseDigits(String s, int start, int count) {
+		int value = 0;
+		for( int i = start; i < start + count; i++ ) {
+			char c = s.charAt(i);
+			if ( c < '0' || c > '9' ) return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+
+	/**
+	 * Parse any of the formats that fromString() accepts, using the isoDatePattern.
+	 */
+	static AcalDateTime parseWithPattern(String dateString) throws IllegalArgumentException {
 		Matcher m = isoDatePattern.matcher(dateString);
 		if ( ! m.matches() ) {
 			throw new IllegalArgumentException("Date '" + dateString + "' is not in a recognised format.");
@@ -356,7 +503,6 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			newDateTime = new AcalDateTime(year, month, day, 0, 0, 0, null);
 			newDateTime.isDate = true;
 		}
-		if ( Constants.debugDateTime ) newDateTime.checkEpoch();
 		return newDateTime;
 	}
 
@@ -372,16 +518,14 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			tz = null;
 			return;
 		}
-        if ( newTzName.startsWith("\"") && newTzName.endsWith("\"") ) {
-            newTzName = newTzName.substring(1, newTzName.length() - 1);
-        }
-		try {
-            tzName = VCalendar.staticGetOlsonName(newTzName);
-            tz = TimeZone.getTimeZone(tzName);
-        }
-        catch ( UnrecognisedTimeZone e ) {
+		TimeZoneCache.Zone zone = TimeZoneCache.resolve(newTzName);
+		if ( zone != null ) {
+			tzName = zone.getOlsonName();
+			tz = zone.getTimeZone();
+		}
+		else {
             Log.w(TAG,"Unrecognised Timezone '"+newTzName+"'");
-        }
+		}
         if ( tz == null ) tzName = null;
 	}
 
@@ -666,14 +810,12 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	public long getEpochDay() {
 		if ( epoch != EPOCH_NOT_SET ) {
-			long offset = (tz != null ? tz.getOffset(epoch*1000) / 1000 : 0);
+			long offset = (tz != null ? ZoneOffsetCache.getOffset(tz, epoch*1000) / 1000 : 0);
 			return (long) Math.floor((epoch+offset) / SECONDS_IN_DAY);
 		}
 
 		// Otherwise work it out from the date fields.
-		return ((year - 1970) * DAYS_IN_YEAR)
-        + epochLeapDays(year)
-        + ( getYearDay() - 1 );
+		return daysFromCivil(year, month, day);
 	}
 
 
@@ -1147,20 +1289,12 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	protected synchronized void calculateEpoch() {
 		if ( year == YEAR_NOT_SET ) throw new IllegalStateException("Uninitialised object");
-		epoch = (((year - 1970) * DAYS_IN_YEAR) + epochLeapDays(year) + ( getYearDay() - 1 )) * SECONDS_IN_DAY;
-		epoch += (hour * SECONDS_IN_HOUR) + (minute * 60) + second;
-		if ( tz == null ) return;
-		long offset = tz.getOffset(this.getMillis()) / 1000;
-		if ( offset == 0 ) return;
-		epoch -= offset;
-		if ( offset == tz.getOffset(this.getMillis()) / 1000 ) return;
-		epoch += (offset - (tz.getOffset(this.getMillis()) / 1000));
+		long localSeconds = daysFromCivil(year, month, day) * SECONDS_IN_DAY;
+		localSeconds += (hour * SECONDS_IN_HOUR) + (minute * 60) + second;
+		epoch = epochFromLocal(localSeconds, tz);
 	}
 
 
-	final private static short TWENTY_YEARS = ((4 * DAYS_IN_YEAR) + 1) * 5;
-	final private static short FORTY_YEARS = ((4 * DAYS_IN_YEAR) + 1) * 10;
-
 	/**
 	 * Calculates the date + time values on the basis of the epoch value. We're lazy though
 	 * so we only calculate this if we have to.
@@ -1177,35 +1311,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 			nDays -= 1;
 		}
 
-		year = 1970;
-		// TODO: Work out a quicker way.  We should be able to do this with
-		// arithmetic directly
-		short daysInYear = 0;
-		if ( nDays > 0 ) {
-			if ( nDays > FORTY_YEARS )  { nDays -= FORTY_YEARS;  year += 40; }
-			if ( nDays > TWENTY_YEARS ) { nDays -= TWENTY_YEARS; year += 20; }
-
-			while( nDays >= (daysInYear = (short) (DAYS_IN_YEAR + leapDay(year))) ) {
-				nDays -= daysInYear;
-				year++;
-			}
-		}
-		else {
-			if ( nDays < - FORTY_YEARS )  { nDays += FORTY_YEARS;  year -= 40; }
-			if ( nDays < - TWENTY_YEARS ) { nDays += TWENTY_YEARS; year -= 20; }
-			while( nDays < 0 ) {
-				year--;
-				daysInYear = (short) (DAYS_IN_YEAR + leapDay(year));
-				nDays += daysInYear;
-			}
-		}
-
-		hour = 0;
-		minute = 0;
-		second = 0;
-//		if ( Constants.debugDateTime  && Constants.LOG_VERBOSE )
-//			Log.v(TAG, "Setting year days to " + (nDays + 1) + ", seconds to " + nSeconds );
-		privateSetYearDay((short) ++nDays, daysInYear);
+		setCivilFromDays(nDays);
 
 		hour   = (short) (nSeconds / SECONDS_IN_HOUR);
 		minute = (short) ((nSeconds % SECONDS_IN_HOUR) / 60);
@@ -1261,7 +1367,7 @@ public class AcalDateTime implements Parcelable, Serializable, Cloneable, Compar
 	 */
 	private void localiseToZone() {
 		if ( tz == null ) return;
-		long offset = tz.getOffset(this.getMillis()) / 1000;
+		long offset = ZoneOffsetCache.getOffset(tz, this.getMillis()) / 1000;
 		if ( offset == 0 ) return;
 		hour += (offset / SECONDS_IN_HOUR);
 		minute += ((offset % SECONDS_IN_HOUR) / 60);
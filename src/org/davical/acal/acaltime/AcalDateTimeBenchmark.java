@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.acaltime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import android.util.Log;
+
+import org.davical.acal.BenchmarkTimer;
+import org.davical.acal.Constants;
+import org.davical.acal.database.cachemanager.CacheObject;
+import org.davical.acal.davacal.VCalendar;
+import org.davical.acal.davacal.VComponent;
+
+/**
+ * <p>
+ * Times how fast we can parse the DATE and DATE-TIME values we find in real calendars, using
+ * the isoDatePattern and using the parser for the RFC5545 formats, and checks that they agree.
+ * </p>
+ * <p>
+ * Also checks the conversion between epoch days and dates against the year by year loop we
+ * used to use, and times the two, along with calculating epochs in a real timezone.
+ * </p>
+ * <p>
+ * Finally counts the bytes we allocate working out alarm times with AcalDateTime and with AcalInstant,
+ * and while expanding a year of a daily event into CacheObjects, and times expanding a daily
+ * event with a thousand EXDATEs.
+ * </p>
+ * <p>
+ * Run from DebugSettings, on the device, since that is where the speed matters.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class AcalDateTimeBenchmark {
+
+	private static final String TAG = "aCal AcalDateTimeBenchmark";
+
+	private static final int ITERATIONS = 20000;
+
+	// Roughly the mix of values, and TZIDs, in a synced calendar
+	private static final String[][] CORPUS = new String[][] {
+		{ "20111024T090000", "Pacific/Auckland" },
+		{ "20111024T100000", "Pacific/Auckland" },
+		{ "20111101T083000", "Europe/London" },
+		{ "20111101T173000", "America/New_York" },
+		{ "20110915T123000Z", null },
+		{ "20110915T130000Z", null },
+		{ "20111231T235959Z", null },
+		{ "20111225", null },
+		{ "20120101", null },
+		{ "20111024T090000", null },
+		{ "20120229T000000", "\"Pacific/Auckland\"" },
+		{ "20111106T013000", "America/Los_Angeles" }
+	};
+
+	private static final String DAILY_EVENT =
+				"BEGIN:VCALENDAR\n"
+				+ "VERSION:2.0\n"
+				+ "PRODID:-//Morphoss Ltd//aCal//EN\n"
+				+ "BEGIN:VEVENT\n"
+				+ "UID:acal-benchmark-daily\n"
+				+ "DTSTAMP:20110101T000000Z\n"
+				+ "DTSTART;TZID=Pacific/Auckland:20110103T090000\n"
+				+ "DTEND;TZID=Pacific/Auckland:20110103T093000\n"
+				+ "RRULE:FREQ=DAILY\n"
+				+ "SUMMARY:Stand up\n"
+				+ "END:VEVENT\n"
+				+ "END:VCALENDAR\n";
+
+	private static final int EXCLUSIONS = 1000;
+
+	private AcalDateTimeBenchmark() {
+	}
+
+
+	/**
+	 * Check the two parsers agree on the corpus, then log how many values each can parse per second.
+	 */
+	public static void run() {
+		for( String[] value : CORPUS ) {
+			AcalDateTime viaPattern = AcalDateTime.parseWithPattern(value[0]);
+			AcalDateTime viaScan = AcalDateTime.parseIcalendarFormat(value[0]);
+			if ( viaScan == null || !viaPattern.fmtIcal().equals(viaScan.fmtIcal())
+						|| viaPattern.isDate() != viaScan.isDate() ) {
+				Log.w(TAG, "Parsers disagree on '"+value[0]+"': "+viaPattern.fmtIcal()
+							+" vs "+(viaScan == null ? "null" : viaScan.fmtIcal()));
+			}
+		}
+
+		// Warm up, so that we measure the code and not the first TZID lookups
+		time(false, ITERATIONS / 10);
+		time(true, ITERATIONS / 10);
+
+		long patternNanos = time(false, ITERATIONS);
+		long scanNanos = time(true, ITERATIONS);
+		long parses = (long) ITERATIONS * CORPUS.length;
+		Log.println(Constants.LOGI, TAG, String.format("Pattern: %d parses/sec, scan: %d parses/sec (%d values each)",
+					parses * 1000000000L / Math.max(1, patternNanos), parses * 1000000000L / Math.max(1, scanNanos), parses));
+
+		long fromIcalNanos = System.nanoTime();
+		for( int i = 0; i < ITERATIONS; i++ ) {
+			for( String[] value : CORPUS ) {
+				AcalDateTime.fromIcalendar(value[0], null, value[1]);
+			}
+		}
+		fromIcalNanos = System.nanoTime() - fromIcalNanos;
+		Log.println(Constants.LOGI, TAG, String.format("fromIcalendar with TZID: %d parses/sec",
+					parses * 1000000000L / Math.max(1, fromIcalNanos)));
+
+		verifyCivilConversion();
+		timeCivilConversion();
+		countExpansionAllocations();
+		timeExclusions();
+	}
+
+
+	/**
+	 * Check that every day from MIN_YEAR_VALUE to MAX_EPOCH_VALUE converts to an epoch day and
+	 * back again, and that the dates agree with the loop we used to use.  The loop is slow for
+	 * dates far from 1970, so beyond 2200 we only compare the start and end of every year.
+	 */
+	private static void verifyCivilConversion() {
+		AcalDateTime converted = new AcalDateTime();
+		int[] legacy = new int[3];
+		int failures = 0;
+		long checked = 0;
+		for( int year = AcalDateTime.MIN_YEAR_VALUE; year <= AcalDateTime.MAX_YEAR_VALUE; year++ ) {
+			for( int month = 1; month <= 12; month++ ) {
+				int daysInMonth = AcalDateTime.monthDays(year, month);
+				for( int day = 1; day <= daysInMonth; day++ ) {
+					long epochDay = AcalDateTime.daysFromCivil(year, month, day);
+					if ( epochDay * AcalDateTime.SECONDS_IN_DAY > AcalDateTime.MAX_EPOCH_VALUE ) break;
+					converted.setEpoch(epochDay * AcalDateTime.SECONDS_IN_DAY);
+					boolean ok = (converted.getYear() == year && converted.getMonth() == month && converted.getMonthDay() == day);
+					if ( ok && (year <= 2200 || (month == 1 && day == 1) || (month == 12 && day == 31)) ) {
+						legacyCivilFromDays(epochDay, legacy);
+						ok = (legacy[0] == year && legacy[1] == month && legacy[2] == day);
+					}
+					checked++;
+					if ( !ok && failures++ < 10 )
+						Log.w(TAG, "Conversion of "+year+"-"+month+"-"+day+" disagrees, epoch day "+epochDay);
+				}
+			}
+		}
+		Log.println(Constants.LOGI, TAG, "Checked conversion of "+checked+" days, "+failures+" disagreed");
+	}
+
+
+	private static void timeCivilConversion() {
+		final long firstDay = AcalDateTime.daysFromCivil(1990, 1, 1);
+		final int days = 365 * 60;
+		int[] legacy = new int[3];
+
+		long legacyNanos = System.nanoTime();
+		for( int d = 0; d < days; d++ ) legacyCivilFromDays(firstDay + d, legacy);
+		legacyNanos = System.nanoTime() - legacyNanos;
+
+		AcalDateTime converted = new AcalDateTime();
+		long civilNanos = System.nanoTime();
+		for( int d = 0; d < days; d++ ) {
+			converted.setEpoch((firstDay + d) * AcalDateTime.SECONDS_IN_DAY);
+			converted.getYear();
+		}
+		civilNanos = System.nanoTime() - civilNanos;
+
+		Log.println(Constants.LOGI, TAG, String.format("Epoch to date: loop %d/sec, arithmetic %d/sec",
+					days * 1000000000L / Math.max(1, legacyNanos), days * 1000000000L / Math.max(1, civilNanos)));
+
+		TimeZone tz = TimeZone.getTimeZone("Pacific/Auckland");
+		final long firstMillis = firstDay * AcalDateTime.SECONDS_IN_DAY * 1000L;
+		final long hour = AcalDateTime.SECONDS_IN_HOUR * 1000L;
+		int failures = 0;
+		long tzNanos = 0;
+		long cachedNanos = 0;
+		for( int d = 0; d < days; d++ ) {
+			long millis = firstMillis + d * 24 * hour + (d % 24) * hour;
+			long start = System.nanoTime();
+			int expected = tz.getOffset(millis);
+			tzNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			int cached = ZoneOffsetCache.getOffset(tz, millis);
+			cachedNanos += System.nanoTime() - start;
+			if ( cached != expected && failures++ < 10 )
+				Log.w(TAG, "Cached offset "+cached+" for "+millis+" should be "+expected);
+		}
+
+		Log.println(Constants.LOGI, TAG, String.format("Zone offsets: TimeZone %d/sec, cached %d/sec, %d disagreed",
+					days * 1000000000L / Math.max(1, tzNanos), days * 1000000000L / Math.max(1, cachedNanos), failures));
+	}
+
+
+	/**
+	 * Count the bytes allocated adding an alarm's duration to a start time, the way AcalAlarm
+	 * used to with AcalDateTime and the way it does now with AcalInstant, and then while
+	 * expanding a year of a daily event.
+	 */
+	private static void countExpansionAllocations() {
+		AcalDateTime start = AcalDateTime.fromIcalendar("20111024T090000", null, "Pacific/Auckland");
+		AcalDuration before = new AcalDuration("-PT15M");
+		BenchmarkTimer timer = new BenchmarkTimer(TAG);
+
+		timer.start();
+		for( int i = 0; i < ITERATIONS; i++ )
+			AcalDateTime.addDuration(start, before).applyLocalTimeZone();
+		timer.stop("AcalDateTime alarm time", ITERATIONS);
+
+		timer.start();
+		for( int i = 0; i < ITERATIONS; i++ )
+			AcalInstant.fromDateTime(start).plus(before).inLocalTimeZone();
+		timer.stop("AcalInstant alarm time", ITERATIONS);
+
+		AcalDateRange year = new AcalDateRange(
+					AcalDateTime.fromIcalendar("20120101T000000", null, "Pacific/Auckland"),
+					AcalDateTime.fromIcalendar("20130101T000000", null, "Pacific/Auckland"));
+		VCalendar vCal = (VCalendar) VComponent.createComponentFromBlob(DAILY_EVENT);
+		ArrayList<CacheObject> instances = new ArrayList<CacheObject>(400);
+		timer.start();
+		vCal.appendCacheEventInstancesBetween(instances, year);
+		timer.stop("Daily event expansion", instances.size());
+	}
+
+
+	/**
+	 * Expand six years of a daily event, with every other day for the first thousand excluded,
+	 * alternately by a date-time and by a date, and check that exactly those were left out.
+	 */
+	private static void timeExclusions() {
+		final long firstDay = AcalDateTime.daysFromCivil(2011, 1, 3);
+		StringBuilder exDateTimes = new StringBuilder("EXDATE;TZID=Pacific/Auckland:");
+		StringBuilder exDates = new StringBuilder("EXDATE;VALUE=DATE:");
+		boolean[] excluded = new boolean[EXCLUSIONS * 2];
+		AcalDateTime day = new AcalDateTime();
+		for( int i = 0; i < EXCLUSIONS; i++ ) {
+			excluded[i * 2] = true;
+			day.setEpoch((firstDay + i * 2) * AcalDateTime.SECONDS_IN_DAY);
+			String date = String.format("%04d%02d%02d", day.getYear(), day.getMonth(), day.getMonthDay());
+			if ( i % 2 == 0 )
+				exDateTimes.append(exDateTimes.charAt(exDateTimes.length() - 1) == ':' ? "" : ",").append(date).append("T090000");
+			else
+				exDates.append(exDates.charAt(exDates.length() - 1) == ':' ? "" : ",").append(date);
+		}
+		String blob = DAILY_EVENT.replace("SUMMARY:", exDateTimes + "\n" + exDates + "\nSUMMARY:");
+		VCalendar vCal = (VCalendar) VComponent.createComponentFromBlob(blob);
+
+		AcalDateTime rangeStart = AcalDateTime.fromIcalendar("20110101T000000", null, "Pacific/Auckland");
+		AcalDateTime rangeEnd = AcalDateTime.fromIcalendar("20170101T000000", null, "Pacific/Auckland");
+		final int days = (int) (AcalDateTime.daysFromCivil(2017, 1, 1) - firstDay);
+
+		List<AcalDateTime> instances = null;
+		long nanos = 0;
+		for( int run = 0; run < 5; run++ ) {
+			AcalRepeatRule rule = AcalRepeatRule.fromVCalendar(vCal, VComponent.VALUE_NOT_ASSIGNED, VComponent.VALUE_NOT_ASSIGNED);
+			long start = System.nanoTime();
+			instances = rule.getInstancesInRange(rangeStart, rangeEnd);
+			nanos = System.nanoTime() - start;
+		}
+
+		int failures = 0;
+		for( AcalDateTime instance : instances ) {
+			int offset = (int) (AcalDateTime.daysFromCivil(instance.getYear(), instance.getMonth(), instance.getMonthDay()) - firstDay);
+			if ( offset < excluded.length && excluded[offset] && failures++ < 10 )
+				Log.w(TAG, "Excluded instance "+instance.fmtIcal()+" was expanded");
+		}
+		if ( instances.size() != days - EXCLUSIONS ) failures++;
+		Log.println(Constants.LOGI, TAG, String.format("%d EXDATEs: %d of %d daily instances expanded in %dus, %d problems",
+					EXCLUSIONS, instances.size(), days, nanos / 1000, failures));
+	}
+
+
+	/**
+	 * The way calculateDateTime() used to find the date, by counting years from 1970.
+	 */
+	private static void legacyCivilFromDays(long nDays, int[] result) {
+		int year = 1970;
+		int daysInYear;
+		if ( nDays > 0 ) {
+			while( nDays >= (daysInYear = AcalDateTime.DAYS_IN_YEAR + (AcalDateTime.monthDays(year, 2) - 28)) ) {
+				nDays -= daysInYear;
+				year++;
+			}
+		}
+		else {
+			while( nDays < 0 ) {
+				year--;
+				nDays += AcalDateTime.DAYS_IN_YEAR + (AcalDateTime.monthDays(year, 2) - 28);
+			}
+		}
+		int month = 1;
+		int day = (int) nDays + 1;
+		while( day > AcalDateTime.monthDays(year, month) ) {
+			day -= AcalDateTime.monthDays(year, month);
+			month++;
+		}
+		result[0] = year;
+		result[1] = month;
+		result[2] = day;
+	}
+
+
+	private static long time(boolean scan, int iterations) {
+		long start = System.nanoTime();
+		for( int i = 0; i < iterations; i++ ) {
+			for( String[] value : CORPUS ) {
+				if ( scan )
+					AcalDateTime.parseIcalendarFormat(value[0]);
+				else
+					AcalDateTime.parseWithPattern(value[0]);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.acaltime;
+
+import java.util.TimeZone;
+
+import org.davical.acal.davacal.PropertyName;
+import org.davical.acal.davacal.TimeZoneCache;
+
+/**
+ * <p>
+ * An immutable date and time: the epoch seconds, the timezone and whether it is a DATE.  As
+ * with AcalDateTime a floating time has no timezone, and its epoch is the clock time as though
+ * it were UTC.
+ * </p>
+ * <p>
+ * AcalDateTime keeps the date fields and the epoch in step, which means locking, and anyone
+ * keeping one has to clone() it in case somebody else changes it.  This doesn't need either,
+ * so it's what we pass around when expanding repeat rules.  Use fromDateTime() and toDateTime()
+ * to convert at the edges.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class AcalInstant implements Comparable<AcalInstant> {
+
+	private final long epoch;
+	private final TimeZone tz;
+	private final String tzName;
+	private final boolean isDate;
+
+	private AcalInstant(long epoch, TimeZone tz, String tzName, boolean isDate) {
+		this.epoch = epoch;
+		this.tz = tz;
+		this.tzName = tzName;
+		this.isDate = isDate;
+	}
+
+
+	/**
+	 * @return An AcalInstant at the same time as the AcalDateTime, or null if it is null.
+	 */
+	public static AcalInstant fromDateTime(AcalDateTime dateTime) {
+		if ( dateTime == null ) return null;
+		synchronized( dateTime ) {
+			return new AcalInstant(dateTime.getEpoch(), dateTime.tz, dateTime.tzName, dateTime.isDate);
+		}
+	}
+
+
+	/**
+	 * @return A new AcalDateTime at this time, which the caller may change as they like.
+	 */
+	public AcalDateTime toDateTime() {
+		return new AcalDateTime(epoch, tz, tzName, isDate);
+	}
+
+
+	/**
+	 * @return Seconds since the epoch, or for a floating time the clock time as though it were UTC.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+
+	public long getMillis() {
+		return epoch * 1000L;
+	}
+
+
+	/**
+	 * @return The clock time, as seconds from 1970-01-01T00:00:00
+	 */
+	public long getLocalSeconds() {
+		return AcalDateTime.localFromEpoch(epoch, tz);
+	}
+
+
+	/**
+	 * @return The local date as days since 1970-01-01.
+	 */
+	public long getLocalEpochDay() {
+		return epochDay(getLocalSeconds());
+	}
+
+
+	private static long epochDay(long localSeconds) {
+		long day = localSeconds / AcalDateTime.SECONDS_IN_DAY;
+		return (localSeconds < 0 && day * AcalDateTime.SECONDS_IN_DAY != localSeconds ? day - 1 : day);
+	}
+
+
+	public String getTimeZoneId() {
+		return tzName;
+	}
+
+
+	public boolean isDate() {
+		return isDate;
+	}
+
+
+	public boolean isFloating() {
+		return tz == null;
+	}
+
+
+	/**
+	 * @return An AcalInstant this many seconds later.
+	 */
+	public AcalInstant plusSeconds(long seconds) {
+		if ( seconds == 0 ) return this;
+		return new AcalInstant(epoch + seconds, tz, tzName, isDate);
+	}
+
+
+	/**
+	 * @return An AcalInstant at the same clock time, this many days later, as for AcalDateTime.addDays()
+	 */
+	public AcalInstant plusDays(int days) {
+		if ( days == 0 ) return this;
+		long local = getLocalSeconds() + (long) days * AcalDateTime.SECONDS_IN_DAY;
+		return new AcalInstant(AcalDateTime.epochFromLocal(local, tz), tz, tzName, isDate);
+	}
+
+
+	/**
+	 * @return An AcalInstant later by the duration, as for AcalDateTime.addDuration()
+	 */
+	public AcalInstant plus(AcalDuration duration) {
+		return plusDays(duration.days).plusSeconds(duration.seconds);
+	}
+
+
+	/**
+	 * @return An AcalInstant in the default timezone, as for AcalDateTime.applyLocalTimeZone(),
+	 * keeping the clock time of a floating time and the epoch of any other.
+	 */
+	public AcalInstant inLocalTimeZone() {
+		TimeZoneCache.Zone local = TimeZoneCache.resolve(TimeZone.getDefault().getID());
+		if ( local == null || local.getOlsonName().equals(tzName) ) return this;
+		long newEpoch = (tz == null ? AcalDateTime.epochFromLocal(epoch, local.getTimeZone()) : epoch);
+		return new AcalInstant(newEpoch, local.getTimeZone(), local.getOlsonName(), isDate);
+	}
+
+
+	public boolean before(AcalInstant another) {
+		return another != null && epoch < another.epoch;
+	}
+
+
+	public boolean after(AcalInstant another) {
+		return another != null && epoch > another.epoch;
+	}
+
+
+	/**
+	 * Compares the epochs, in the same way as AcalDateTime does.
+	 */
+	@Override
+	public int compareTo(AcalInstant another) {
+		return (epoch == another.epoch ? 0 : (epoch < another.epoch ? -1 : 1));
+	}
+
+
+	@Override
+	public boolean equals(Object another) {
+		if ( this == another ) return true;
+		if ( !(another instanceof AcalInstant) ) return false;
+		return epoch == ((AcalInstant) another).epoch;
+	}
+
+
+	@Override
+	public int hashCode() {
+		return (int) (epoch ^ (epoch >>> 32));
+	}
+
+
+	/**
+	 * @return The same as AcalDateTime.fmtIcal(), like 20110107T093000Z
+	 */
+	public String fmtIcal() {
+		StringBuilder ret = new StringBuilder(16);
+		appendIcal(ret);
+		return ret.toString();
+	}
+
+
+	/**
+	 * @return The same as AcalDateTime.toPropertyString(), like RECURRENCE-ID;TZID=Pacific/Auckland:20110107T093000
+	 */
+	public String toPropertyString(PropertyName name) {
+		StringBuilder ret = new StringBuilder(name.toString());
+		if ( isDate )
+			ret.append(";VALUE=DATE");
+		else if ( tz != null && !AcalDateTime.UTC_NAME.equals(tzName) )
+			ret.append(";TZID=").append(tzName);
+		ret.append(':');
+		appendIcal(ret);
+		return ret.toString();
+	}
+
+
+	private void appendIcal(StringBuilder ret) {
+		long local = getLocalSeconds();
+		long day = epochDay(local);
+		ret.append(AcalDateTime.civilFromDays(day));
+		if ( isDate ) return;
+		int seconds = (int) (local - day * AcalDateTime.SECONDS_IN_DAY);
+		ret.append('T');
+		appendTwoDigits(ret, seconds / AcalDateTime.SECONDS_IN_HOUR);
+		appendTwoDigits(ret, (seconds % AcalDateTime.SECONDS_IN_HOUR) / 60);
+		appendTwoDigits(ret, seconds % 60);
+		if ( tz != null && AcalDateTime.UTC_NAME.equals(tzName) ) ret.append('Z');
+	}
+
+
+	private static void appendTwoDigits(StringBuilder ret, int value) {
+		ret.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+
+
+	@Override
+	public String toString() {
+		return epoch + " - " + fmtIcal() + (tz != null && !AcalDateTime.UTC_NAME.equals(tzName) ? " " + tzName : "");
+	}
+}
@@ -51,13 +51,17 @@ public class AcalRepeatRule {
 	final static public String			TAG					= "AcalRepeatRule";
 
 	private final AcalDateTime			baseDate;
+	private final AcalInstant			baseInstant;
 	public final AcalRepeatRuleParser	repeatRule;
 
-	private AcalDateTime[]				rDate				= null;
+	private AcalInstant[]				rDate				= null;
 	private int							rDatePos			= -1;
-	private AcalDateTime[]				exDate				= null;
 
-	private List<AcalDateTime>			recurrences			= null;
+	// EXDATE date-times as epoch seconds, and EXDATE dates as days since 1970-01-01, each sorted
+	private long[]						exDateEpochs		= null;
+	private long[]						exDateDays			= null;
+
+	private List<AcalInstant>			recurrences			= null;
 	private Map<Long, LocalEventInstance>	eventTimes			= null;
 	private int							lastCalc			= -1;
 	private int							generatedCount		= 0;
@@ -78,9 +82,10 @@ public class AcalRepeatRule {
 
 	public AcalRepeatRule(AcalDateTime dtStart, String rRule) {
 		baseDate = dtStart.clone();
+		baseInstant = AcalInstant.fromDateTime(baseDate);
 		if ( rRule == null || rRule.equals("")) {
-			recurrences = new ArrayList<AcalDateTime>(1);
-			recurrences.add(baseDate);
+			recurrences = new ArrayList<AcalInstant>(1);
+			recurrences.add(baseInstant);
 			currentPos	= -1;
 			lastCalc	= 0;
 			started 	= true;
@@ -176,14 +181,16 @@ public class AcalRepeatRule {
 			}
 			if ( timeList.isEmpty() ) continue;
 
-			AcalDateTime[] timeArray = timeList.toArray(new AcalDateTime[timeList.size()]);
-			Arrays.sort(timeArray);
 			if ( dListPName.equals(PropertyName.RDATE) ) {
-				ret.rDate = timeArray;
+				AcalInstant[] instants = new AcalInstant[timeList.size()];
+				for( int i = 0; i < instants.length; i++ )
+					instants[i] = AcalInstant.fromDateTime(timeList.get(i));
+				Arrays.sort(instants);
+				ret.rDate = instants;
 				ret.rDatePos = 0;
 			}
 			else if ( dListPName.equals(PropertyName.EXDATE) ) {
-				ret.exDate = timeArray;
+				ret.setExDates(timeList);
 			}
 		}
 
@@ -196,7 +203,7 @@ public class AcalRepeatRule {
 		currentPos = -1;
 	}
 
-	public AcalDateTime next() {
+	public AcalInstant next() {
 		if (currentPos > lastCalc && finished) return null;
 		currentPos++;
 		getMoreInstances();
@@ -271,23 +278,47 @@ public class AcalRepeatRule {
 
 
 
+	/**
+	 * Splits the EXDATE values into sorted arrays of epochs and of days, so that we can binary
+	 * search them for each instance, rather than comparing every one.
+	 */
+	private void setExDates( List<AcalDateTime> excluded ) {
+		int dates = 0;
+		for( AcalDateTime ex : excluded ) {
+			if ( ex.isDate() ) dates++;
+		}
+		long[] epochs = new long[excluded.size() - dates];
+		long[] days = new long[dates];
+		int e = 0;
+		int d = 0;
+		for( AcalDateTime ex : excluded ) {
+			if ( ex.isDate() )
+				days[d++] = AcalDateTime.daysFromCivil(ex.getYear(), ex.getMonth(), ex.getMonthDay());
+			else
+				epochs[e++] = ex.getEpoch();
+		}
+		Arrays.sort(epochs);
+		Arrays.sort(days);
+		exDateEpochs = (epochs.length == 0 ? null : epochs);
+		exDateDays = (days.length == 0 ? null : days);
+	}
+
+
 	/**
 	 * Tests whether an instance is excluded by one of the EXDATE values.  A date-time
 	 * EXDATE excludes the instance starting at exactly that time, while a date-valued
 	 * EXDATE excludes any instance falling on that calendar day.
 	 */
 	private boolean isExcluded( AcalDateTime instance ) {
-		if ( exDate == null ) return false;
-		for( AcalDateTime excluded : exDate ) {
-			if ( excluded == null ) continue;
-			if ( excluded.isDate() ) {
-				if ( instance.getYear() == excluded.getYear()
-						&& instance.getMonth() == excluded.getMonth()
-						&& instance.getMonthDay() == excluded.getMonthDay() ) return true;
-			}
-			else if ( excluded.equals(instance) ) return true;
-		}
-		return false;
+		if ( exDateEpochs != null && Arrays.binarySearch(exDateEpochs, instance.getEpoch()) >= 0 ) return true;
+		return exDateDays != null && Arrays.binarySearch(exDateDays,
+					AcalDateTime.daysFromCivil(instance.getYear(), instance.getMonth(), instance.getMonthDay())) >= 0;
+	}
+
+
+	private boolean isExcluded( AcalInstant instance ) {
+		if ( exDateEpochs != null && Arrays.binarySearch(exDateEpochs, instance.getEpoch()) >= 0 ) return true;
+		return exDateDays != null && Arrays.binarySearch(exDateDays, instance.getLocalEpochDay()) >= 0;
 	}
 
 
@@ -328,14 +359,14 @@ public class AcalRepeatRule {
 	    		if ( !started ) {
 	    			if ( thisInstance.before(baseDate)) continue;
 	    		    if ( recurrences == null ) {
-	    		    	recurrences = new ArrayList<AcalDateTime>();
+	    		    	recurrences = new ArrayList<AcalInstant>();
 	    		    }
 	    			if ( thisInstance.after(baseDate) ) {
 	    				// The DTSTART is not in the set generated by the RRULE, but it is
 	    				// always the first occurrence, and counts towards any COUNT limit.
 	    				generatedCount++;
 	    				if ( !isExcluded(baseDate) ) {
-	    					recurrences.add(baseDate);
+	    					recurrences.add(baseInstant);
 	    					lastCalc = recurrences.size() - 1;
 	    					foundSome = true;
 	    				}
@@ -347,11 +378,11 @@ public class AcalRepeatRule {
 	    			break;
 	    		}
 	    		// RDATE occurrences are additional to the RRULE set, and don't consume COUNT.
-	    		while ( rDate != null && rDatePos < rDate.length &&
-	    					(rDate[rDatePos] == null || rDate[rDatePos].before(thisInstance)) ) {
-	    			AcalDateTime rDateInstance = rDate[rDatePos++];
-	    			if ( rDateInstance == null || isExcluded(rDateInstance) ) continue;
-		    		recurrences.add(rDateInstance.clone());
+	    		while ( rDate != null && rDatePos < rDate.length
+	    					&& rDate[rDatePos].getEpoch() < thisInstance.getEpoch() ) {
+	    			AcalInstant rDateInstance = rDate[rDatePos++];
+	    			if ( isExcluded(rDateInstance) ) continue;
+		    		recurrences.add(rDateInstance);
 		    		lastCalc = recurrences.size() - 1;
 		    		foundSome = true;
 	    		}
@@ -363,7 +394,7 @@ public class AcalRepeatRule {
 		    		finished = true;
 		    	}
 	    		if ( isExcluded(thisInstance) ) continue;
-	    		recurrences.add(thisInstance.clone());
+	    		recurrences.add(AcalInstant.fromDateTime(thisInstance));
 	    		lastCalc = recurrences.size() - 1;
 	    		foundSome = true;
 	    	}
@@ -382,20 +413,22 @@ public class AcalRepeatRule {
 		else if ( repeatRule.until != null && start.after(repeatRule.until) )
 			return new ArrayList<AcalDateTime>(0);
 
+		AcalInstant from = AcalInstant.fromDateTime(start);
+		AcalInstant to = AcalInstant.fromDateTime(end);
 		if ( recurrences != null ) {
-			for ( currentPos=0; currentPos<=lastCalc && recurrences.get(currentPos).before(start); currentPos++)
+			for ( currentPos=0; currentPos<=lastCalc && recurrences.get(currentPos).before(from); currentPos++)
 				;
 		}
 
-		AcalDateTime thisDate = null;
+		AcalInstant thisDate = null;
 		do {
 			thisDate = next();
 		}
-		while( thisDate != null && thisDate.before(start) );
+		while( thisDate != null && thisDate.before(from) );
 
 		List<AcalDateTime> ret = new ArrayList<AcalDateTime>();
-		while( thisDate != null && thisDate.before(end) ) {
-			ret.add(thisDate);
+		while( thisDate != null && thisDate.before(to) ) {
+			ret.add(thisDate.toDateTime());
 			thisDate = next();
 		}
 		return ret;
@@ -424,14 +457,13 @@ public class AcalRepeatRule {
 			while( hasNext() ) {
 				next();
 			}
-			endDate = recurrences.get(currentPos);
+			AcalInstant lastInstance = recurrences.get(currentPos);
+			endDate = lastInstance.toDateTime();
 			try {
 				sourceVCalendar.setPersistentOn();
-				RecurrenceId ourRecurrenceId = (RecurrenceId) AcalProperty.fromString(endDate.toPropertyString(PropertyName.RECURRENCE_ID));
-				Masterable vMaster = sourceVCalendar.getChildFromRecurrenceId(ourRecurrenceId);
-				LocalEventInstance instance = getRecurrence(endDate,vMaster);
-				eventTimes.put(endDate.getEpoch(), instance );
-				endDate = instance.dtend;
+				LocalEventInstance instance = getRecurrence(lastInstance,sourceVCalendar.getMasterChild());
+				eventTimes.put(lastInstance.getEpoch(), instance );
+				endDate = instance.dtend.toDateTime();
 			}
 			catch ( Exception e ) {
 				Log.w(TAG,"Exception while calculating instance range");
@@ -474,7 +506,9 @@ public class AcalRepeatRule {
 
 		int found = 0;
 		long processingStarted = System.currentTimeMillis();
-		AcalDateTime thisDate = null;
+		AcalInstant rangeStart = AcalInstant.fromDateTime(range.start);
+		AcalInstant rangeEnd = AcalInstant.fromDateTime(range.end);
+		AcalInstant thisDate = null;
 		LocalEventInstance instance = null;
 		Masterable ourVEvent = null;
 		int possiblyInfinite = 0;
@@ -498,15 +532,15 @@ public class AcalRepeatRule {
 				}
 
 				if ( Constants.debugRepeatRule && Constants.LOG_DEBUG ) {
-					if ( instance.dtend.after(range.start) ) break;
+					if ( instance.dtend.after(rangeStart) ) break;
 					Log.println(Constants.LOGD,TAG, "Skipping Instance with recurrenceId: "+thisDate.fmtIcal()+" of " +repeatRule.toString()+
 							"\n       scheduled from: "+instance.dtstart.fmtIcal()+" to "+instance.dtend.fmtIcal()+" which ends before "+ range.start);
 				}
 			}
-			while( thisDate != null && ! instance.dtend.after(range.start) && possiblyInfinite < 20 );
+			while( thisDate != null && ! instance.dtend.after(rangeStart) && possiblyInfinite < 20 );
 
 			while( thisDate != null
-						&& instance.dtstart.before(range.end)
+						&& instance.dtstart.before(rangeEnd)
 						&& possiblyInfinite < 40 ) {
 
 				instance = eventTimes.get(thisDate.getEpoch());
@@ -514,7 +548,7 @@ public class AcalRepeatRule {
 					instance = getRecurrence(thisDate, ourVEvent);
 					eventTimes.put(thisDate.getEpoch(), instance);
 				}
-				if( ! instance.dtstart.before(range.end) ) break;
+				if( ! instance.dtstart.before(rangeEnd) ) break;
 
 				if (cacheObjects) {
 					eventList.add(instance.getCacheObject());
@@ -562,39 +596,37 @@ public class AcalRepeatRule {
 		return;
 	}
 
-	private LocalEventInstance getRecurrence(AcalDateTime thisDate, Masterable ourVEvent ) {
-		AcalDateTime instanceStart = thisDate.clone();
+	private LocalEventInstance getRecurrence(AcalInstant thisDate, Masterable ourVEvent ) {
 
 		if ( lastDuration == null ) lastDuration = baseDuration;
 		AcalDuration ourDuration = lastDuration;
 
 		if ( sourceVCalendar.masterHasOverrides() ) {
-			RecurrenceId instanceId = RecurrenceId.fromString( thisDate.toPropertyString(PropertyName.RECURRENCE_ID));
-			ourVEvent = sourceVCalendar.getChildFromRecurrenceId(instanceId);
+			ourVEvent = sourceVCalendar.getOverrideForInstance(thisDate.getEpoch());
 			ourDuration = ourVEvent.getDuration();
 		}
 
 		lastDuration = ourDuration;
 
-		LocalEventInstance ret = new LocalEventInstance(ourVEvent, instanceStart, ourDuration);
+		LocalEventInstance ret = new LocalEventInstance(ourVEvent, thisDate, ourDuration);
 
 		return ret;
 	}
 
 	private class LocalEventInstance {
 		final Masterable masterInstance;
-		final AcalDateTime dtstart;
-		final AcalDateTime dtend;
+		final AcalInstant dtstart;
+		final AcalInstant dtend;
 		private RecurrenceId rrid = null;
 
-		LocalEventInstance( Masterable masterIn, AcalDateTime dtstart, AcalDuration duration ) {
+		LocalEventInstance( Masterable masterIn, AcalInstant dtstart, AcalDuration duration ) {
 			if ( duration.seconds < 0 || duration.days < 0 )
 				throw new IllegalArgumentException("Resource duration must be positive. UID: "+masterIn.getUID() );
 			if ( Constants.debugRepeatRule && duration.days > 10 )
 				throw new IllegalArgumentException();
 			this.masterInstance = masterIn;
 			this.dtstart = dtstart;
-			this.dtend = AcalDateTime.addDuration(dtstart, duration);
+			this.dtend = dtstart.plus(duration);
 		}
 
 		EventInstance getEventInstance() {
@@ -612,7 +644,7 @@ public class AcalRepeatRule {
 				throw new IllegalArgumentException("To retrieve CacheObjects the RepeatRule must have valid collectionId and resourceId");
 			}
 			Thread.yield();
-			return new CacheObject(masterInstance, collectionId, resourceId, dtstart, dtend, null);
+			return new CacheObject(masterInstance, collectionId, resourceId, dtstart, dtend);
 		}
 	}
 /*
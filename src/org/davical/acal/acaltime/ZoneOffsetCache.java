@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.acaltime;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Remembers the UTC offsets of the timezones we use, a day at a time, so that AcalDateTime
+ * doesn't have to ask the TimeZone, which is slow, for every instance of a recurring event.
+ * </p>
+ * <p>
+ * For each UTC day we find the offset at the start and the end of the day, and if they differ
+ * we search for the moment the offset changes.  That assumes a zone changes its offset at
+ * most once in a day, which is true of every zone in the Olson database.
+ * </p>
+ * <p>
+ * The cache is keyed on the TimeZone object, so it works best with the shared ones from the
+ * TimeZoneCache, which is where AcalDateTime gets almost all of its zones.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+final class ZoneOffsetCache {
+
+	private static final int MAX_ZONES = 64;
+
+	private static final long MILLIS_IN_DAY = AcalDateTime.SECONDS_IN_DAY * 1000L;
+
+	// A power of two, since we use the bottom bits of the day as the slot
+	private static final int SLOTS = 1024;
+
+	private static final IdentityHashMap<TimeZone,ZoneOffsetCache> zones = new IdentityHashMap<TimeZone,ZoneOffsetCache>();
+
+	private final TimeZone tz;
+	private final long[] days = new long[SLOTS];
+	private final long[] transitions = new long[SLOTS];
+	private final int[] offsetsBefore = new int[SLOTS];
+	private final int[] offsetsAfter = new int[SLOTS];
+
+	private ZoneOffsetCache(TimeZone tz) {
+		this.tz = tz;
+		Arrays.fill(days, Long.MIN_VALUE);
+	}
+
+
+	/**
+	 * @return The same as tz.getOffset(millis)
+	 */
+	static int getOffset(TimeZone tz, long millis) {
+		ZoneOffsetCache cache;
+		synchronized( zones ) {
+			cache = zones.get(tz);
+			if ( cache == null ) {
+				if ( zones.size() >= MAX_ZONES ) zones.clear();
+				cache = new ZoneOffsetCache(tz);
+				zones.put(tz, cache);
+			}
+		}
+		return cache.offsetAt(millis);
+	}
+
+
+	private synchronized int offsetAt(long millis) {
+		long day = millis / MILLIS_IN_DAY;
+		if ( millis < 0 && day * MILLIS_IN_DAY != millis ) day--;
+		int slot = (int) (day & (SLOTS - 1));
+		if ( days[slot] != day ) fill(slot, day);
+		return (millis < transitions[slot] ? offsetsBefore[slot] : offsetsAfter[slot]);
+	}
+
+
+	private void fill(int slot, long day) {
+		long start = day * MILLIS_IN_DAY;
+		long end = start + MILLIS_IN_DAY - 1;
+		int before = tz.getOffset(start);
+		int after = tz.getOffset(end);
+		long transition = Long.MAX_VALUE;
+		if ( before != after ) {
+			// Find the first millisecond with the new offset
+			long lo = start;
+			long hi = end;
+			while ( hi - lo > 1 ) {
+				long mid = lo + (hi - lo) / 2;
+				if ( tz.getOffset(mid) == before ) lo = mid;
+				else hi = mid;
+			}
+			transition = hi;
+		}
+		days[slot] = day;
+		transitions[slot] = transition;
+		offsetsBefore[slot] = before;
+		offsetsAfter[slot] = after;
+	}
+}
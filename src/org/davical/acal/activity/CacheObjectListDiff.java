@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.activity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.davical.acal.database.cachemanager.CacheObject;
+
+/**
+ * <p>
+ * Compares the list of CacheObjects an adapter is showing with a fresh one from the cache.
+ * Objects are matched on their resource id and recurrence id, since the cache rows are deleted
+ * and inserted again whenever a resource is written, even when nothing we display has changed.
+ * </p>
+ * <p>
+ * The new list which comes out of this holds the objects from the old list wherever they are
+ * unchanged, so an adapter can tell that a row it has already bound is still good by checking
+ * that the view's tag is the very same object.  Meant to be run on the thread that delivers
+ * the cache response, not the UI thread.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+final class CacheObjectListDiff {
+
+	/** The list to show from now on. */
+	final ArrayList<CacheObject> list;
+
+	/** Whether objects were added, removed or moved, rather than just changed where they are. */
+	final boolean keysChanged;
+
+	/** How many of the objects in the new list are different from what was shown for them. */
+	final int changedCount;
+
+	private CacheObjectListDiff(ArrayList<CacheObject> list, boolean keysChanged, int changedCount) {
+		this.list = list;
+		this.keysChanged = keysChanged;
+		this.changedCount = changedCount;
+	}
+
+	/**
+	 * @return Whether the new list would display exactly the same as the old one.
+	 */
+	boolean isEmpty() {
+		return !keysChanged && changedCount == 0;
+	}
+
+
+	/**
+	 * @param shown The list currently displayed, which is not modified
+	 * @param fresh The list just received from the cache, which is not modified
+	 */
+	static CacheObjectListDiff compute(List<CacheObject> shown, List<CacheObject> fresh) {
+		HashMap<String,CacheObject> byKey = new HashMap<String,CacheObject>(shown.size() * 2);
+		for( CacheObject co : shown ) byKey.put(keyOf(co), co);
+
+		ArrayList<CacheObject> result = new ArrayList<CacheObject>(fresh.size());
+		boolean keysChanged = (shown.size() != fresh.size());
+		int changedCount = 0;
+		for( int i = 0; i < fresh.size(); i++ ) {
+			CacheObject co = fresh.get(i);
+			String key = keyOf(co);
+			CacheObject old = byKey.get(key);
+			if ( old != null && sameContent(old, co) ) {
+				result.add(old);
+			}
+			else {
+				result.add(co);
+				changedCount++;
+			}
+			if ( !keysChanged && !key.equals(keyOf(shown.get(i))) ) keysChanged = true;
+		}
+		return new CacheObjectListDiff(result, keysChanged, changedCount);
+	}
+
+
+	/**
+	 * @return The identity of this object within a list, which survives the cache being rebuilt.
+	 */
+	static String keyOf(CacheObject co) {
+		return co.getResourceId() + ":" + co.getRecurrenceId();
+	}
+
+
+	/**
+	 * @return Whether the two objects would display the same in a list.
+	 */
+	static boolean sameContent(CacheObject a, CacheObject b) {
+		return a.getStart() == b.getStart()
+				&& a.getEnd() == b.getEnd()
+				&& a.isStartFloating() == b.isStartFloating()
+				&& a.isEndFloating() == b.isEndFloating()
+				&& a.getCollectionId() == b.getCollectionId()
+				&& a.getCompleted() == b.getCompleted()
+				&& a.isOverdue() == b.isOverdue()
+				&& a.hasAlarms() == b.hasAlarms()
+				&& a.isRecurring() == b.isRecurring()
+				&& a.isAllDay() == b.isAllDay()
+				&& a.isEvent() == b.isEvent()
+				&& equal(a.getSummary(), b.getSummary())
+				&& equal(a.getLocation(), b.getLocation());
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+
+	/**
+	 * Hands out item ids which stay the same for an object as the list changes around it, so
+	 * that a ListView with stable ids keeps its scroll position and gives us back the view which
+	 * was showing the same object.  Only for use on the UI thread.
+	 */
+	static final class ItemIds {
+		private final HashMap<String,Long> ids = new HashMap<String,Long>();
+		private long nextId = 1;
+
+		long idFor(CacheObject co) {
+			String key = keyOf(co);
+			Long id = ids.get(key);
+			if ( id == null ) {
+				id = nextId++;
+				ids.put(key, id);
+			}
+			return id;
+		}
+
+		/**
+		 * Forget the ids of anything which is no longer in the list.
+		 */
+		void retain(List<CacheObject> list) {
+			HashSet<String> keys = new HashSet<String>(list.size() * 2);
+			for( CacheObject co : list ) keys.add(keyOf(co));
+			ids.keySet().retainAll(keys);
+		}
+	}
+}
@@ -18,6 +18,9 @@
 
 package org.davical.acal.activity;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.util.Log;
@@ -30,13 +33,20 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import org.davical.acal.BenchmarkTimer;
+import org.davical.acal.PerformanceStats;
 import org.davical.acal.R;
 import org.davical.acal.ServiceManager;
+import org.davical.acal.acaltime.AcalDateTimeBenchmark;
 import org.davical.acal.database.alarmmanager.AlarmQueueManager;
 import org.davical.acal.database.cachemanager.CacheManager;
 import org.davical.acal.database.cachemanager.requests.CRClearCacheRequest;
+import org.davical.acal.davacal.TimeZoneCache;
+import org.davical.acal.davacal.VComponentBenchmark;
 import org.davical.acal.service.SyncChangesToServer;
 import org.davical.acal.service.WorkerClass;
+import org.davical.acal.service.connector.AcalConnectionPool;
+import org.davical.acal.weekview.IntervalLayoutBenchmark;
 
 public class DebugSettings extends AppCompatActivity {
 public static final String TAG = "aCal Settings";
@@ -52,7 +62,15 @@ public static final String TAG = "aCal Settings";
 		"Clear Cache",
 		"Sync local changes to server",
 		"Log current alarm queue",
-		"Rebuild alarm queue"
+		"Rebuild alarm queue",
+		"Log connection statistics",
+		"Log view performance",
+		"Export view performance as CSV",
+		"Reset view performance",
+		"Benchmark date handling",
+		"Log timezone cache statistics",
+		"Benchmark component parsing",
+		"Benchmark week view layout"
 	};
 
 	private ServiceManager serviceManager;
@@ -159,6 +177,53 @@ public static final String TAG = "aCal Settings";
                 AlarmQueueManager.logCurrentAlarms(DebugSettings.this);
                 AlarmQueueManager.rebuildAlarmQueue(DebugSettings.this);
                 AlarmQueueManager.logCurrentAlarms(DebugSettings.this);
+            }
+            else if ( task.equals("Log connection statistics") ) {
+                AcalConnectionPool.logMetrics();
+            }
+            else if ( task.equals("Log view performance") ) {
+                PerformanceStats.logSummary();
+            }
+            else if ( task.equals("Export view performance as CSV") ) {
+                try {
+                    File file = PerformanceStats.exportCsv(DebugSettings.this);
+                    Toast.makeText(DebugSettings.this, "Written to "+file, Toast.LENGTH_LONG).show();
+                }
+                catch ( IOException e ) {
+                    Log.e(TAG, "Unable to export view performance: "+e.getMessage());
+                    Toast.makeText(DebugSettings.this, "Export failed: "+e.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            }
+            else if ( task.equals("Reset view performance") ) {
+                PerformanceStats.clear();
+            }
+            else if ( task.equals("Benchmark date handling") ) {
+                // Checking every day takes a while, so keep it off the UI thread
+                BenchmarkTimer.runInBackground("DateBenchmark", new Runnable() {
+                    @Override
+                    public void run() {
+                        AcalDateTimeBenchmark.run();
+                    }
+                });
+            }
+            else if ( task.equals("Log timezone cache statistics") ) {
+                TimeZoneCache.logStatistics();
+            }
+            else if ( task.equals("Benchmark component parsing") ) {
+                BenchmarkTimer.runInBackground("ParseBenchmark", new Runnable() {
+                    @Override
+                    public void run() {
+                        VComponentBenchmark.run();
+                    }
+                });
+            }
+            else if ( task.equals("Benchmark week view layout") ) {
+                BenchmarkTimer.runInBackground("LayoutBenchmark", new Runnable() {
+                    @Override
+                    public void run() {
+                        IntervalLayoutBenchmark.run();
+                    }
+                });
             }
 		}
 	}
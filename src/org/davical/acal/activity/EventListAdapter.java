@@ -41,6 +41,8 @@ import android.widget.LinearLayout;
 import android.widget.ListAdapter;
 import android.widget.TextView;
 
+import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.R;
 import org.davical.acal.acaltime.AcalDateRange;
 import org.davical.acal.acaltime.AcalDateTime;
@@ -83,25 +85,59 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 	public static final int CONTEXT_DELETE_FROMNOW = 0x30000;
 	public static final int CONTEXT_COPY = 0x40000;
 
+	// Only replaced on the UI thread, and never modified once it is being shown.
 	private ArrayList<CacheObject> dayEvents = new ArrayList<CacheObject>();
 	private CacheManager cacheManager;
-	
+
+	// The last list we received, which the next response is compared with.
+	private final Object diffLock = new Object();
+	private ArrayList<CacheObject> lastReceived = dayEvents;
+	private int lastGeneration = Collection.getGeneration();
+	private final CacheObjectListDiff.ItemIds itemIds = new CacheObjectListDiff.ItemIds();
+	private final DrawTimer bindTimer = new DrawTimer(TAG, false);
+
+	// A sync can change the cache many times in quick succession, so we wait for it to settle.
+	private static final long REFRESH_DELAY = 300;
+
 	private static final int HANDLER_NEW_LIST = 0;
+	private static final int HANDLER_REFRESH = 1;
 	
 	private Handler mHandler = new Handler(Looper.getMainLooper()) {
 		
-		@SuppressWarnings("unchecked")
 		@Override
 		public void handleMessage(Message msg) {
 			switch (msg.what) {
 				case HANDLER_NEW_LIST:
-					dayEvents = new ArrayList<CacheObject>();
-					for ( CacheObject co : (ArrayList<CacheObject>)msg.obj ) {
-						if ( co.isEvent() ) dayEvents.add(co);
-					}
+					CacheObjectListDiff diff = (CacheObjectListDiff) msg.obj;
+					dayEvents = diff.list;
+					itemIds.retain(dayEvents);
 					EventListAdapter.this.notifyDataSetChanged();
-					
 					break;
+
+				case HANDLER_REFRESH:
+					cacheManager.sendRequest(getCacheRequest());
+					break;
+			}
+		}
+	};
+
+	private final OnCreateContextMenuListener contextMenuListener = new OnCreateContextMenuListener() {
+
+		@Override
+		public void onCreateContextMenu(ContextMenu menu, View view, ContextMenuInfo info) {
+			int position = positionOf(view.getTag());
+			if ( position < 0 ) return;
+			CacheObject event = dayEvents.get(position);
+
+			menu.setHeaderTitle(context.getString(R.string.Event));
+			menu.add(0, CONTEXT_EDIT + position, 0, context.getString(R.string.editSomeEvent, event.getSummary()));
+			menu.add(0, CONTEXT_COPY + position, 0, context.getString(R.string.newEventFromThis));
+			if ( event.isRecurring() ) {
+				menu.add(0,CONTEXT_DELETE_ALL+position,0, context.getString(R.string.deleteAllInstances));
+				menu.add(0,CONTEXT_DELETE_JUSTTHIS+position, 0, context.getString(R.string.deleteThisInstance));
+				menu.add(0,CONTEXT_DELETE_FROMNOW+position,0, context.getString(R.string.deleteThisAndFuture));
+			} else {
+				menu.add(0,CONTEXT_DELETE_ALL+position,0, context.getString(R.string.Delete));
 			}
 		}
 	};
@@ -143,9 +179,7 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 	 */
 	@Override
 	public int getCount() {
-		synchronized (dayEvents) {
-			return dayEvents.size();
-		}
+		return dayEvents.size();
 	}
 
 	/**
@@ -156,33 +190,53 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 	 */
 	@Override
 	public Object getItem(int position) {
-		synchronized (dayEvents) {
-			if ( position >= dayEvents.size() ) return null;
-			return dayEvents.get(position);
-		}
+		if ( position >= dayEvents.size() ) return null;
+		return dayEvents.get(position);
 	}
 
 	/**
-	 * <p>Returns the id associated with the event at specified position. Currently not implemented (i.e. returns position)</p>
+	 * <p>Returns the id associated with the event at specified position, which stays the same for
+	 * that event when the list is refreshed.</p>
 	 * 
 	 * (non-Javadoc)
 	 * @see android.widget.Adapter#getItemId(int)
 	 */
 	@Override
 	public long getItemId(int position) {
-		return position;
+		if ( position >= dayEvents.size() ) return position;
+		return itemIds.idFor(dayEvents.get(position));
 	}
 
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
 
 	/**
-	 * <p>Returns the view associated with the event at the specified position. Currently, views
-	 * do not respond to any events.</p> 
+	 * @return The position of this very event in the list, or -1 if it is no longer there.
+	 */
+	private int positionOf(Object event) {
+		for( int i = 0; i < dayEvents.size(); i++ ) {
+			if ( dayEvents.get(i) == event ) return i;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * <p>Returns the view associated with the event at the specified position.  Since our ids are
+	 * stable the ListView hands us back the view which last showed this event, and if the event
+	 * is unchanged since then we don't need to touch it.</p> 
 	 * 
 	 * (non-Javadoc)
 	 * @see android.widget.Adapter#getView(int, android.view.View, android.view.ViewGroup)
 	 */
 	@Override
-	public View getView(final int position, View convertView, ViewGroup parent) {
+	public View getView(int position, View convertView, ViewGroup parent) {
+		CacheObject event = dayEvents.get(position);
+		if ( convertView != null && convertView.getTag() == event ) return convertView;
+		bindTimer.start();
+
 		LinearLayout rowLayout;
 
 		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -193,11 +247,6 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 		TextView location = (TextView) rowLayout.findViewById(R.id.EventListItemLocation);
 		
 		LinearLayout sideBar = (LinearLayout) rowLayout.findViewById(R.id.EventListItemColorBar);
-		CacheObject event = null;
-		synchronized(dayEvents) {
-			event = dayEvents.get(position);
-		}
-		if ( event == null ) return rowLayout;
 		
 		Collection eventCollection = Collection.getInstance(event.getCollectionId(), this.context);
 		if ( eventCollection != null ) {
@@ -236,34 +285,11 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 		rowLayout.setOnTouchListener(this.context);
 		rowLayout.setOnClickListener(this);
 
-		// 'final' so we can refer to it below
-		final boolean repeats = event.isRecurring();
-
 		//add context menu
 		this.context.registerForContextMenu(rowLayout);
-		rowLayout.setOnCreateContextMenuListener(new OnCreateContextMenuListener() {
-		
-
-			@Override
-			public void onCreateContextMenu(ContextMenu menu, View view, ContextMenuInfo info) {
-				menu.setHeaderTitle(context.getString(R.string.Event));
-
-				CacheObject event = null;
-				synchronized(dayEvents) {
-					event = dayEvents.get(position);
-				}
-				menu.add(0, CONTEXT_EDIT + position, 0, context.getString(R.string.editSomeEvent, event.getSummary()));
-				menu.add(0, CONTEXT_COPY + position, 0, context.getString(R.string.newEventFromThis));
-				if (repeats) {
-					menu.add(0,CONTEXT_DELETE_ALL+position,0, context.getString(R.string.deleteAllInstances));
-					menu.add(0,CONTEXT_DELETE_JUSTTHIS+position, 0, context.getString(R.string.deleteThisInstance));
-					menu.add(0,CONTEXT_DELETE_FROMNOW+position,0, context.getString(R.string.deleteThisAndFuture));
-				} else {
-					menu.add(0,CONTEXT_DELETE_ALL+position,0, context.getString(R.string.Delete));
-				}
-			}
-		});
+		rowLayout.setOnCreateContextMenuListener(contextMenuListener);
 
+		bindTimer.stop();
 		return rowLayout;
 	}
 
@@ -351,19 +377,42 @@ public class EventListAdapter extends BaseAdapter implements OnClickListener, Li
 			}
 		}
 		
-		if (update) cacheManager.sendRequest(new CRObjectsInRange(myRange,this));
-		
-		
+		if (update) {
+			mHandler.removeMessages(HANDLER_REFRESH);
+			mHandler.sendEmptyMessageDelayed(HANDLER_REFRESH, REFRESH_DELAY);
+		}
 	}
 
 	/** 
 	 * Warning - this runs under a different thread - need to use Handler to ensure calls are made by GUI Thread
+	 *
+	 * We compare the new list with the last one here, so the UI thread only hears about it when
+	 * something we display has actually changed.
 	 */
 	@Override
 	public void cacheResponse(CacheResponse<ArrayList<CacheObject>> response) {
-		mHandler.sendMessage(
-				mHandler.obtainMessage(HANDLER_NEW_LIST, response.result())
-		);
+		ArrayList<CacheObject> events = new ArrayList<CacheObject>();
+		for ( CacheObject co : response.result() ) {
+			if ( co.isEvent() ) events.add(co);
+		}
+		synchronized( diffLock ) {
+			if ( lastGeneration != Collection.getGeneration() ) {
+				// A collection's colour may have changed, so every row needs drawing again
+				lastGeneration = Collection.getGeneration();
+				lastReceived = new ArrayList<CacheObject>();
+			}
+			CacheObjectListDiff diff = CacheObjectListDiff.compute(lastReceived, events);
+			if ( diff.isEmpty() ) {
+				if ( Constants.LOG_DEBUG && Constants.debugEvents )
+					Log.println(Constants.LOGD, TAG, "Event list for "+viewDate.fmtIcal()+" is unchanged.");
+				return;
+			}
+			if ( Constants.LOG_DEBUG && Constants.debugEvents )
+				Log.println(Constants.LOGD, TAG, "Event list for "+viewDate.fmtIcal()+": "+diff.changedCount
+							+" of "+events.size()+" events changed"+(diff.keysChanged ? ", list reordered." : "."));
+			lastReceived = diff.list;
+			mHandler.sendMessage(mHandler.obtainMessage(HANDLER_NEW_LIST, diff));
+		}
 	}
 
 }
@@ -22,8 +22,6 @@ import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -58,9 +56,20 @@ import org.davical.acal.database.cachemanager.CacheObject;
 import org.davical.acal.database.cachemanager.CacheResponse;
 import org.davical.acal.database.cachemanager.CacheResponseListener;
 import org.davical.acal.database.cachemanager.requests.CRObjectsInMonthByDay;
+import org.davical.acal.views.MonthCell;
 import org.davical.acal.views.MonthDayBox;
 
 /**
+ * <p>
+ * Adapts a month of days into the month view grid.  The first row is the day of week headings
+ * and the remaining six rows are the day boxes.
+ * </p>
+ * <p>
+ * Each day is described by an immutable MonthCell, and the whole month of cells is rebuilt on a
+ * background thread whenever new event data arrives, so getView() only has to bind a cell into
+ * a recycled view.
+ * </p>
+ *
  * @author Morphoss Ltd
  *
  */
@@ -78,8 +87,28 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 	private int firstOffset;
 	private int firstCol;
 
-	private ConcurrentHashMap<Short,ArrayList<CacheObject>> eventsByDay = new ConcurrentHashMap<Short,ArrayList<CacheObject>>();
+	private static final int HEADER_CELLS = 7;
+	private static final int DAY_CELLS = 6*7;
+	private static final int VIEW_TYPE_HEADER = 0;
+	private static final int VIEW_TYPE_DAY = 1;
+
+	// The first day shown in the grid, and which cells fall in the displayed month.  These are
+	// not changed after construction, so the cell builder may read them from any thread.
+	private AcalDateTime gridStart;
+	private int monthStartCell;
+	private int monthEndCell;
+
+	private volatile MonthCell[] cells;
+	private final String[] columnHeadings = new String[HEADER_CELLS];
+	private final LayoutInflater inflater;
+	private final OnClickListener dayClickListener = new MonthButtonListener();
 	private CacheManager cacheManager;
+
+	// So we can see what each month swipe costs us
+	private int viewsInflated = 0;
+	private int viewsRebound = 0;
+	private int cellBuilds = 0;
+	private long cellBuildNanos = 0;
 	
 	private volatile long wait = 0;
 	private static final int HANDLER_NEW_DATA = 0;
@@ -87,23 +116,13 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 	private Handler mHandler = new Handler(Looper.getMainLooper()) {
 			
 	
-		@SuppressWarnings("unchecked")
 		@Override
 		public void handleMessage(Message msg) {
 			if (Constants.debugMonthView && Constants.LOG_DEBUG) Log.println(Constants.LOGD,TAG, "Handler has received messsge.");
 			switch (msg.what) {
 				case HANDLER_NEW_DATA:
 					if (Constants.debugMonthView && Constants.LOG_DEBUG) Log.println(Constants.LOGD,TAG, "New data for display.");
-					HashMap<Short,ArrayList<CacheObject>> data = (HashMap<Short,ArrayList<CacheObject>>)msg.obj;
-					for (short i = 1; i<= 31; i++) {
-						ArrayList<CacheObject> dayEvents = new ArrayList<CacheObject>();
-						if (data.containsKey(i)) {
-							for ( CacheObject co : data.get(i) ) {
-								if ( co.isEvent() ) dayEvents.add(co);
-							}
-						}
-						eventsByDay.put(i, dayEvents);
-					}
+					cells = (MonthCell[])msg.obj;
 					while (System.currentTimeMillis() < wait) {
 						Log.println(Constants.LOGD,TAG, "Waiting "+(wait-System.currentTimeMillis())+"ms for animation end.");
 						try { Thread.sleep(wait-System.currentTimeMillis()); } catch (Exception e) { }
@@ -122,8 +141,8 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 		this.displayDate = displayDate;
 		this.selectedDate = selectedDate;
 		this.context = monthview;
+		this.inflater = (LayoutInflater) monthview.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 		this.cacheManager = CacheManager.getInstance(monthview, this);
-		for (short i = 1; i<=31; i++) eventsByDay.put(i, new ArrayList<CacheObject>());
 		getFirstDay(monthview);
 
 		//Get next and previous months
@@ -159,9 +178,40 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 		
 		displayMonthLocalized = displayDate.clone().applyLocalTimeZone().setDaySecond(0);
 		displayMonthLocalized.setMonthDay(1);
+
+		//we need to correct for offset
+		int offset = this.firstOffset - this.firstCol;
+		if (offset<0) offset+=7;
+		this.monthStartCell = offset;
+		this.monthEndCell = offset + this.daysInThisMonth;
+		this.gridStart = displayDate.clone().setDaySecond(0);
+		this.gridStart.setMonthDay(1);
+		this.gridStart.addDays(-offset);
+
+		for (int i = 0; i < HEADER_CELLS; i++) {
+			switch ((i+firstCol)%7) {
+				case AcalDateTime.MONDAY: columnHeadings[i]=(context.getString(R.string.Mon)); break;
+				case AcalDateTime.TUESDAY: columnHeadings[i]=(context.getString(R.string.Tue)); break;
+				case AcalDateTime.WEDNESDAY: columnHeadings[i]=(context.getString(R.string.Wed)); break;
+				case AcalDateTime.THURSDAY: columnHeadings[i]=(context.getString(R.string.Thu)); break;
+				case AcalDateTime.FRIDAY: columnHeadings[i]=(context.getString(R.string.Fri)); break;
+				case AcalDateTime.SATURDAY: columnHeadings[i]=(context.getString(R.string.Sat)); break;
+				case AcalDateTime.SUNDAY: columnHeadings[i]=(context.getString(R.string.Sun)); break;
+				default: columnHeadings[i] = "";
+			}
+		}
+
+		// Show the days straight away, and the events when they arrive.
+		this.cells = buildCells(null);
 		
 		//request data		
 		cacheManager.sendRequest(CRObjectsInMonthByDay.EventsInMonthByDay(displayMonthLocalized.getMonth(), displayMonthLocalized.getYear(), this));
+
+		// and have the months either side ready for when we are swiped
+		AcalDateTime adjacent = displayMonthLocalized.clone().addMonths(-1);
+		cacheManager.sendRequest(CRObjectsInMonthByDay.PrefetchEventsInMonth(adjacent.getMonth(), adjacent.getYear()));
+		adjacent.addMonths(2);
+		cacheManager.sendRequest(CRObjectsInMonthByDay.PrefetchEventsInMonth(adjacent.getMonth(), adjacent.getYear()));
 	}
 
 
@@ -179,13 +229,68 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 
 	
 	public int getCount() {
-		return 7*7;	//number of rows needed * 7
+		return HEADER_CELLS + DAY_CELLS;
 	}
 
 	public Object getItem(int position) { return null; }
 
 	public long getItemId(int position) { return 0; }
 
+	@Override
+	public int getViewTypeCount() {
+		return 2;
+	}
+
+	@Override
+	public int getItemViewType(int position) {
+		return (position < HEADER_CELLS ? VIEW_TYPE_HEADER : VIEW_TYPE_DAY);
+	}
+
+
+	/**
+	 * Build the cells for the whole month.  This is called on a background thread when new
+	 * event data arrives, so it must only use fields which are not changed after construction.
+	 * @param eventsByDay Events keyed by day of month, or null to build cells with no events
+	 */
+	private MonthCell[] buildCells(HashMap<Short,ArrayList<CacheObject>> eventsByDay) {
+		long started = System.nanoTime();
+		MonthCell[] result = new MonthCell[DAY_CELLS];
+		AcalDateTime today = new AcalDateTime().applyLocalTimeZone();
+		AcalDateTime bDate = gridStart.clone();
+		for (int i = 0; i < DAY_CELLS; i++) {
+			boolean inMonth = (i >= monthStartCell && i < monthEndCell);
+			ArrayList<CacheObject> dayEvents = null;
+			if ( inMonth && eventsByDay != null ) {
+				ArrayList<CacheObject> all = eventsByDay.get(bDate.getMonthDay());
+				if ( all != null ) {
+					dayEvents = new ArrayList<CacheObject>(all.size());
+					for ( CacheObject co : all ) {
+						if ( co.isEvent() ) dayEvents.add(co);
+					}
+				}
+			}
+			boolean isToday = ( today.getYearDay() == bDate.getYearDay() && today.getYear() == bDate.getYear() );
+			result[i] = new MonthCell(bDate, inMonth, isToday, dayEvents, context);
+			bDate.addDays(1);
+		}
+		synchronized( this ) {
+			cellBuilds++;
+			cellBuildNanos += System.nanoTime() - started;
+		}
+		return result;
+	}
+
+
+	private static class DayHolder {
+		MonthDayBox inMonth;
+		MonthDayBox inMonthSelected;
+		MonthDayBox outMonth;
+		MonthDayBox outMonthSelected;
+		MonthDayBox shown;
+		MonthCell cell;
+	}
+
+
 	public View getView(int position, View contentView, ViewGroup parent) {
 
 		int gridHeight = 0;
@@ -204,113 +309,88 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 			else if ( boxWidth < (boxHeight * 0.9) )  boxScaleFactor = 0.9f;
 		}
 		
-		if (position <7) {
+		if (position < HEADER_CELLS) {
 			//Column headers
-			LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			View v = contentView;
 			TextView dayColumnHeader = null;
-			View v = (View) inflater.inflate(R.layout.month_view_assets, null);
-			dayColumnHeader = (TextView) v.findViewById(R.id.DayColumnHeader);
-
-			int day = (position+firstCol)%7;
-			String colText = "";
-			switch (day) {
-				case AcalDateTime.MONDAY: colText=(context.getString(R.string.Mon)); break;
-				case AcalDateTime.TUESDAY: colText=(context.getString(R.string.Tue)); break;
-				case AcalDateTime.WEDNESDAY: colText=(context.getString(R.string.Wed)); break;
-				case AcalDateTime.THURSDAY: colText=(context.getString(R.string.Thu)); break;
-				case AcalDateTime.FRIDAY: colText=(context.getString(R.string.Fri)); break;
-				case AcalDateTime.SATURDAY: colText=(context.getString(R.string.Sat)); break;
-				case AcalDateTime.SUNDAY: colText=(context.getString(R.string.Sun)); break;
+			if ( v == null ) {
+				v = (View) inflater.inflate(R.layout.month_view_assets, null);
+				viewsInflated++;
+				dayColumnHeader = (TextView) v.findViewById(R.id.DayColumnHeader);
+				dayColumnHeader.setGravity(Gravity.CENTER_HORIZONTAL | Gravity.CENTER_VERTICAL);
+				ViewParent vp = dayColumnHeader.getParent();
+				if ( vp instanceof View ) {
+					((View) vp).setBackgroundColor(AcalTheme.getElementColour(AcalTheme.BUTTON));
+					dayColumnHeader.setBackgroundDrawable(ContextCompat.getDrawable(context, R.drawable.dayheadings_fg));
+					dayColumnHeader.setTextColor(AcalTheme.pickForegroundForBackground(AcalTheme.getElementColour(AcalTheme.BUTTON)));
+				}
+				dayColumnHeader.setVisibility(View.VISIBLE);
+				v.setTag(dayColumnHeader);
 			}
-			dayColumnHeader.setGravity(Gravity.CENTER_HORIZONTAL | Gravity.CENTER_VERTICAL);
-			dayColumnHeader.setText(colText);
-			dayColumnHeader.setTextSize( TypedValue.COMPLEX_UNIT_PX, (float) 0.55 * boxScaleFactor * headerHeight);
-
-			ViewParent vp = dayColumnHeader.getParent();
-			if ( vp instanceof View ) {
-				((View) vp).setBackgroundColor(AcalTheme.getElementColour(AcalTheme.BUTTON));
-				dayColumnHeader.setBackgroundDrawable(ContextCompat.getDrawable(context, R.drawable.dayheadings_fg));
-				dayColumnHeader.setTextColor(AcalTheme.pickForegroundForBackground(AcalTheme.getElementColour(AcalTheme.BUTTON)));
+			else {
+				viewsRebound++;
+				dayColumnHeader = (TextView) v.getTag();
 			}
 
+			dayColumnHeader.setText(columnHeadings[position]);
+			dayColumnHeader.setTextSize( TypedValue.COMPLEX_UNIT_PX, (float) 0.55 * boxScaleFactor * headerHeight);
 			if ( headerHeight != 0 ) dayColumnHeader.setHeight((int)(headerHeight * HEADER_RATIO));
-
-			dayColumnHeader.setVisibility(View.VISIBLE);
 			return v;
 		}
 
-		position -=7;
-		//we need to correct for offset
-		int offset = this.firstOffset - this.firstCol;
-		if (offset<0) offset+=7;
-
-
-		AcalDateTime bDate = null;
-		boolean inMonth = false;
-		AcalDateTime today = new AcalDateTime().applyLocalTimeZone();
-
-		//What day of the month are we?
-		if (position < offset) {
-			//previous month
-			bDate = prevMonth.clone();
-			bDate.setMonthDay(this.daysInLastMonth - ((offset-1)-position) ); 
-		} else if (position >= offset+this.daysInThisMonth) {
-			//next month
-			bDate = nextMonth.clone();
-			bDate.setMonthDay( (position+1) - (offset+this.daysInThisMonth));
-		} else {
-			//this month
-			inMonth = true;
-			bDate = displayDate.clone();
-			bDate.setMonthDay(position-offset+1);
+		MonthCell cell = cells[position - HEADER_CELLS];
+
+		View v = contentView;
+		DayHolder holder;
+		if ( v == null ) {
+			v = (View) inflater.inflate(R.layout.month_view_assets, null);
+			viewsInflated++;
+			holder = new DayHolder();
+			holder.inMonth = (MonthDayBox) v.findViewById(R.id.DayBoxInMonth);
+			holder.inMonthSelected = (MonthDayBox) v.findViewById(R.id.DayBoxHighlightDay);
+			holder.outMonth = (MonthDayBox) v.findViewById(R.id.DayBoxOutMonth);
+			holder.outMonthSelected = (MonthDayBox) v.findViewById(R.id.DayBoxOutMonthHighlighted);
+			v.setTag(holder);
+			v.setOnClickListener(dayClickListener);
+			v.setOnTouchListener(this.context);
 		}
-		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View v = (View) inflater.inflate(R.layout.month_view_assets, null);
-		
+		else {
+			viewsRebound++;
+			holder = (DayHolder) v.getTag();
+		}
+
 		MonthDayBox mDayBox = null; 
 		float textScaleFactor = 0.0f;
-		short mDay = bDate.getMonthDay();
-		if ( inMonth ) {
-			if ( bDate.getYearDay() == selectedDate.getYearDay() && bDate.getYear() == selectedDate.getYear() ) {
-				mDayBox = (MonthDayBox) v.findViewById(R.id.DayBoxHighlightDay);
+		boolean selected = cell.isSameDay(selectedDate);
+		if ( cell.isInMonth() ) {
+			if ( selected ) {
+				mDayBox = holder.inMonthSelected;
 				textScaleFactor = 0.6f;
-				mDayBox.setSelected();
 			}
 			else {
-				mDayBox = (MonthDayBox) v.findViewById(R.id.DayBoxInMonth);
+				mDayBox = holder.inMonth;
 				textScaleFactor = 0.55f;
 			}
-			if ( Constants.LOG_VERBOSE && Constants.debugMonthView ) {
-				List<CacheObject> eventList = eventsByDay.get(mDay);
-				Log.println(Constants.LOGV,TAG,"MonthAdapter for "+bDate.fmtIcal());
-				for( CacheObject event : eventList ) {
-					Log.println(Constants.LOGV,TAG, String.format("%d - %d: %s", event.getStart(), event.getEnd(), event.getSummary()));
-				}
-			}
-			mDayBox.setEvents(eventsByDay.get(mDay));
 		}
-		else if ( bDate.getYearDay() == selectedDate.getYearDay() && bDate.getYear() == selectedDate.getYear() ) {
-			mDayBox = (MonthDayBox) v.findViewById(R.id.DayBoxOutMonthHighlighted);
+		else if ( selected ) {
+			mDayBox = holder.outMonthSelected;
 			textScaleFactor = 0.55f;
-			mDayBox.setSelected();
 		} else {
-			mDayBox = (MonthDayBox) v.findViewById(R.id.DayBoxOutMonth);
+			mDayBox = holder.outMonth;
 			textScaleFactor = 0.5f;
 		}
-		if ( today.getYearDay() == bDate.getYearDay() && today.getYear() == bDate.getYear() ) {
-			mDayBox.setToday();
-		}
 		if ( boxHeight != 0 ) {
 			mDayBox.setHeight(boxHeight - mDayBox.getCompoundPaddingBottom());
 			mDayBox.setTextSize( TypedValue.COMPLEX_UNIT_PX, textScaleFactor * boxScaleFactor * (float) boxHeight);
 		}
-		
-		mDayBox.setVisibility(View.VISIBLE);
-		mDayBox.setDate(bDate.clone());
-		
-		v.setTag(bDate);
-		v.setOnClickListener(new MonthButtonListener());
-		v.setOnTouchListener(this.context);
+
+		if ( holder.shown != mDayBox ) {
+			if ( holder.shown != null ) holder.shown.setVisibility(View.GONE);
+			mDayBox.setVisibility(View.VISIBLE);
+			holder.shown = mDayBox;
+		}
+		mDayBox.setCell(cell, selected);
+		holder.cell = cell;
 		return v;
 	}
 	
@@ -320,7 +400,7 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 
 		@Override
 		public void onClick(View arg0) {
-			AcalDateTime date = (AcalDateTime)arg0.getTag();
+			AcalDateTime date = ((DayHolder)arg0.getTag()).cell.getDate();
 			if ( !AcalDateTime.isWithinMonth(date, displayDate)) {
 				context.changeDisplayedMonth(date);
 			}
@@ -348,7 +428,7 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 			if (sMills < myRange.end.getMillis() && eMills > myRange.start.getMillis()) { update = true; break; }
 		}
 		
-		if (update) cacheManager.sendRequest(new CRObjectsInMonthByDay(displayMonthLocalized.getMonth(), displayMonthLocalized.getYear(), this));
+		if (update) cacheManager.sendRequest(CRObjectsInMonthByDay.EventsInMonthByDay(displayMonthLocalized.getMonth(), displayMonthLocalized.getYear(), this));
 		
 	}
 
@@ -359,7 +439,11 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 		
 		//long waitTime = Math.max(wait-System.currentTimeMillis(),100);
 
-		mHandler.sendMessage(mHandler.obtainMessage(HANDLER_NEW_DATA, response.result()));
+		// Responses are delivered on a CallbackExecutor thread, so the cells are built here
+		// and only handed to the UI thread once they are complete.
+		HashMap<Short,ArrayList<CacheObject>> data = response.result();
+		if ( data == null ) return;
+		mHandler.sendMessage(mHandler.obtainMessage(HANDLER_NEW_DATA, buildCells(data)));
 	}
 	
 
@@ -398,6 +482,12 @@ public class MonthAdapter extends BaseAdapter implements CacheChangedListener, C
 
 	public void close() {
 		this.cacheManager.removeListener(this);
+		if ( Constants.debugMonthView && Constants.LOG_DEBUG ) {
+			synchronized( this ) {
+				Log.println(Constants.LOGD,TAG, String.format("Month of %s: inflated %d views, rebound %d, built cells %d times in %.2fms",
+							displayMonthLocalized.fmtIcal(), viewsInflated, viewsRebound, cellBuilds, cellBuildNanos / 1000000.0));
+			}
+		}
 	}
 	
 }
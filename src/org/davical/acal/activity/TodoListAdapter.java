@@ -46,6 +46,7 @@ import android.widget.ListAdapter;
 import android.widget.TextView;
 
 import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.R;
 import org.davical.acal.acaltime.AcalDateRange;
 import org.davical.acal.acaltime.AcalDateTime;
@@ -85,10 +86,22 @@ public class TodoListAdapter extends BaseAdapter
 	public static final String TAG = "aCal TodoListAdapter";
 	private final static boolean DEBUG = true && Constants.DEBUG_MODE;
 
+	// Only replaced on the UI thread, and never modified once it is being shown.
 	private ArrayList<CacheObject> taskList = new ArrayList<CacheObject>();
 	private CacheManager cacheManager;
 
+	// The last list we received, which the next response is compared with.
+	private final Object diffLock = new Object();
+	private ArrayList<CacheObject> lastReceived = taskList;
+	private int lastGeneration = Collection.getGeneration();
+	private final CacheObjectListDiff.ItemIds itemIds = new CacheObjectListDiff.ItemIds();
+	private final DrawTimer bindTimer = new DrawTimer(TAG, false);
+
+	// A sync can change the cache many times in quick succession, so we wait for it to settle.
+	private static final long REFRESH_DELAY = 300;
+
 	private static final int HANDLER_NEW_DATA = 0;
+	private static final int HANDLER_REFRESH = 1;
 	
 	public static final int CONTEXT_EDIT = 0;
 	public static final int CONTEXT_DELETE = 0x10000;
@@ -120,21 +133,39 @@ public class TodoListAdapter extends BaseAdapter
 
 	private Handler mHandler = new Handler(Looper.getMainLooper()) {
 			
-		@SuppressWarnings("unchecked")
 		@Override
 		public void handleMessage(Message msg) {
 			if (DEBUG) Log.println(Constants.LOGD,TAG, "Handler has received messsge.");
 			switch (msg.what) {
 				case HANDLER_NEW_DATA:
+					CacheObjectListDiff diff = (CacheObjectListDiff) msg.obj;
 					if (DEBUG) Log.println(Constants.LOGD,TAG,
-							"New data for display - "+((ArrayList<CacheObject>)msg.obj).size()+" records.");
-					taskList = (ArrayList<CacheObject>)msg.obj;
+							"New data for display - "+diff.list.size()+" records, "+diff.changedCount+" changed.");
+					taskList = diff.list;
+					itemIds.retain(taskList);
 					TodoListAdapter.this.notifyDataSetChanged();
 					break;
+				case HANDLER_REFRESH:
+					cacheManager.sendRequest(new CRTodosByType(listCompleted, listFuture, TodoListAdapter.this));
+					break;
 				default: break;
 			}
 		}
 	};
+
+	private final OnCreateContextMenuListener contextMenuListener = new OnCreateContextMenuListener() {
+
+		@Override
+		public void onCreateContextMenu(ContextMenu menu, View view, ContextMenuInfo info) {
+			int position = positionOf(view.getTag());
+			if ( position < 0 ) return;
+			menu.setHeaderTitle(context.getString(R.string.ChooseAction));
+			menu.add(0, position, 0, context.getString(R.string.Edit));
+			menu.add(0, CONTEXT_COPY + position,  0, context.getString(R.string.newEventFromThis));
+			menu.add(0, CONTEXT_DELETE+ position, 0, context.getString(R.string.Delete));
+			menu.add(0, CONTEXT_COMPLETE+ position, 0, context.getString(R.string.SetCompleted));
+		}
+	};
 	
 	
 	
@@ -161,26 +192,48 @@ public class TodoListAdapter extends BaseAdapter
 	}
 
 	/**
-	 * <p>Returns the id associated with the event at specified position. Currently not implemented (i.e. returns position)</p>
+	 * <p>Returns the id associated with the task at specified position, which stays the same for
+	 * that task when the list is refreshed.</p>
 	 * 
 	 * (non-Javadoc)
 	 * @see android.widget.Adapter#getItemId(int)
 	 */
 	@Override
 	public long getItemId(int position) {
-		return position;
+		if ( position >= taskList.size() ) return position;
+		return itemIds.idFor(taskList.get(position));
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	/**
+	 * @return The position of this very task in the list, or -1 if it is no longer there.
+	 */
+	private int positionOf(Object todo) {
+		for( int i = 0; i < taskList.size(); i++ ) {
+			if ( taskList.get(i) == todo ) return i;
+		}
+		return -1;
 	}
 
 
 	/**
-	 * <p>Returns the view associated with the event at the specified position. Currently, views
-	 * do not respond to any events.</p> 
+	 * <p>Returns the view associated with the task at the specified position.  Since our ids are
+	 * stable the ListView hands us back the view which last showed this task, and if the task
+	 * is unchanged since then we don't need to touch it.</p> 
 	 * 
 	 * (non-Javadoc)
 	 * @see android.widget.Adapter#getView(int, android.view.View, android.view.ViewGroup)
 	 */
 	@Override
-	public View getView(final int position, View convertView, ViewGroup parent) {
+	public View getView(int position, View convertView, ViewGroup parent) {
+		CacheObject todo = getItem(position);
+		if ( convertView != null && convertView.getTag() == todo ) return convertView;
+		bindTimer.start();
+
 		LinearLayout rowLayout;
 
 		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -192,7 +245,6 @@ public class TodoListAdapter extends BaseAdapter
 		
 		LinearLayout sideBar = (LinearLayout) rowLayout.findViewById(R.id.TodoListItemColorBar);
 
-		CacheObject todo = getItem(position);
 		if ( todo == null ) return rowLayout;
 
 		Collection collection = Collection.getInstance(todo.getCollectionId(), context);
@@ -241,19 +293,9 @@ public class TodoListAdapter extends BaseAdapter
 
 		//add context menu
 		this.context.registerForContextMenu(rowLayout);
-		rowLayout.setOnCreateContextMenuListener(new OnCreateContextMenuListener() {
-		
-
-			@Override
-			public void onCreateContextMenu(ContextMenu menu, View view, ContextMenuInfo info) {
-				menu.setHeaderTitle(context.getString(R.string.ChooseAction));
-				menu.add(0, position, 0, context.getString(R.string.Edit));
-				menu.add(0, CONTEXT_COPY + position,  0, context.getString(R.string.newEventFromThis));
-				menu.add(0, CONTEXT_DELETE+ position, 0, context.getString(R.string.Delete));
-				menu.add(0, CONTEXT_COMPLETE+ position, 0, context.getString(R.string.SetCompleted));
-			}
-		});
+		rowLayout.setOnCreateContextMenuListener(contextMenuListener);
 
+		bindTimer.stop();
 		return rowLayout;
 	}
 
@@ -328,19 +370,35 @@ public class TodoListAdapter extends BaseAdapter
 			if (sMills < myRange.end.getMillis() && eMills > myRange.start.getMillis()) { update = true; break; }
 		}
 		
-		if (update)
-			cacheManager.sendRequest(new CRTodosByType(listCompleted, listFuture, this));
-		
+		if (update) {
+			mHandler.removeMessages(HANDLER_REFRESH);
+			mHandler.sendEmptyMessageDelayed(HANDLER_REFRESH, REFRESH_DELAY);
+		}
 	}
 
 
+	/**
+	 * Runs on a cache thread.  We compare the new list with the last one here, so the UI thread
+	 * only hears about it when something we display has actually changed.
+	 */
 	@Override
 	public void cacheResponse(CacheResponse<ArrayList<CacheObject>> response) {
 		if (DEBUG) Log.println(Constants.LOGD,TAG, "Cache Response Received.");
 		
-		//long waitTime = Math.max(wait-System.currentTimeMillis(),100);
-
-		mHandler.sendMessage(mHandler.obtainMessage(HANDLER_NEW_DATA, response.result()));
+		synchronized( diffLock ) {
+			if ( lastGeneration != Collection.getGeneration() ) {
+				// A collection's colour may have changed, so every row needs drawing again
+				lastGeneration = Collection.getGeneration();
+				lastReceived = new ArrayList<CacheObject>();
+			}
+			CacheObjectListDiff diff = CacheObjectListDiff.compute(lastReceived, response.result());
+			if ( diff.isEmpty() ) {
+				if (DEBUG) Log.println(Constants.LOGD,TAG, "Task list is unchanged.");
+				return;
+			}
+			lastReceived = diff.list;
+			mHandler.sendMessage(mHandler.obtainMessage(HANDLER_NEW_DATA, diff));
+		}
 	}
 	
 
@@ -53,7 +53,7 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 	/**
 	 * The version of this database. Used to determine if an upgrade is required.
 	 */
-	public static final int DB_VERSION = 22;
+	public static final int DB_VERSION = 24;
 
 
 
@@ -139,6 +139,8 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 
 	/**
 	 * <p>The dav_resource stores the resources (vevents, vtodos, vjournals & vcards)</p>
+	 * <p>Since version 24 'parsed' holds what the CacheManager needs from the data, in the
+	 * versioned form written by CacheObjectProjection, or NULL if it must parse the data.</p>
 	 */
 	public static final String DAV_RESOURCE_TABLE_SQL =
 			"CREATE TABLE dav_resource ("
@@ -153,6 +155,7 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			  	+",earliest_start NUMERIC"
 			  	+",latest_end NUMERIC"
 			  	+",effective_type TEXT"
+			  	+",parsed BLOB"
 			  	+",UNIQUE(collection_id,name)"
 			+");";
 
@@ -192,18 +195,21 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 
 	/**
 	 * A Table for storing data pertinent to the Show Upcoming Widget.
-	 * Introduced into version 13.
+	 * Introduced into version 13, and rebuilt in version 23 to hold a snapshot of the
+	 * upcoming events in event_cache, with floating times already resolved to UTC.
 	 */
 	public static final String SHOW_UPCOMING_WIDGET_TABLE_SQL =
 		"CREATE TABLE show_upcoming_widget_data ("
 	        +"_id INTEGER PRIMARY KEY AUTOINCREMENT"
+			+",cache_id INTEGER UNIQUE"
 			+",resource_id INTEGER REFERENCES dav_resource(_id)"
-			+",etag TEXT"
-			+",colour INTEGER"
+			+",collection_id INTEGER REFERENCES dav_collection(_id)"
 			+",dtstart NUMERIC"
 			+",dtend NUMERIC"
 			+",summary TEXT"
 		+");";
+	public static final String SHOW_UPCOMING_WIDGET_INDEX_SQL =
+		"CREATE INDEX show_upcoming_widget_start_idx ON show_upcoming_widget_data ( dtstart );";
 
 
 	/**
@@ -434,6 +440,20 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 				// Migrate plaintext passwords to encrypted storage
 				migratePasswordsToEncrypted(db);
 			}
+			if (oldVersion == 22) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				db.execSQL("DROP TABLE show_upcoming_widget_data");
+				db.execSQL(SHOW_UPCOMING_WIDGET_TABLE_SQL);
+				db.execSQL(SHOW_UPCOMING_WIDGET_INDEX_SQL);
+				UpcomingEventsTable.rebuild(db);
+			}
+			if (oldVersion == 23) {
+				Log.i(TAG,"Updating database from version " + oldVersion);
+				oldVersion++;
+				// Existing rows are left NULL, and get parsed from their data until they are next written
+				db.execSQL("ALTER TABLE dav_resource ADD COLUMN parsed BLOB");
+			}
 		}
 		catch( Exception e ) {
 			Log.e(TAG,"Failed to upgrade database carefully.", e);
@@ -542,6 +562,7 @@ public class AcalDBHelper extends SQLiteOpenHelper {
 			db.execSQL(SET_RESOURCE_CACHE_DIRTY_SQL);
 
 			db.execSQL(SHOW_UPCOMING_WIDGET_TABLE_SQL);
+			db.execSQL(SHOW_UPCOMING_WIDGET_INDEX_SQL);
 
 			db.execSQL(ALARM_TABLE_SQL);
 			db.execSQL(ALARM_META_TABLE_SQL);
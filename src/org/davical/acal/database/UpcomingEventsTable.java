@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.database;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import org.davical.acal.Constants;
+import org.davical.acal.database.TableManager.QUERY_ACTION;
+import org.davical.acal.database.cachemanager.CacheTableManager;
+
+/**
+ * <p>
+ * Maintains the show_upcoming_widget_data table, which is a snapshot of the events in the
+ * cache that have not yet finished, so the widget only has to read the first few rows of it
+ * without expanding any recurrences or starting the CacheManager.
+ * </p>
+ * <p>
+ * CacheTableManager feeds every change to the cache table through applyChanges(), using the
+ * same database as the CacheDataProvider so that there is only one writer.  Floating times are
+ * resolved to UTC in the local timezone as rows are written.  A change of timezone clears and
+ * refills the cache, which refills this table too.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class UpcomingEventsTable {
+
+	public static final String TAG = "aCal UpcomingEventsTable";
+
+	public static final String TABLE = "show_upcoming_widget_data";
+
+	public static final String FIELD_ID = "_id";
+	public static final String FIELD_CACHE_ID = "cache_id";
+	public static final String FIELD_RESOURCE_ID = "resource_id";
+	public static final String FIELD_COLLECTION_ID = "collection_id";
+	public static final String FIELD_DTSTART = "dtstart";
+	public static final String FIELD_DTEND = "dtend";
+	public static final String FIELD_SUMMARY = "summary";
+
+	// Set when a change could not be applied, so we start again from the cache table.
+	private static boolean needsRebuild = false;
+
+	private UpcomingEventsTable() {
+	}
+
+
+	/**
+	 * Apply a set of changes to the event_cache table to the snapshot.  Called on the
+	 * CacheManager thread, with the database the cache was changed through.
+	 * @param horizon Changes to events starting after this can't affect the widget
+	 * @return Whether the widget could be showing something different now.
+	 */
+	public static synchronized boolean applyChanges(SQLiteDatabase db, ArrayList<DataChangeEvent> changes, long horizon) {
+		long now = System.currentTimeMillis();
+		boolean affectsWidget = false;
+		try {
+			db.beginTransaction();
+			try {
+				if ( needsRebuild ) {
+					rebuild(db);
+					affectsWidget = true;
+				}
+				else {
+					for( DataChangeEvent change : changes ) {
+						ContentValues cv = change.getData();
+						if ( change.action == QUERY_ACTION.UPDATE || cv.getAsLong(CacheTableManager.FIELD_ID) == null ) {
+							// We can't tell which rows an update touched, but it is rare
+							rebuild(db);
+							affectsWidget = true;
+							break;
+						}
+						long[] range = resolveRange(cv);
+						if ( range != null && range[0] < horizon && range[1] > now ) affectsWidget = true;
+						long cacheId = cv.getAsLong(CacheTableManager.FIELD_ID);
+						switch( change.action ) {
+							case INSERT:
+								if ( range == null || range[1] <= now ) break;
+								if ( !CacheTableManager.RESOURCE_TYPE_VEVENT.equals(cv.getAsString(CacheTableManager.FIELD_RESOURCE_TYPE)) ) break;
+								db.insertWithOnConflict(TABLE, null, toRow(cv, range), SQLiteDatabase.CONFLICT_REPLACE);
+								break;
+							case DELETE:
+								db.delete(TABLE, FIELD_CACHE_ID+"="+cacheId, null);
+								break;
+							default:
+								break;
+						}
+					}
+				}
+				db.delete(TABLE, FIELD_DTEND+"<="+now, null);
+				db.setTransactionSuccessful();
+				needsRebuild = false;
+			}
+			finally {
+				db.endTransaction();
+			}
+		}
+		catch( Exception e ) {
+			Log.w(TAG, "Unable to update upcoming events, will rebuild them next time.", e);
+			needsRebuild = true;
+			affectsWidget = true;
+		}
+		if ( Constants.LOG_DEBUG && Constants.debugWidget )
+			Log.println(Constants.LOGD, TAG, "Applied "+changes.size()+" changes to upcoming events, "
+						+(affectsWidget ? "widget needs updating." : "widget unaffected."));
+		return affectsWidget;
+	}
+
+
+	/**
+	 * Refill the snapshot from the event_cache table.  The caller should be in a transaction.
+	 * Floating times are resolved with the offset at each row's own time, as applyChanges() does.
+	 */
+	public static void rebuild(SQLiteDatabase db) {
+		long now = System.currentTimeMillis();
+		db.delete(TABLE, null, null);
+		Cursor c = db.query(CacheTableManager.TABLE,
+					new String[] { CacheTableManager.FIELD_ID, CacheTableManager.FIELD_RESOURCE_ID, CacheTableManager.FIELD_CID,
+								CacheTableManager.FIELD_DTSTART, CacheTableManager.FIELD_DTEND,
+								CacheTableManager.FIELD_DTSTART_FLOAT, CacheTableManager.FIELD_DTEND_FLOAT,
+								CacheTableManager.FIELD_SUMMARY },
+					CacheTableManager.FIELD_RESOURCE_TYPE+"='"+CacheTableManager.RESOURCE_TYPE_VEVENT+"'"
+						+" AND "+CacheTableManager.FIELD_DTSTART+" IS NOT NULL",
+					null, null, null, null);
+		try {
+			ContentValues cv = new ContentValues();
+			while( c.moveToNext() ) {
+				cv.clear();
+				DatabaseUtils.cursorRowToContentValues(c, cv);
+				long[] range = resolveRange(cv);
+				if ( range == null || range[1] <= now ) continue;
+				db.insert(TABLE, null, toRow(cv, range));
+			}
+		}
+		finally {
+			c.close();
+		}
+	}
+
+
+	/**
+	 * @return The snapshot row for a cache row, with its start and end resolved to UTC.
+	 */
+	private static ContentValues toRow(ContentValues cv, long[] range) {
+		ContentValues row = new ContentValues();
+		row.put(FIELD_CACHE_ID, cv.getAsLong(CacheTableManager.FIELD_ID));
+		row.put(FIELD_RESOURCE_ID, cv.getAsLong(CacheTableManager.FIELD_RESOURCE_ID));
+		row.put(FIELD_COLLECTION_ID, cv.getAsLong(CacheTableManager.FIELD_CID));
+		row.put(FIELD_DTSTART, range[0]);
+		row.put(FIELD_DTEND, range[1]);
+		row.put(FIELD_SUMMARY, cv.getAsString(CacheTableManager.FIELD_SUMMARY));
+		return row;
+	}
+
+
+	/**
+	 * @return The start and end of a cache row in UTC, or null if it has no start.
+	 */
+	private static long[] resolveRange(ContentValues cv) {
+		Long start = cv.getAsLong(CacheTableManager.FIELD_DTSTART);
+		Long end = cv.getAsLong(CacheTableManager.FIELD_DTEND);
+		if ( start == null ) return null;
+		long s = start;
+		long e = (end == null ? s : end);
+		if ( isTrue(cv, CacheTableManager.FIELD_DTSTART_FLOAT) ) s -= TimeZone.getDefault().getOffset(s);
+		if ( end == null ) e = s;
+		else if ( isTrue(cv, CacheTableManager.FIELD_DTEND_FLOAT) ) e -= TimeZone.getDefault().getOffset(e);
+		return new long[] { s, e };
+	}
+
+
+	private static boolean isTrue(ContentValues cv, String field) {
+		Object o = cv.get(field);
+		if ( o == null ) return false;
+		if ( o instanceof Boolean ) return (Boolean) o;
+		if ( o instanceof Number ) return ((Number) o).intValue() != 0;
+		String s = o.toString();
+		return s.equals("1") || s.equalsIgnoreCase("true");
+	}
+}
@@ -532,6 +532,12 @@ public class CacheManager implements Runnable, ResourceChangedListener, Resource
 			Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
 			for (Resource r : res.result()) {
 				try {
+				// Most resources are a single instance, which we can read without the full parser
+				CacheObject single = CacheObjectProjection.fromResource(r);
+				if ( single != null ) {
+					events.add(single);
+					continue;
+				}
 				//if VComp is VCalendar
 				VComponent comp = VComponent.createComponentFromResource(r);
 				if (comp instanceof VCalendar)
@@ -660,19 +666,26 @@ public class CacheManager implements Runnable, ResourceChangedListener, Resource
 					// Construct resource
 					try {
 						if ( r == null ) continue;
-						comp = VComponent.createComponentFromResource(r);
-						if ( comp == null ) continue;
+						newData = new ArrayList<CacheObject>();
+						CacheObject single = CacheObjectProjection.fromResource(r);
+						if ( single != null ) {
+							newData.add(single);
+							comp = null;
+						}
+						else {
+							comp = VComponent.createComponentFromResource(r);
+							if ( comp == null ) continue;
+						}
 						// get instances within window
 
 						if ( DEBUG && Constants.LOG_DEBUG ) {
 							Log.println(Constants.LOGD, TAG,
-									"Processing a resource changed for a " + comp.getEffectiveType() +
+									"Processing a resource changed for a " + (comp == null ? "single instance" : comp.getEffectiveType()) +
 									" Collection/ResourceID: "+r.getCollectionId()+"/"+r.getResourceId()+", earliest: "+r.getEarliestStart()+", latest: "+r.getLatestEnd());
 						}
 
-						newData = new ArrayList<CacheObject>();
-						if ( comp instanceof VCalendar ) {
-							((VCalendar) comp).appendCacheEventInstancesBetween(newData, windowRange);
+						if ( single != null || comp instanceof VCalendar ) {
+							if ( comp != null ) ((VCalendar) comp).appendCacheEventInstancesBetween(newData, windowRange);
 
 							// Delete existing first
 							queries.addAction(new DMDeleteQuery(CacheTableManager.FIELD_RESOURCE_ID+"="+r.getResourceId(), null));
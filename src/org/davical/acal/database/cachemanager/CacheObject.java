@@ -11,6 +11,7 @@ import android.util.Log;
 import org.davical.acal.Constants;
 import org.davical.acal.acaltime.AcalDateRange;
 import org.davical.acal.acaltime.AcalDateTime;
+import org.davical.acal.acaltime.AcalInstant;
 import org.davical.acal.dataservice.Resource;
 import org.davical.acal.davacal.Masterable;
 import org.davical.acal.davacal.PropertyName;
@@ -111,8 +112,8 @@ public class CacheObject implements Parcelable, Comparable<CacheObject> {
 		this.flags = flags;
 	}
 	
-	//Generate a cacheObject from a Masterable with dates
-	public CacheObject( Masterable masterInstance, long collectionId, long resourceId, AcalDateTime dtstart, AcalDateTime dtend, AcalDateTime completed) {
+	//Generate a cacheObject from a Masterable with the dates of one instance
+	public CacheObject( Masterable masterInstance, long collectionId, long resourceId, AcalInstant dtstart, AcalInstant dtend) {
 		this.rid = resourceId;
 		this.resourceType = masterInstance.getEffectiveType();
 		this.cid = collectionId;
@@ -124,19 +125,18 @@ public class CacheObject implements Parcelable, Comparable<CacheObject> {
 
 		this.start = (dtstart == null ? Long.MAX_VALUE : dtstart.getMillis());
 		startFloating = (dtstart == null ? true : dtstart.isFloating());
-		if ( dtstart != null )
+		if ( dtstart != null ) {
 			recurrenceId = dtstart.toPropertyString(PropertyName.RECURRENCE_ID);
-		if (dtstart.isDate()) flags+= FLAG_ALL_DAY;
+			if (dtstart.isDate()) flags+= FLAG_ALL_DAY;
+		}
 
 		this.end = (dtend == null ? Long.MAX_VALUE : dtend.getMillis());
 		endFloating = (dtend == null ? true : dtend.isFloating());
 		if ( dtend != null  && recurrenceId == null)
 			recurrenceId = dtend.toPropertyString(PropertyName.RECURRENCE_ID);
 
-		this.completed = (completed == null ? Long.MAX_VALUE : completed.getMillis());
-		completeFloating = (completed == null ? true : completed.isFloating());
-		if ( completed != null  && recurrenceId == null)
-			recurrenceId = completed.toPropertyString(PropertyName.RECURRENCE_ID);
+		this.completed = Long.MAX_VALUE;
+		completeFloating = true;
 		this.rrid = recurrenceId;
 		
 		if (!masterInstance.getAlarms().isEmpty()) flags+=HAS_ALARM_FLAG;
@@ -278,6 +278,54 @@ public class CacheObject implements Parcelable, Comparable<CacheObject> {
 		return end;
 	}
 
+	/**
+	 * The completed time (in millis) of this resource, or Long.MAX_VALUE if it is not completed
+	 * @return
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Whether the start time is floating, in which case getStart() holds the local time as if it were UTC.
+	 * @return
+	 */
+	public boolean isStartFloating() {
+		return startFloating;
+	}
+
+	/**
+	 * Whether the end time is floating, in which case getEnd() holds the local time as if it were UTC.
+	 * @return
+	 */
+	public boolean isEndFloating() {
+		return endFloating;
+	}
+
+	/**
+	 * Whether the completed time is floating, in which case getCompleted() holds the local time as if it were UTC.
+	 * @return
+	 */
+	boolean isCompletedFloating() {
+		return completeFloating;
+	}
+
+	/**
+	 * The VEVENT, VTODO or VJOURNAL this came from
+	 * @return
+	 */
+	String getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * The HAS_ALARM_FLAG, RECURS_FLAG and FLAG_ALL_DAY bits
+	 * @return
+	 */
+	int getFlags() {
+		return flags;
+	}
+
 	/**
 	 * Whether this resource has an all day date range.
 	 * @return
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.database.cachemanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.davical.acal.Constants;
+import org.davical.acal.acaltime.AcalDateTime;
+import org.davical.acal.acaltime.AcalDuration;
+import org.davical.acal.dataservice.Resource;
+import org.davical.acal.davacal.AcalProperty;
+import org.davical.acal.davacal.Masterable;
+import org.davical.acal.davacal.PropertyName;
+import org.davical.acal.davacal.VCalendar;
+import org.davical.acal.davacal.VComponent;
+
+/**
+ * <p>
+ * Builds the CacheObject for a resource which holds a single VEVENT, VTODO or VJOURNAL, without
+ * building a VCalendar.  Most resources are like this, and all the cache needs from them is a
+ * handful of properties and whether there is a VALARM, so we read through the blob once, keep
+ * the lines we want and parse only those.
+ * </p>
+ * <p>
+ * Anything with an RRULE or RDATE, or with more than one VEVENT, VTODO or VJOURNAL, has
+ * instances to work out, so we return null and leave it to the full parser.  We do the same for
+ * anything we don't understand.
+ * </p>
+ * <p>
+ * When ResourceTableManager writes a resource it has already parsed it, so it also stores the
+ * CacheObject in the dav_resource.parsed column using toParsedForm(), and we read that back
+ * first.  The first byte is PARSED_VERSION, and if that doesn't match, because the format has
+ * changed since the row was written, we ignore it and go back to the text.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class CacheObjectProjection {
+
+	/**
+	 * Increase this whenever the parsed form changes, so that older rows get ignored.
+	 */
+	public static final byte PARSED_VERSION = 1;
+
+	private static final int START_FLOATING = 1;
+	private static final int END_FLOATING = 1<<1;
+	private static final int COMPLETED_FLOATING = 1<<2;
+	private static final int HAS_RECURRENCE_ID = 1<<3;
+
+	private CacheObjectProjection() {
+	}
+
+
+	/**
+	 * @param comp The component parsed from a resource's data
+	 * @return The parsed form of the resource's single CacheObject, or null if it repeats, or it
+	 * isn't a VCalendar with a VEVENT, VTODO or VJOURNAL in it.
+	 */
+	public static byte[] toParsedForm( VComponent comp ) {
+		if ( !(comp instanceof VCalendar) ) return null;
+		Masterable master = ((VCalendar) comp).getMasterChild();
+		if ( master == null ) return null;
+		try {
+			master.setPersistentOn();
+			if ( master.getProperty(PropertyName.RRULE) != null || master.getProperty(PropertyName.RDATE) != null )
+				return null;
+			CacheObject co = new CacheObject(master, 0, 0);
+			// An all day event with no end has one made in the default timezone, which may change
+			if ( co.isAllDay() && !co.isEndFloating() ) return null;
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(PARSED_VERSION);
+			out.writeUTF(co.getResourceType());
+			out.writeByte((co.isStartFloating() ? START_FLOATING : 0)
+						| (co.isEndFloating() ? END_FLOATING : 0)
+						| (co.isCompletedFloating() ? COMPLETED_FLOATING : 0)
+						| (co.getRecurrenceId() == null ? 0 : HAS_RECURRENCE_ID));
+			if ( co.getRecurrenceId() != null ) out.writeUTF(co.getRecurrenceId());
+			out.writeUTF(co.getSummary() == null ? "" : co.getSummary());
+			out.writeUTF(co.getLocation() == null ? "" : co.getLocation());
+			out.writeLong(co.getStart());
+			out.writeLong(co.getEnd());
+			out.writeLong(co.getCompleted());
+			out.writeInt(co.getFlags());
+			out.flush();
+			return bytes.toByteArray();
+		}
+		catch ( Exception e ) {
+			// Summary or location too long for writeUTF, or something odd in the component
+			return null;
+		}
+		finally {
+			master.setPersistentOff();
+		}
+	}
+
+
+	/**
+	 * @param r The resource
+	 * @return The CacheObject from the resource's parsed form, or null if it has none, or it was
+	 * written by a different version.
+	 */
+	static CacheObject fromParsedForm( Resource r ) {
+		byte[] parsed = r.getParsed();
+		if ( parsed == null || parsed.length == 0 || parsed[0] != PARSED_VERSION ) return null;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(parsed, 1, parsed.length - 1));
+			String resourceType = in.readUTF();
+			int floating = in.readByte();
+			String recurrenceId = ((floating & HAS_RECURRENCE_ID) == 0 ? null : in.readUTF());
+			String summary = in.readUTF();
+			String location = in.readUTF();
+			long start = in.readLong();
+			long end = in.readLong();
+			long completed = in.readLong();
+			int flags = in.readInt();
+			return new CacheObject(r.getResourceId(), resourceType, recurrenceId, r.getCollectionId(),
+						summary, location, start, end, completed,
+						(floating & START_FLOATING) != 0,
+						(floating & END_FLOATING) != 0,
+						(floating & COMPLETED_FLOATING) != 0,
+						flags);
+		}
+		catch ( IOException e ) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * @param r The resource
+	 * @return The CacheObject which new CacheObject(Masterable,...) would make from the resource,
+	 * or null if it needs the full parser.
+	 */
+	static CacheObject fromResource( Resource r ) {
+		CacheObject stored = fromParsedForm(r);
+		if ( stored != null ) return stored;
+
+		String blob = r.getBlob();
+		if ( blob == null ) return null;
+
+		String masterType = null;
+		boolean inMaster = false;
+		boolean hasAlarm = false;
+		int depth = 0;
+		String dtStart = null;
+		String dtEnd = null;
+		String due = null;
+		String duration = null;
+		String completed = null;
+		String summary = null;
+		String location = null;
+
+		final int length = blob.length();
+		int pos = 0;
+		while( pos < length ) {
+			int end = blob.indexOf('\n', pos);
+			if ( end < 0 ) end = length;
+			int next = end + 1;
+			boolean folded = false;
+			while( next < length && blob.charAt(next) == ' ' ) {
+				folded = true;
+				end = blob.indexOf('\n', next);
+				if ( end < 0 ) end = length;
+				next = end + 1;
+			}
+			int lineEnd = (end > pos && blob.charAt(end - 1) == '\r' ? end - 1 : end);
+
+			if ( isNamed(blob, pos, lineEnd, "BEGIN") ) {
+				String component = blob.substring(pos + 6, lineEnd);
+				depth++;
+				if ( depth == 1 ) {
+					if ( !component.equals(VComponent.VCALENDAR) ) return null;
+				}
+				else if ( depth == 2 ) {
+					if ( component.equals(VComponent.VEVENT) || component.equals(VComponent.VTODO)
+								|| component.equals(VComponent.VJOURNAL) ) {
+						// A second one is an override, which needs the repeat rule code
+						if ( masterType != null ) return null;
+						masterType = component;
+						inMaster = true;
+					}
+				}
+				else if ( inMaster && depth == 3 && component.equals(VComponent.VALARM) ) {
+					hasAlarm = true;
+				}
+			}
+			else if ( isNamed(blob, pos, lineEnd, "END") ) {
+				depth--;
+				if ( depth < 0 ) return null;
+				if ( depth == 1 ) inMaster = false;
+			}
+			else if ( inMaster && depth == 2 ) {
+				if ( isNamed(blob, pos, lineEnd, "RRULE") || isNamed(blob, pos, lineEnd, "RDATE") ) return null;
+				else if ( isNamed(blob, pos, lineEnd, "DTSTART") ) dtStart = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "DTEND") ) dtEnd = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "DUE") ) due = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "DURATION") ) duration = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "COMPLETED") ) completed = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "SUMMARY") ) summary = line(blob, pos, lineEnd, folded);
+				else if ( isNamed(blob, pos, lineEnd, "LOCATION") ) location = line(blob, pos, lineEnd, folded);
+			}
+			pos = next;
+		}
+		if ( masterType == null ) return null;
+
+		// The same as Masterable.getStart() and Masterable.getEnd()
+		AcalDateTime start = dateTime(dtStart);
+		AcalDateTime finish;
+		String endLine = (masterType.equals(VComponent.VTODO) ? due : dtEnd);
+		if ( endLine != null ) {
+			finish = dateTime(endLine);
+		}
+		else if ( duration != null ) {
+			if ( start == null ) return null;
+			finish = start.clone().addDuration(AcalDuration.fromProperty(AcalProperty.fromString(duration)));
+		}
+		else {
+			finish = (start == null ? null : start.clone());
+			if ( finish != null && finish.isDate() ) finish.applyLocalTimeZone().addDays(1);
+		}
+		AcalDateTime completedAt = dateTime(completed);
+
+		int flags = 0;
+		String recurrenceId = null;
+		if ( start != null ) {
+			recurrenceId = start.toPropertyString(PropertyName.RECURRENCE_ID);
+			if ( start.isDate() ) flags += CacheObject.FLAG_ALL_DAY;
+		}
+		if ( finish != null && recurrenceId == null )
+			recurrenceId = finish.toPropertyString(PropertyName.RECURRENCE_ID);
+		if ( completedAt != null && recurrenceId == null )
+			recurrenceId = completedAt.toPropertyString(PropertyName.RECURRENCE_ID);
+		if ( hasAlarm ) flags += CacheObject.HAS_ALARM_FLAG;
+
+		return new CacheObject(r.getResourceId(), masterType, recurrenceId, r.getCollectionId(),
+					value(summary), value(location),
+					(start == null ? Long.MAX_VALUE : start.getMillis()),
+					(finish == null ? Long.MAX_VALUE : finish.getMillis()),
+					(completedAt == null ? Long.MAX_VALUE : completedAt.getMillis()),
+					(start == null ? true : start.isFloating()),
+					(finish == null ? true : finish.isFloating()),
+					(completedAt == null ? true : completedAt.isFloating()),
+					flags);
+	}
+
+
+	/**
+	 * @return Whether the line from start to end is a property, or BEGIN or END, with this name.
+	 */
+	private static boolean isNamed( String blob, int start, int end, String name ) {
+		int after = start + name.length();
+		if ( after >= end || !blob.regionMatches(true, start, name, 0, name.length()) ) return false;
+		char ch = blob.charAt(after);
+		return ch == ':' || ch == ';';
+	}
+
+
+	private static String line( String blob, int start, int end, boolean folded ) {
+		String line = blob.substring(start, end);
+		if ( folded ) line = Constants.rfc5545UnWrapper.matcher(line).replaceAll("");
+		return line;
+	}
+
+
+	private static AcalDateTime dateTime( String line ) {
+		if ( line == null ) return null;
+		return AcalDateTime.fromAcalProperty(AcalProperty.fromString(line));
+	}
+
+
+	private static String value( String line ) {
+		if ( line == null ) return "";
+		String value = AcalProperty.fromString(line).getValue();
+		return (value == null ? "" : value);
+	}
+}
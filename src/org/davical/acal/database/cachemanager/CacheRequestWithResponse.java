@@ -1,5 +1,6 @@
 package org.davical.acal.database.cachemanager;
 
+import org.davical.acal.PerformanceStats;
 import org.davical.acal.acaltime.AcalDateRange;
 import org.davical.acal.service.CallbackExecutor;
 
@@ -16,6 +17,9 @@ public abstract class CacheRequestWithResponse<E> implements CacheRequest {
 
 	//The CallBack
 	private CacheResponseListener<E> callBack = null;
+
+	// When the request was made, so we can see how long the requester waited
+	private final long created = System.nanoTime();
 	
 	/**
 	 * Mandatory constructor - stores the callBack to notify when posting response. CallBack can be null if requester doesn't care about
@@ -33,6 +37,9 @@ public abstract class CacheRequestWithResponse<E> implements CacheRequest {
 	 */
 	protected void postResponse(final CacheResponse<E> response) {
 		if (callBack == null) return;
+		String requester = callBack.getClass().getName();
+		requester = requester.substring(requester.lastIndexOf('.') + 1);
+		PerformanceStats.record(requester, PerformanceStats.CACHE_WAIT, (System.nanoTime() - created) / 1000);
 		CallbackExecutor.execute(() -> callBack.cacheResponse(response));
 	}
 
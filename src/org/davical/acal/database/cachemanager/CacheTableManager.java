@@ -21,8 +21,11 @@ package org.davical.acal.database.cachemanager;
 import java.util.ArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
 
@@ -34,6 +37,7 @@ import org.davical.acal.database.CacheModifier;
 import org.davical.acal.database.CacheWindow;
 import org.davical.acal.database.DataChangeEvent;
 import org.davical.acal.database.ProviderTableManager;
+import org.davical.acal.database.UpcomingEventsTable;
 import org.davical.acal.desktop.ShowUpcomingWidgetProvider;
 import org.davical.acal.providers.CacheDataProvider;
 
@@ -73,6 +77,9 @@ public final class CacheTableManager extends ProviderTableManager {
     private final CacheManagerCallback callback;
     private final CopyOnWriteArraySet<CacheChangedListener> listeners;
 
+    // Day buckets for recently requested months, see CRObjectsInMonthByDay
+    private final MonthBucketCache monthBuckets = new MonthBucketCache();
+
     /**
      * Callback interface for CacheManager to provide dependencies.
      */
@@ -145,6 +152,7 @@ public final class CacheTableManager extends ProviderTableManager {
         this.delete(null, null);
         this.setTxSuccessful();
         this.endTx();
+        monthBuckets.clear();
         callback.setWindow(new CacheWindow(callback.getLookForward(), callback.getLookBack(),
                 callback.getMaxSize(), callback.getMinPaddingBack(),
                 callback.getMinPaddingForward(), callback.getIncrement(),
@@ -173,6 +181,13 @@ public final class CacheTableManager extends ProviderTableManager {
                 null, CacheTableManager.FIELD_DTSTART + " ASC");
     }
 
+    /**
+     * @return The cache of day buckets for recently requested months.
+     */
+    public MonthBucketCache getMonthBuckets() {
+        return monthBuckets;
+    }
+
     /**
      * Checks that the window has been populated with the requested range
      * range can be NULL in which case the default range is used.
@@ -210,14 +225,32 @@ public final class CacheTableManager extends ProviderTableManager {
     @Override
     public void dataChanged(ArrayList<DataChangeEvent> changes) {
         if (changes.isEmpty()) return;
+        monthBuckets.invalidate(changes);
         synchronized (listeners) {
             for (CacheChangedListener listener : listeners) {
                 CacheChangedEvent cce = new CacheChangedEvent(new ArrayList<DataChangeEvent>(changes), windowOnly);
                 listener.cacheChanged(cce);
             }
         }
-        // Update widgets
-        StaticHelpers.updateWidgets(context, ShowUpcomingWidgetProvider.class);
+        // Update widgets, if they could be showing something different
+        SQLiteDatabase db = getProviderDatabase();
+        long horizon = System.currentTimeMillis() + ShowUpcomingWidgetProvider.NUM_DAYS_TO_LOOK_AHEAD * 86400000L;
+        if (db != null && UpcomingEventsTable.applyChanges(db, changes, horizon))
+            StaticHelpers.updateWidgets(context, ShowUpcomingWidgetProvider.class);
+    }
+
+    /**
+     * @return The database the CacheDataProvider writes the cache through, or null if it is not in this process.
+     */
+    private SQLiteDatabase getProviderDatabase() {
+        ContentProviderClient client = mResolver.acquireContentProviderClient(CacheDataProvider.CONTENT_URI);
+        if (client == null) return null;
+        try {
+            ContentProvider provider = client.getLocalContentProvider();
+            return (provider instanceof CacheDataProvider ? ((CacheDataProvider) provider).getDatabase() : null);
+        } finally {
+            client.release();
+        }
     }
 
     public void resourceDeleted(long rid) {
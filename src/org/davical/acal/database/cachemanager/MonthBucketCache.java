@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.database.cachemanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import org.davical.acal.Constants;
+import org.davical.acal.acaltime.AcalDateTime;
+import org.davical.acal.database.DataChangeEvent;
+import org.davical.acal.database.TableManager.QUERY_ACTION;
+import org.davical.acal.dataservice.Collection;
+
+/**
+ * <p>
+ * Remembers the day buckets which CRObjectsInMonthByDay has built for recent months, so that
+ * asking for the same month again, or for a month which was prefetched, does not go back to
+ * the database.
+ * </p>
+ * <p>
+ * Buckets are keyed on the year, month and object type, and also on the local timezone and
+ * the Collection generation, since those decide which day an object falls on and whether
+ * it is visible at all.  When the cache table changes, CacheTableManager passes us the
+ * changes and we drop just the months that the inserted or deleted rows overlap.
+ * </p>
+ * <p>
+ * Only the CacheManager worker thread should use this, and the bucket maps which are handed
+ * out are shared, so they must not be modified.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class MonthBucketCache {
+
+	private static final String TAG = "aCal MonthBucketCache";
+
+	private static final int MAX_MONTHS = 12;
+
+	// Floating times are stored as local time, so could be up to a day out either way.
+	private static final long FLOATING_SLOP = AcalDateTime.SECONDS_IN_DAY * 1000L;
+
+	private static class Bucket {
+		final long start;
+		final long end;
+		final HashMap<Short,ArrayList<CacheObject>> days;
+
+		Bucket(long start, long end, HashMap<Short,ArrayList<CacheObject>> days) {
+			this.start = start;
+			this.end = end;
+			this.days = days;
+		}
+	}
+
+	private final LinkedHashMap<String,Bucket> buckets = new LinkedHashMap<String,Bucket>(MAX_MONTHS + 4, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,Bucket> eldest) {
+			return size() > MAX_MONTHS;
+		}
+	};
+
+	private int hits = 0;
+	private int misses = 0;
+
+	MonthBucketCache() {
+	}
+
+
+	private static String key(int year, int month, String objectType) {
+		return year + "-" + month + "/" + objectType + "/" + Collection.getGeneration() + "/" + TimeZone.getDefault().getID();
+	}
+
+
+	/**
+	 * @return The day buckets for the month, which must not be modified, or null if we don't have them.
+	 */
+	public synchronized HashMap<Short,ArrayList<CacheObject>> get(int year, int month, String objectType) {
+		Bucket b = buckets.get(key(year, month, objectType));
+		if ( b == null ) {
+			misses++;
+			return null;
+		}
+		hits++;
+		if ( CacheManager.DEBUG && Constants.LOG_VERBOSE )
+			Log.println(Constants.LOGV, TAG, "Month " + year + "-" + month + " found in cache. " + hits + " hits, " + misses + " misses.");
+		return b.days;
+	}
+
+
+	/**
+	 * Remember the day buckets for a month.
+	 * @param start The start of the month, in UTC milliseconds
+	 * @param end The end of the month, in UTC milliseconds
+	 */
+	public synchronized void put(int year, int month, String objectType, long start, long end, HashMap<Short,ArrayList<CacheObject>> days) {
+		buckets.put(key(year, month, objectType), new Bucket(start, end, days));
+	}
+
+
+	/**
+	 * Forget any months which the changes might have affected.  Inserted and deleted rows carry
+	 * their dates, so we can be precise about those, but an update might have moved a row from
+	 * some month we can't see, so we forget everything.
+	 */
+	public synchronized void invalidate(ArrayList<DataChangeEvent> changes) {
+		if ( buckets.isEmpty() ) return;
+		for( DataChangeEvent change : changes ) {
+			ContentValues cv = change.getData();
+			Long sMills = cv.getAsLong(CacheTableManager.FIELD_DTSTART);
+			Long eMills = cv.getAsLong(CacheTableManager.FIELD_DTEND);
+			if ( change.action == QUERY_ACTION.UPDATE || (sMills == null && eMills == null) ) {
+				clear();
+				return;
+			}
+			if ( sMills == null ) sMills = eMills;
+			if ( eMills == null ) eMills = sMills;
+			long from = sMills - FLOATING_SLOP;
+			long to = eMills + FLOATING_SLOP;
+			for( Iterator<Bucket> it = buckets.values().iterator(); it.hasNext(); ) {
+				Bucket b = it.next();
+				if ( from < b.end && to >= b.start ) it.remove();
+			}
+			if ( buckets.isEmpty() ) return;
+		}
+	}
+
+
+	/**
+	 * Forget everything.
+	 */
+	public synchronized void clear() {
+		buckets.clear();
+	}
+}
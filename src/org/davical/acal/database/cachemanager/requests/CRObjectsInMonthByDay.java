@@ -17,10 +17,12 @@ import org.davical.acal.database.cachemanager.CacheProcessingException;
 import org.davical.acal.database.cachemanager.CacheRequestWithResponse;
 import org.davical.acal.database.cachemanager.CacheResponse;
 import org.davical.acal.database.cachemanager.CacheResponseListener;
+import org.davical.acal.database.cachemanager.MonthBucketCache;
 
 /**
  * A CacheRequest that returns a Map CacheObjects that occur in the specified month.
- * The Map Keys are Days of the Month, the values are lists of events.
+ * The Map Keys are Days of the Month, the values are lists of events.  The Map is shared
+ * with the MonthBucketCache, so it must not be modified.
  * 
  * To get the result you should pass in a CacheResponseListenr of the type ArrayList&lt;CacheObject&gt;
  * If you don't care about the result (e.g. your forcing a window size change) you may pass a null callback.
@@ -69,16 +71,34 @@ public class CRObjectsInMonthByDay extends CacheRequestWithResponse<HashMap<Shor
 		return result;
 	}
 	
+	/**
+	 * Request the VEVENT CacheObjects for the month provided without wanting the result, so they
+	 * will be ready in memory when someone does ask for them.
+	 * @param month
+	 * @param year
+	 */
+	public static CRObjectsInMonthByDay PrefetchEventsInMonth(int month, int year) {
+		return EventsInMonthByDay(month,year,null);
+	}
+	
 	@Override
 	public void process(CacheTableManager processor) throws CacheProcessingException {
 		pstart = System.currentTimeMillis();
-		final HashMap<Short,ArrayList<CacheObject>> result = new HashMap<Short,ArrayList<CacheObject>>();
 		AcalDateTime start = new AcalDateTime( year, month, 1, 0, 0, 0, TimeZone.getDefault().getID()); 
 		AcalDateTime end = start.clone().addMonths(1).applyLocalTimeZone();
 		AcalDateRange range = new AcalDateRange(start,end);
 		
 		if (!processor.checkWindow(range)) {
 			//Wait give up - caller can decide to rerequest or wait for cachechanged notification
+			this.postResponse(new CREventsInMonthByDayResponse<HashMap<Short,ArrayList<CacheObject>>>(new HashMap<Short,ArrayList<CacheObject>>()));
+			pend = System.currentTimeMillis();
+			printMetrics();
+			return;
+		}
+
+		MonthBucketCache buckets = processor.getMonthBuckets();
+		HashMap<Short,ArrayList<CacheObject>> result = buckets.get(year, month, objectType);
+		if ( result != null ) {
 			this.postResponse(new CREventsInMonthByDayResponse<HashMap<Short,ArrayList<CacheObject>>>(result));
 			pend = System.currentTimeMillis();
 			printMetrics();
@@ -88,34 +108,68 @@ public class CRObjectsInMonthByDay extends CacheRequestWithResponse<HashMap<Shor
 		qstart  = System.currentTimeMillis();
 		ArrayList<ContentValues> data = processor.queryInRange(range,objectType);
 		qend  = System.currentTimeMillis();
+
+		// Work out where each day starts, both as an instant and as a floating local time, so
+		// we can bucket the objects without building dates for each of them.
 		int daysInMonth = start.getActualMaximum(AcalDateTime.DAY_OF_MONTH);
+		long[] dayStarts = new long[daysInMonth+1];
+		long[] floatingDayStarts = new long[daysInMonth+1];
+		long firstFloating = start.getEpochDay() * AcalDateTime.SECONDS_IN_DAY * 1000L;
+		AcalDateTime day = start.clone();
+		for( int d = 0; d <= daysInMonth; d++ ) {
+			dayStarts[d] = day.getMillis();
+			floatingDayStarts[d] = firstFloating + d * AcalDateTime.SECONDS_IN_DAY * 1000L;
+			day.addDays(1);
+		}
+
+		result = new HashMap<Short,ArrayList<CacheObject>>();
 		for (ContentValues value : data ) {
 			try {
 				CacheObject co = CacheObject.fromContentValues(value);
-				start = co.getStartDateTime();
-				end = co.getEndDateTime();
-				if ( start == null ) start = end;
-				if ( start == null ) continue;
-				if ( end == null ) end = start;
-				else end.addSeconds(-1);
-				if (start.getMonth() < month) start.setMonthDay(1);
-				if (end.getMonth() > month) end.setMonthDay(-1);
-				for( short dayOfMonth = start.getMonthDay()
-						; dayOfMonth <= (end.getMonthDay() < start.getMonthDay() ? daysInMonth : end.getMonthDay())
-						; dayOfMonth++ ) {
-					if ( !result.containsKey(dayOfMonth) ) result.put(dayOfMonth, new ArrayList<CacheObject>());
-					result.get(dayOfMonth).add(co);
+				boolean hasStart = co.getStart() != Long.MAX_VALUE;
+				boolean hasEnd = co.getEnd() != Long.MAX_VALUE;
+				if ( !hasStart && !hasEnd ) continue;
+				int first = hasStart ? dayOfMonth(co.getStart(), co.isStartFloating() ? floatingDayStarts : dayStarts)
+									 : dayOfMonth(co.getEnd(), co.isEndFloating() ? floatingDayStarts : dayStarts);
+				int last = hasEnd ? dayOfMonth(co.getEnd() - 1000, co.isEndFloating() ? floatingDayStarts : dayStarts)
+								  : first;
+				if ( last < first ) last = first;
+				for( short dayOfMonth = (short) first; dayOfMonth <= last; dayOfMonth++ ) {
+					ArrayList<CacheObject> objects = result.get(dayOfMonth);
+					if ( objects == null ) {
+						objects = new ArrayList<CacheObject>();
+						result.put(dayOfMonth, objects);
+					}
+					objects.add(co);
 				}
 			}
 			catch( Exception e) {
 				Log.w(TAG,Log.getStackTraceString(e));
 			}
 		}
+		buckets.put(year, month, objectType, range.start.getMillis(), range.end.getMillis(), result);
 		
 		this.postResponse(new CREventsInMonthByDayResponse<HashMap<Short,ArrayList<CacheObject>>>(result));
 		pend = System.currentTimeMillis();
 		printMetrics();
 	}
+
+
+	/**
+	 * @return The day of the month which the given time falls in, clamped to the month.
+	 * @param millis The time
+	 * @param dayStarts When each day of the month starts, plus when the next month starts
+	 */
+	private static int dayOfMonth(long millis, long[] dayStarts) {
+		int lo = 0, hi = dayStarts.length - 2;
+		if ( millis < dayStarts[0] ) return 1;
+		while ( lo < hi ) {
+			int mid = (lo + hi + 1) >>> 1;
+			if ( dayStarts[mid] <= millis ) lo = mid;
+			else hi = mid - 1;
+		}
+		return lo + 1;
+	}
 	
 	private void printMetrics() {
 		long total = pend-construct;
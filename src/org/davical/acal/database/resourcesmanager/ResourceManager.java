@@ -1,6 +1,7 @@
 package org.davical.acal.database.resourcesmanager;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -30,6 +31,7 @@ import org.davical.acal.database.DMUpdateQuery;
 import org.davical.acal.database.DataChangeEvent;
 import org.davical.acal.database.DatabaseTableManager;
 import org.davical.acal.database.cachemanager.CacheManager;
+import org.davical.acal.database.cachemanager.CacheObjectProjection;
 import org.davical.acal.database.resourcesmanager.requesttypes.BlockingResourceRequest;
 import org.davical.acal.database.resourcesmanager.requesttypes.BlockingResourceRequestWithResponse;
 import org.davical.acal.database.resourcesmanager.requesttypes.ReadOnlyBlockingRequestWithResponse;
@@ -297,8 +299,7 @@ public class ResourceManager implements Runnable, IResourceManager {
 		public boolean processActions(DMQueryList queryList);
 
 		public boolean doSyncListAndToken(DMQueryList newChangeList, long collectionId, String syncToken);
-		public boolean syncToServer(DMAction action, long resourceId, long pendingId);
-
+		public boolean syncToServer(DMQueryList actions, List<Long> pendingIds);
 
 	}
 
@@ -337,6 +338,7 @@ public class ResourceManager implements Runnable, IResourceManager {
 		public static final String EARLIEST_START = "earliest_start";
 		public static final String LATEST_END = "latest_end";
 		public static final String EFFECTIVE_TYPE = "effective_type";
+		public static final String PARSED_DATA = "parsed";
 
 		public static final String IS_PENDING = "is_pending";	//this is a quasi field that tells use weather a resource came from the pending
 		//table or the resource table
@@ -431,6 +433,7 @@ public class ResourceManager implements Runnable, IResourceManager {
 			values = toWrite;
 			String effectiveType = null;
 			String resourceData = values.getAsString(RESOURCE_DATA);
+			if ( values.containsKey(RESOURCE_DATA) ) values.putNull(PARSED_DATA);
 			if ( resourceData != null ) {
 				try {
 
@@ -452,6 +455,9 @@ public class ResourceManager implements Runnable, IResourceManager {
 								values.put(LATEST_END, range.end.getMillis());
 							else
 								values.putNull(LATEST_END);
+
+							byte[] parsed = CacheObjectProjection.toParsedForm(comp);
+							if ( parsed != null ) values.put(PARSED_DATA, parsed);
 						}
 					}
 				} catch (Exception e) {
@@ -581,21 +587,30 @@ public class ResourceManager implements Runnable, IResourceManager {
 			return success;
 		}
 
-		public boolean syncToServer(DMAction action, long resourceId, long pendingId) {
+		/**
+		 * Apply the local side of a batch of completed uploads and retire their pending
+		 * changes, all in one transaction.  The n'th action belongs to the n'th pending ID.
+		 * A failure applying one action is logged and leaves that change pending, without
+		 * affecting the rest of the batch.
+		 */
+		public boolean syncToServer(DMQueryList actions, List<Long> pendingIds) {
 			boolean openedInternally = doWeNeedADatabase(OPEN_WRITE);
 			boolean transactionInternally = doWeNeedATransaction();
+			List<DMAction> actionList = actions.getActions();
+			int removed = 0;
 			try {
-				action.process(this);
-
-				// We can retire this change now
-				int removed = db.delete(PENDING_DATABASE_TABLE, PENDING_ID+"="+pendingId, null);
-
+				for( int i=0; i < actionList.size(); i++ ) {
+					long pendingId = pendingIds.get(i);
+					try {
+						actionList.get(i).process(this);
+						removed += db.delete(PENDING_DATABASE_TABLE, PENDING_ID+"="+pendingId, null);
+					}
+					catch( Exception e) {
+						Log.e(TAG,"Error syncing pending change "+pendingId+"\n  Action: "+actionList.get(i), e);
+					}
+				}
 				if ( ResourceManager.DEBUG ) Log.println(Constants.LOGD,TAG,
-						"Deleted "+removed+" pending_change record ID="+pendingId+" for resourceId="+resourceId);
-
-			}
-			catch( Exception e) {
-				Log.e(TAG,"Error syncing resource "+resourceId+" for pending change "+pendingId+"\n  Action: "+action, e);
+						"Deleted "+removed+" pending_change records for "+actionList.size()+" uploaded changes");
 			}
 			finally {
 				if ( transactionInternally ) {
@@ -605,7 +620,6 @@ public class ResourceManager implements Runnable, IResourceManager {
 				if ( openedInternally ) closeDB();
 			}
 			return true;
-
 		}
 
 		//Never ever ever ever call resourceChanged on listeners anywhere else.
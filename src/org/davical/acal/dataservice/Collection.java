@@ -26,6 +26,7 @@ public class Collection {
 	
 	private static boolean haveAllCollections = false;
 	private static final HashMap<Long,Collection> collections = new HashMap<Long,Collection>();
+	private static volatile int generation = 0;
 	
 	public synchronized  static Collection getInstance(long id, Context context) {
 		if (collections.containsKey(id)) 
@@ -40,6 +41,15 @@ public class Collection {
 	public synchronized static void flush() {
 		collections.clear();
 		haveAllCollections = false;
+		generation++;
+	}
+
+	/**
+	 * @return A number which changes every time the collections are flushed, so anything that
+	 * depends on which collections are visible can tell when it needs recalculating.
+	 */
+	public static int getGeneration() {
+		return generation;
 	}
 
 	private synchronized static void fetchAllCollections(Context context) {
@@ -28,6 +28,7 @@ public class Resource implements Parcelable {
 	private final String etag;
 	private String contentType;
 	private String data;
+	private byte[] parsed;
 	private boolean needsSync;
 	private final long earliestStart;
 	private final long latestEnd;
@@ -66,6 +67,7 @@ public class Resource implements Parcelable {
 		this.effectiveType = in.readString();
 		this.pending = in.readByte() == 'T';
 		this.lastModified = new AcalDateTime(in);
+		this.parsed = in.createByteArray();
 	}
 	
 	public long getCollectionId() {
@@ -95,12 +97,21 @@ public class Resource implements Parcelable {
 		dest.writeString(effectiveType);
 		dest.writeByte(this.pending ? (byte)'T' : (byte)'F');
 		lastModified.writeToParcel(dest, flags);
+		dest.writeByteArray(parsed);
 	}
 
 	public String getBlob() {
 		return this.data;
 	}
 
+	/**
+	 * @return The parsed form which ResourceTableManager stored with the data, or null.  Pending
+	 * resources never have one.
+	 */
+	public byte[] getParsed() {
+		return this.parsed;
+	}
+
 	public String getEtag() {
 		return this.etag;
 	}
@@ -131,6 +142,7 @@ public class Resource implements Parcelable {
 		long latestEnd = Long.MAX_VALUE;
 		boolean needsSync = false;
 		String effectiveType = "";
+		byte[] parsed = null;
 		blob = cv.getAsString(ResourceTableManager.NEW_DATA);
 		AcalDateTime modTime = new AcalDateTime();
 		if ( blob != null && cv.containsKey(ResourceTableManager.PEND_RESOURCE_ID) ) {
@@ -146,6 +158,7 @@ public class Resource implements Parcelable {
 				else
 					rid = cv.getAsLong(ResourceTableManager.RESOURCE_ID);
 				blob = cv.getAsString(ResourceTableManager.RESOURCE_DATA);
+				parsed = cv.getAsByteArray(ResourceTableManager.PARSED_DATA);
 				effectiveType = cv.getAsString(ResourceTableManager.EFFECTIVE_TYPE);
 				try {
 					earliestStart = cv.getAsLong(ResourceTableManager.EARLIEST_START);
@@ -180,7 +193,7 @@ public class Resource implements Parcelable {
 		}
 
 		
-		return new Resource(
+		Resource result = new Resource(
 				cid,
 				rid,
 				cv.getAsString(ResourceTableManager.RESOURCE_NAME),
@@ -194,7 +207,9 @@ public class Resource implements Parcelable {
 				pending,
 				modTime
 		);
-		
+		result.parsed = parsed;
+		return result;
+
 	}
 
 	/**
@@ -30,6 +30,7 @@ import org.davical.acal.Constants;
 import org.davical.acal.PrefNames;
 import org.davical.acal.acaltime.AcalDateTime;
 import org.davical.acal.acaltime.AcalDuration;
+import org.davical.acal.acaltime.AcalInstant;
 import org.davical.acal.database.alarmmanager.AlarmRow;
 import org.davical.acal.dataservice.EventInstance;
 
@@ -100,11 +101,11 @@ public class AcalAlarm implements Serializable, Parcelable, Comparable<AcalAlarm
 		this.actionType = actionType;
 		if ( relativeTo == RelateWith.START ) {
 			if ( start == null ) throw new IllegalStateException("Can't relate an alarm to a non-existent DTSTART!");
-			timeToFire = AcalDateTime.addDuration(start, relativeTime);
+			timeToFire = fireTime(start, relativeTime);
 		}
 		else if ( relativeTo == RelateWith.END ) {
 			if ( end == null ) throw new IllegalStateException("Can't relate an alarm to a non-existent DTEND or DUE!");
-			timeToFire = AcalDateTime.addDuration(end, relativeTime);
+			timeToFire = fireTime(end, relativeTime);
 		}
 		else {
 			if ( start == null ) throw new NullPointerException("Absolute alarm must have non-null start time.");
@@ -173,9 +174,9 @@ public class AcalAlarm implements Serializable, Parcelable, Comparable<AcalAlarm
 				relativeTime = tmpDuration;
 
 			if ( relativeTo == RelateWith.START )
-				timeToFire = AcalDateTime.addDuration(start, relativeTime);
+				timeToFire = fireTime(start, relativeTime);
 			else
-				timeToFire = AcalDateTime.addDuration(end, relativeTime);
+				timeToFire = fireTime(end, relativeTime);
 		}
         setToLocalTime();
 
@@ -333,6 +334,14 @@ public class AcalAlarm implements Serializable, Parcelable, Comparable<AcalAlarm
 		return snoozeTime;
 	}
 
+	/**
+	 * Works out when a relative alarm fires in the local timezone, without the clone and the
+	 * locking which adding the duration to an AcalDateTime would cost for every instance.
+	 */
+	private static AcalDateTime fireTime(AcalDateTime relatedTo, AcalDuration relativeTime) {
+		return AcalInstant.fromDateTime(relatedTo).plus(relativeTime).inLocalTimeZone().toDateTime();
+	}
+
 	private void setToLocalTime() {
 		this.timeToFire.applyLocalTimeZone();
 		if (this.snoozeTime != null) this.snoozeTime.applyLocalTimeZone();
@@ -36,6 +36,11 @@ import org.davical.acal.Constants;
  * <p>
  * Holds an iCalendar property with parameters and value
  * </p>
+ * <p>
+ * A property parsed from a component only finds its name to begin with, and remembers where its
+ * parameters and value are in the line.  Most properties of most components are never looked at,
+ * so we leave unescaping the value and splitting the parameters until somebody asks.
+ * </p>
  *
  * @author Morphoss Ltd
  *
@@ -43,7 +48,6 @@ import org.davical.acal.Constants;
 public class AcalProperty {
 	public static final String TAG = "aCal AcalProperty";
 	private static boolean DEBUG = false;
-	private static final Pattern valueReplaceEscaped = Pattern.compile("\\\\([,;'\"\\\\])");
 	private static final Pattern propertiesUnescaped = Pattern.compile(
 				"^(ATTACH|GEO|PERCENT-COMPLETE|PRIORITY|DURATION|FREEBUSY|TZOFFSETFROM|TZOFFSETTO|TZURL" +
 				"|ATTENDEE|ORGANIZER|RECURRENCE-ID|URL|EXRULE|SEQUENCE|CREATED|RRULE|REPEAT" +
@@ -53,9 +57,15 @@ public class AcalProperty {
 	private boolean paramsPersistent = false;
 	private boolean paramsSet = false;
 	public final String name;
-	private final String value;
+	private final PropertyName knownName;
+	private String value;
 	private String paramsBlob[];
 
+	// The line we were parsed from, until we have decoded the value and split the parameters
+	private String source = null;
+	private int paramsStart;
+	private int valueStart;
+
 	// These parameters are quite common so we'll use string parameters
 	public final static String PARAM_VALUE = "VALUE";
 	public final static String PARAM_TYPE = "TYPE";
@@ -69,59 +79,111 @@ public class AcalProperty {
 	 */
 	public static AcalProperty fromString(String blob) {
 		if ( blob == null ) throw new NullPointerException();
-		String tmpblob;
-		String value;
-		String[] paramsBlob;
-
-		int splitPos = findNextUnescaped(':',0,blob);
-		if ( splitPos < blob.length() ) {
-			if ( (splitPos+1) == blob.length() ) {
-				value = "";
-			}
-			else {
-				value = blob.substring(splitPos + 1);
-				Matcher m2 = valueReplaceEscaped.matcher(value);
-				value = m2.replaceAll("$1");
-				value = value.replace("\\n", "\n");
-				value = value.replace("\\N", "\n");
-			}
-			tmpblob = blob.substring(0,splitPos);
-		}
-		else {
-			value = "";
-			tmpblob = blob;
+
+		int valueStart = findNextUnescaped(':',0,blob);
+		int nameEnd = findNextUnescaped(';',1,blob);
+		if ( nameEnd > valueStart ) nameEnd = valueStart;
+		// Use the one copy of each name, so that comparing and hashing them is cheap
+		String name = blob.substring(0,nameEnd);
+		PropertyName known = PropertyName.fromName(name);
+		if ( known == null ) {
+			name = name.toUpperCase(Locale.ENGLISH);
+			known = PropertyName.fromName(name);
 		}
+		name = (known == null ? name.intern() : known.toString());
 
-		String name = null;
-		ArrayList<String> params = new ArrayList<String>();
-		splitPos = 0;
-		String pblob = tmpblob;
-		while( pblob != null ) {
-			splitPos = findNextUnescaped(';',++splitPos,pblob);
+		AcalProperty ret = new AcalProperty(name, known, blob, nameEnd, valueStart);
+		if (name.equals("RECURRENCE-ID")) return new RecurrenceId(ret.getValue(),ret.splitParams());
+		return ret;
+	}
 
-			if ( splitPos < pblob.length() ) {
-				tmpblob = pblob.substring(0,splitPos);
-				pblob = ((splitPos+1) == pblob.length() ? null : pblob.substring(splitPos + 1));
-			}
-			else {
-				tmpblob = pblob;
-				pblob = null;
-			}
-			if ( name == null ) {
-				name = tmpblob.toUpperCase(Locale.ENGLISH);
-			}
-			else {
-				params.add(tmpblob);
+
+	/**
+	 * Construct an AcalProperty which will decode its parameters and value from the line when
+	 * they are first needed.
+	 * @param name The property name, already in upper case
+	 * @param knownName The well-known property with that name, or null
+	 * @param source The whole property line
+	 * @param nameEnd Where the name ends, which is where any parameters start
+	 * @param valueStart Where the ':' before the value is, or the end of the line
+	 */
+	private AcalProperty(String name, PropertyName knownName, String source, int nameEnd, int valueStart) {
+		this.name = name;
+		this.knownName = knownName;
+		this.source = source;
+		this.paramsStart = nameEnd;
+		this.valueStart = valueStart;
+	}
+
+
+	/**
+	 * Decode the value from the source line, in a single pass which unescapes \, \; \' \" and
+	 * \\, and turns \n or \N into a newline.
+	 */
+	private void decodeValue() {
+		int start = valueStart + 1;
+		int end = source.length();
+		if ( start >= end ) {
+			value = "";
+			return;
+		}
+		int escape = source.indexOf('\\', start);
+		if ( escape < 0 ) {
+			value = source.substring(start);
+			return;
+		}
+		StringBuilder decoded = new StringBuilder(end - start);
+		decoded.append(source, start, escape);
+		for( int pos = escape; pos < end; pos++ ) {
+			char ch = source.charAt(pos);
+			if ( ch == '\\' && pos + 1 < end ) {
+				char next = source.charAt(pos + 1);
+				switch( next ) {
+					case ',': case ';': case '\'': case '"': case '\\':
+						decoded.append(next);
+						pos++;
+						continue;
+					case 'n': case 'N':
+						decoded.append('\n');
+						pos++;
+						continue;
+				}
 			}
+			decoded.append(ch);
+		}
+		value = decoded.toString();
+	}
+
 
+	/**
+	 * Split the parameters from the source line, as the unparsed strings between the ';'
+	 */
+	private String[] splitParams() {
+		int end = valueStart;
+		if ( paramsStart >= end ) return new String[0];
+		ArrayList<String> split = new ArrayList<String>();
+		int pos = paramsStart + 1;
+		while( pos <= end ) {
+			int next = findNextUnescaped(';',pos,source);
+			if ( next > end ) next = end;
+			if ( next > pos ) split.add(source.substring(pos, next));
+			pos = next + 1;
 		}
+		return split.toArray(new String[split.size()]);
+	}
 
-		paramsBlob = ( params.size() > 0 ? params.toArray(new String[params.size()]) : new String[0]);
 
-		if (name.equals("RECURRENCE-ID")) return new RecurrenceId(value,paramsBlob);
-		return new AcalProperty(name,value,paramsBlob);
+	/**
+	 * Finish decoding, and forget the source line.
+	 */
+	private void decode() {
+		if ( source == null ) return;
+		if ( value == null ) decodeValue();
+		paramsBlob = splitParams();
+		source = null;
 	}
 
+
 	/**
 	 * Find the next unescaped 'c', start looking at 'startFrom' within 'blob'
 	 * @param c
@@ -155,6 +217,7 @@ public class AcalProperty {
 	 */
 	protected AcalProperty(String name, String value, String[] paramsBlob) {
 		this.name = name;
+		this.knownName = PropertyName.fromName(name);
 		this.value = value;
 		this.paramsBlob = paramsBlob;
 	}
@@ -166,6 +229,7 @@ public class AcalProperty {
 	 */
 	public AcalProperty(String name, String value) {
 		this.name = name;
+		this.knownName = PropertyName.fromName(name);
 		this.value = value;
 		this.paramsBlob = new String[] { };
 		this.params = new HashMap<String,String>();
@@ -181,6 +245,7 @@ public class AcalProperty {
 	 * @param paramValue
 	 */
 	public synchronized void setParam(String paramName, String paramValue) {
+		decode();
 		paramsPersistent = true;
 		if (!paramsSet) populateParams();
 		paramsBlob = null;
@@ -194,6 +259,7 @@ public class AcalProperty {
 	 * @param paramName
 	 */
 	public synchronized void removeParam(String paramName) {
+		decode();
 		paramsPersistent = true;
 		if (!paramsSet) populateParams();
 		paramsBlob = null;
@@ -203,6 +269,7 @@ public class AcalProperty {
 	}
 
 	public synchronized void rebuildParamsBlob() {
+		decode();
 		if ( !paramsSet ) populateParams();
 		if ( params == null || params.isEmpty() ) {
 			paramsBlob = new String[] { };
@@ -229,6 +296,7 @@ public class AcalProperty {
 
 	private synchronized void populateParams() {
 		if (paramsSet) return;
+		decode();
 		if ( params == null ) params = new HashMap<String,String>();
 		if ( paramsBlob != null ) {
 			for (int i = 0; i< paramsBlob.length; i++) {
@@ -264,11 +332,19 @@ public class AcalProperty {
 		return this.name;
 	}
 
+	/**
+	 * @return The well-known property this is, or null if it is not one.
+	 */
+	PropertyName getKnownName() {
+		return this.knownName;
+	}
+
 	/**
 	 * Returns the value of this property.
 	 * @return
 	 */
 	public synchronized  String getValue() {
+		if ( value == null && source != null ) decodeValue();
 		return this.value;
 	}
 
@@ -326,6 +402,7 @@ public class AcalProperty {
 			Log.v(TAG,"Building RFC String for '"+name+"'");
 
 		StringBuilder paramBuilder = new StringBuilder(name);
+		decode();
 		if ( paramsBlob == null ) rebuildParamsBlob();
 		for (int i = 0; i< paramsBlob.length; i++) {
 			paramBuilder.append(';');
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.davacal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * The properties of a VComponent, by name.  The well-known properties each have a slot, indexed
+ * by their PropertyName, so looking one up needs no hashing.  Anything else, which is mostly
+ * X- properties, goes into a HashMap which we only create if we need it.
+ * </p>
+ * <p>
+ * Iterating gives the well-known properties in PropertyName order, then the others.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+final class AcalPropertyMap extends AbstractMap<String,AcalPropertySet> {
+
+	private static final PropertyName[] KNOWN = PropertyName.values();
+
+	private final AcalPropertySet[] wellKnown = new AcalPropertySet[KNOWN.length];
+	private HashMap<String,AcalPropertySet> others = null;
+	private int knownCount = 0;
+
+
+	AcalPropertySet get(PropertyName pName) {
+		if ( pName == PropertyName.ARBITRARY || pName == PropertyName.INVALID )
+			return (others == null ? null : others.get(pName.toString()));
+		return wellKnown[pName.ordinal()];
+	}
+
+
+	/**
+	 * Adds the property to the set for its name, starting one if there isn't one yet.
+	 */
+	void add(AcalProperty property) {
+		PropertyName known = property.getKnownName();
+		if ( known != null ) {
+			AcalPropertySet pSet = wellKnown[known.ordinal()];
+			if ( pSet == null ) {
+				wellKnown[known.ordinal()] = new AcalPropertySet(property);
+				knownCount++;
+			}
+			else
+				pSet.add(property);
+			return;
+		}
+		if ( others == null ) others = new HashMap<String,AcalPropertySet>();
+		AcalPropertySet pSet = others.get(property.name);
+		if ( pSet == null )
+			others.put(property.name, new AcalPropertySet(property));
+		else
+			pSet.add(property);
+	}
+
+
+	@Override
+	public AcalPropertySet get(Object key) {
+		if ( !(key instanceof String) ) return null;
+		PropertyName known = PropertyName.fromName((String) key);
+		if ( known != null ) return wellKnown[known.ordinal()];
+		return (others == null ? null : others.get(key));
+	}
+
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+
+	@Override
+	public AcalPropertySet put(String key, AcalPropertySet value) {
+		PropertyName known = PropertyName.fromName(key);
+		if ( known == null ) {
+			if ( others == null ) others = new HashMap<String,AcalPropertySet>();
+			return others.put(key, value);
+		}
+		AcalPropertySet previous = wellKnown[known.ordinal()];
+		wellKnown[known.ordinal()] = value;
+		if ( previous == null && value != null ) knownCount++;
+		else if ( previous != null && value == null ) knownCount--;
+		return previous;
+	}
+
+
+	@Override
+	public AcalPropertySet remove(Object key) {
+		if ( !(key instanceof String) ) return null;
+		PropertyName known = PropertyName.fromName((String) key);
+		if ( known == null ) return (others == null ? null : others.remove(key));
+		AcalPropertySet previous = wellKnown[known.ordinal()];
+		if ( previous != null ) {
+			wellKnown[known.ordinal()] = null;
+			knownCount--;
+		}
+		return previous;
+	}
+
+
+	@Override
+	public int size() {
+		return knownCount + (others == null ? 0 : others.size());
+	}
+
+
+	@Override
+	public Set<Map.Entry<String,AcalPropertySet>> entrySet() {
+		final List<Map.Entry<String,AcalPropertySet>> entries = new ArrayList<Map.Entry<String,AcalPropertySet>>(size());
+		for( int i = 0; i < wellKnown.length; i++ ) {
+			if ( wellKnown[i] != null )
+				entries.add(new SimpleImmutableEntry<String,AcalPropertySet>(KNOWN[i].toString(), wellKnown[i]));
+		}
+		if ( others != null ) entries.addAll(others.entrySet());
+		return new AbstractSet<Map.Entry<String,AcalPropertySet>>() {
+			@Override
+			public Iterator<Map.Entry<String,AcalPropertySet>> iterator() {
+				return entries.iterator();
+			}
+
+			@Override
+			public int size() {
+				return entries.size();
+			}
+		};
+	}
+}
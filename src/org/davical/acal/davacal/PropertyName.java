@@ -1,15 +1,39 @@
 package org.davical.acal.davacal;
 
+import java.util.HashMap;
+
 public enum PropertyName {
 	UID, DTSTAMP, CREATED, LAST_MODIFIED, DTSTART, DTEND, DUE, DURATION, LOCATION, SUMMARY,
 	DESCRIPTION, RRULE, RDATE, EXDATE, PERCENT_COMPLETE, COMPLETED, STATUS, TRIGGER, ACTION,
 	RECURRENCE_ID, VERSION, SEQUENCE, N, FN, REV, ARBITRARY, INVALID;
 
 	private String arbitraryName = null;
-	
+
+	// The name as it appears in a calendar, which property names are interned to
+	private final String rfcName;
+
+	private static final HashMap<String,PropertyName> byName = new HashMap<String,PropertyName>();
+	static {
+		for( PropertyName p : values() ) {
+			if ( p != ARBITRARY && p != INVALID ) byName.put(p.rfcName, p);
+		}
+	}
+
+	private PropertyName() {
+		rfcName = name().replace('_', '-');
+	}
+
 	public String toString() {
 		if ( arbitraryName != null ) return arbitraryName;
-		return super.toString().replace('_', '-');
+		return rfcName;
+	}
+
+	/**
+	 * @param name A property name, in upper case
+	 * @return The well-known property of that name, or null if it isn't one.
+	 */
+	public static PropertyName fromName( String name ) {
+		return byName.get(name);
 	}
 
 	public static PropertyName arbitrary( String name ) {
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.davacal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import org.davical.acal.AcalApplication;
+import org.davical.acal.Constants;
+
+/**
+ * <p>
+ * Remembers what each TZID we have seen resolves to, so that the same TZID on thousands of
+ * DTSTART, DTEND, RECURRENCE-ID and alarm properties is only worked out once.  The key is the
+ * TZID exactly as it was in the calendar, quotes, Mozilla prefixes, Microsoft names and all.
+ * TZIDs we could not resolve are remembered too, since they are the most expensive to look up.
+ * </p>
+ * <p>
+ * The aliases come in part from the timezone_alias table, so UpdateTimezones calls invalidate()
+ * after it refreshes that table.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class TimeZoneCache {
+
+	private static final String TAG = "aCal TimeZoneCache";
+
+	private static final int MAX_ENTRIES = 256;
+
+	/**
+	 * What a TZID resolved to.
+	 */
+	public static final class Zone {
+		private final String olsonName;
+		private final TimeZone timeZone;
+
+		private Zone(String olsonName, TimeZone timeZone) {
+			this.olsonName = olsonName;
+			this.timeZone = timeZone;
+		}
+
+		public String getOlsonName() {
+			return olsonName;
+		}
+
+		public TimeZone getTimeZone() {
+			return timeZone;
+		}
+	}
+
+	// Stands in for a TZID we could not resolve
+	private static final Zone UNRECOGNISED = new Zone(null, null);
+
+	private static final LinkedHashMap<String,Zone> zones = new LinkedHashMap<String,Zone>(MAX_ENTRIES + 4, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,Zone> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	// Olson names to TimeZones, since TimeZone.getTimeZone() is not cheap either
+	private static final LinkedHashMap<String,TimeZone> timeZones = new LinkedHashMap<String,TimeZone>(MAX_ENTRIES + 4, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,TimeZone> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong unrecognised = new AtomicLong();
+
+	private TimeZoneCache() {
+	}
+
+
+	/**
+	 * @param tzId A TZID, as it appears in a calendar
+	 * @return What the TZID resolves to, or null if we don't recognise it.
+	 */
+	public static Zone resolve(String tzId) {
+		if ( tzId == null ) return null;
+		Zone zone;
+		synchronized( zones ) {
+			zone = zones.get(tzId);
+		}
+		if ( zone != null ) {
+			hits.incrementAndGet();
+			return (zone == UNRECOGNISED ? null : zone);
+		}
+
+		misses.incrementAndGet();
+		String name = tzId;
+		if ( name.length() > 1 && name.startsWith("\"") && name.endsWith("\"") )
+			name = name.substring(1, name.length() - 1);
+		String olsonName = VCalendar.findOlsonName(name);
+		zone = (olsonName == null ? UNRECOGNISED : new Zone(olsonName, getTimeZone(olsonName)));
+		if ( zone == UNRECOGNISED ) unrecognised.incrementAndGet();
+		synchronized( zones ) {
+			zones.put(tzId, zone);
+		}
+		return (zone == UNRECOGNISED ? null : zone);
+	}
+
+
+	/**
+	 * @param olsonName An Olson timezone name
+	 * @return The same as TimeZone.getTimeZone(olsonName), which must not be modified.
+	 */
+	public static TimeZone getTimeZone(String olsonName) {
+		TimeZone tz;
+		synchronized( timeZones ) {
+			tz = timeZones.get(olsonName);
+		}
+		if ( tz != null ) return tz;
+		tz = TimeZone.getTimeZone(olsonName);
+		synchronized( timeZones ) {
+			timeZones.put(olsonName, tz);
+		}
+		return tz;
+	}
+
+
+	/**
+	 * Forget everything we have resolved, because the aliases may have changed.
+	 */
+	public static void invalidate() {
+		synchronized( zones ) {
+			zones.clear();
+		}
+		AcalApplication.clearZoneAliases();
+		if ( Constants.debugTimeZone && Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD, TAG, "Cleared resolved timezones");
+	}
+
+
+	/**
+	 * @return The proportion of lookups which we could answer from the cache.
+	 */
+	public static double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0 ? 0.0 : (double) h / total);
+	}
+
+
+	/**
+	 * Log how well the cache is doing.
+	 */
+	public static void logStatistics() {
+		int size;
+		synchronized( zones ) {
+			size = zones.size();
+		}
+		Log.println(Constants.LOGI, TAG, String.format("%d hits, %d misses (%.1f%% hit rate), %d unrecognised, %d TZIDs cached",
+					hits.get(), misses.get(), getHitRate() * 100.0, unrecognised.get(), size));
+	}
+}
@@ -19,9 +19,12 @@
 package org.davical.acal.davacal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -64,6 +67,16 @@ public class VCalendar extends VComponent implements Cloneable {
 	 * multiple VEVENT(/VTODO/VJOURNAL) in the VCALENDAR which override some of the repeats.
 	 */
 	private Boolean masterHasOverrides = null;
+
+	/**
+	 * The overrides of the master, by the epoch of the instance they replace, and those with
+	 * RANGE=THISANDFUTURE again in order of that epoch.  Built when first needed, and forgotten
+	 * when a child is added or removed, or a child's RECURRENCE-ID changes.
+	 */
+	private Map<Long,Masterable> overridesByEpoch = null;
+	private long[] thisAndFutureEpochs = null;
+	private Masterable[] thisAndFutureOverrides = null;
+	private Masterable indexedMaster = null;
 	private Boolean hasAlarms = null;
 	private Boolean hasRepeatRule = null;
 	private Long earliestStart;
@@ -611,6 +624,88 @@ public class VCalendar extends VComponent implements Cloneable {
 		return masterInstance;
 	}
 
+	/**
+	 * Finds the component which describes the instance of the master starting at the epoch: an
+	 * override with exactly that RECURRENCE-ID, or else the latest RANGE=THISANDFUTURE override
+	 * before it, or else the master.  Unlike getChildFromRecurrenceId() the component is not
+	 * moved to the instance, so this needs no RecurrenceId, and is cheap enough to call for
+	 * every instance while expanding the repeat rule.
+	 *
+	 * @param epoch The start of the instance, as from AcalDateTime.getEpoch()
+	 * @return The component, which must not be modified.
+	 */
+	public synchronized Masterable getOverrideForInstance( long epoch ) {
+		if ( overridesByEpoch == null ) buildOverrideIndex();
+		Masterable override = overridesByEpoch.get(epoch);
+		if ( override != null ) return override;
+		if ( thisAndFutureEpochs.length > 0 ) {
+			int pos = Arrays.binarySearch(thisAndFutureEpochs, epoch);
+			if ( pos < 0 ) pos = -pos - 2;
+			if ( pos >= 0 ) return thisAndFutureOverrides[pos];
+		}
+		return indexedMaster;
+	}
+
+
+	private void buildOverrideIndex() {
+		Map<Long,Masterable> byEpoch = new HashMap<Long,Masterable>();
+		List<Masterable> thisAndFuture = new ArrayList<Masterable>();
+		Masterable master = null;
+		try {
+			this.setPersistentOn();
+			for (VComponent vc : this.getChildren()) {
+				if ( !(vc instanceof Masterable) ) continue;
+				Masterable m = (Masterable) vc;
+				if ( m.getProperty(PropertyName.RECURRENCE_ID) == null ) {
+					if ( master == null ) master = m;
+					continue;
+				}
+				RecurrenceId rrid = m.getRecurrenceId();
+				if ( rrid == null || rrid.when == null ) continue;
+				byEpoch.put(rrid.when.getEpoch(), m);
+				if ( rrid.isThisAndFuture() ) thisAndFuture.add(m);
+			}
+		}
+		catch (YouMustSurroundThisMethodInTryCatchOrIllEatYouException e) {
+			Log.w(TAG,Log.getStackTraceString(e));
+		}
+		finally {
+			this.setPersistentOff();
+		}
+
+		Collections.sort(thisAndFuture, RecurrenceId.getVComponentComparatorByRecurrenceId());
+		long[] epochs = new long[thisAndFuture.size()];
+		for( int i = 0; i < epochs.length; i++ )
+			epochs[i] = thisAndFuture.get(i).getRecurrenceId().when.getEpoch();
+
+		indexedMaster = (master != null ? master : getMasterChild());
+		thisAndFutureEpochs = epochs;
+		thisAndFutureOverrides = thisAndFuture.toArray(new Masterable[thisAndFuture.size()]);
+		overridesByEpoch = byEpoch;
+	}
+
+
+	@Override
+	public synchronized boolean addChild(VComponent child) {
+		overridesByEpoch = null;
+		return super.addChild(child);
+	}
+
+
+	@Override
+	public synchronized boolean removeChild(VComponent child) {
+		overridesByEpoch = null;
+		return super.removeChild(child);
+	}
+
+
+	@Override
+	protected synchronized void recurrenceIdChanged() {
+		overridesByEpoch = null;
+		super.recurrenceIdChanged();
+	}
+
+
 	private static String checkKnownAliases( String tzId ) {
 		if ( tzId.equals(TZNAME_UTC) ) return tzId;
 		if ( tzId.equals("GMT") ) return TZNAME_UTC;
@@ -628,30 +723,32 @@ public class VCalendar extends VComponent implements Cloneable {
 		return null;
 	}
 
-	public static String staticGetOlsonName( String tzId ) throws UnrecognisedTimeZone {
+	/**
+	 * Work out the Olson name for a TZID, without the TimeZoneCache.
+	 * @return The Olson name, or null if we don't recognise the TZID.
+	 */
+	static String findOlsonName( String tzId ) {
 		Matcher m = VCalendar.tzOlsonExtractor.matcher(tzId);
 		if ( m.matches() ) {
 			return m.group(1);
 		}
 		String aliasResult = checkKnownAliases(tzId);
 		if ( aliasResult != null ) return aliasResult;
-		aliasResult = AcalApplication.getOlsonFromAlias(tzId);
-        if ( aliasResult != null ) return aliasResult;
+		return AcalApplication.getOlsonFromAlias(tzId);
+	}
+
+
+	public static String staticGetOlsonName( String tzId ) throws UnrecognisedTimeZone {
+		TimeZoneCache.Zone zone = TimeZoneCache.resolve(tzId);
+		if ( zone != null ) return zone.getOlsonName();
 		throw new UnrecognisedTimeZone("Unrecognized Time Zone '"+tzId+"'");
 //		return tzId;
 	}
 
 
 	public String getOlsonName( String tzId ) {
-		Matcher m = VCalendar.tzOlsonExtractor.matcher(tzId);
-		if ( m.matches() ) {
-			return m.group(1);
-		}
-
-		String aliasResult = checkKnownAliases(tzId);
-		if ( aliasResult != null ) return aliasResult;
-        aliasResult = AcalApplication.getOlsonFromAlias(tzId);
-        if ( aliasResult != null ) return aliasResult;
+		TimeZoneCache.Zone zone = TimeZoneCache.resolve(tzId);
+		if ( zone != null ) return zone.getOlsonName();
 
 		if (childrenSet) {
 			for (VComponent vc : this.getChildren()) {
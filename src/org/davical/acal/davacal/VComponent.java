@@ -20,7 +20,6 @@ package org.davical.acal.davacal;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -81,7 +80,7 @@ public abstract class VComponent implements Parcelable {
 	// getters. To maintain consistency they should not be changed by external or child classes.
 	private List<VComponent> children = null;
 	protected boolean childrenSet = false;
-	private Map<String, AcalPropertySet> properties;
+	private AcalPropertyMap properties;
 	protected boolean propertiesSet = false;
 	private int persistenceCount = 0;
 
@@ -107,7 +106,7 @@ public abstract class VComponent implements Parcelable {
 		if ( this.parent != null ) this.parent.addChild(this);
 		this.content = null;
 		this.children = new ArrayList<VComponent>();
-		this.properties = new HashMap<String,AcalPropertySet>();
+		this.properties = new AcalPropertyMap();
 		this.childrenSet = true;
 		this.propertiesSet = true;
 	}
@@ -253,8 +252,13 @@ public abstract class VComponent implements Parcelable {
 	 * @param pName
 	 * @return
 	 */
-	public AcalProperty getProperty(PropertyName pName) {
-		return getProperty(pName.toString());
+	public synchronized AcalProperty getProperty(PropertyName pName) {
+		if (pName == null) return null;
+		this.populateProperties();
+		AcalPropertySet pSet = properties.get(pName);
+		AcalProperty ret = (pSet == null ? null : pSet.get());
+		if (this.persistenceCount == 0) destroyProperties();
+		return ret;
 	}
 
 	/**
@@ -266,7 +270,7 @@ public abstract class VComponent implements Parcelable {
 	public synchronized List<AcalProperty> getProperties(PropertyName pName) {
 		this.populateProperties();
 		List<AcalProperty> ret = new ArrayList<AcalProperty>();
-		AcalPropertySet pSet = properties.get(pName.toString());
+		AcalPropertySet pSet = properties.get(pName);
 		if ( pSet != null ) {
 			for( AcalProperty p : pSet ) ret.add(p);
 		}
@@ -435,18 +439,11 @@ public abstract class VComponent implements Parcelable {
 
 	protected synchronized void populateProperties() {
 		if (propertiesSet) return;
-		properties = new HashMap<String,AcalPropertySet>(content.propertyLines.length);
-		if (properties == null) {
-			Log.e(TAG, "Somehow an object that was just instatiated is null????");
-		}
+		properties = new AcalPropertyMap();
 		for( int i=0; i < content.propertyLines.length; i++ ) {
 			AcalProperty p = AcalProperty.fromString(content.propertyLines[i]);
 			try {
-				AcalPropertySet pSet = properties.get(p.getName());
-				if ( pSet == null )
-					properties.put(p.getName(),new AcalPropertySet(p));
-				else
-					pSet.add(p);
+				properties.add(p);
 			}
 			catch ( Exception e ) {
 				Log.i(TAG,Log.getStackTraceString(e));
@@ -608,10 +605,8 @@ public abstract class VComponent implements Parcelable {
 			populateProperties();
 		}
 
-		if ( properties.containsKey(property.name) )
-		    properties.get(property.name).add(property);
-		else
-		    properties.put(property.name, new AcalPropertySet(property));
+		properties.add(property);
+		if ( PropertyName.RECURRENCE_ID.toString().equals(property.getName()) ) recurrenceIdChanged();
 
 		return property;
 	}
@@ -623,7 +618,7 @@ public abstract class VComponent implements Parcelable {
 		}
         if ( properties.containsKey(name) )
             properties.remove(name);
-
+		if ( PropertyName.RECURRENCE_ID.toString().equals(name) ) recurrenceIdChanged();
 	}
 
 	public AcalProperty setUniqueProperty(AcalProperty property) {
@@ -642,9 +637,18 @@ public abstract class VComponent implements Parcelable {
 		}
 		for ( PropertyName n : propertyNames ) {
 			properties.remove(n.toString());
+			if ( n == PropertyName.RECURRENCE_ID ) recurrenceIdChanged();
 		}
 	}
 
+	/**
+	 * Called when the RECURRENCE-ID of this component is set or removed, and passed up to the
+	 * parent, so that a VCalendar can forget anything it worked out from its children's.
+	 */
+	protected void recurrenceIdChanged() {
+		if ( parent != null ) parent.recurrenceIdChanged();
+	}
+
 
 	public VComponent(Parcel in) {
 		this.name = in.readString();
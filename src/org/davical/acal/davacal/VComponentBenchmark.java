@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.davacal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+import org.davical.acal.BenchmarkTimer;
+import org.davical.acal.Constants;
+
+/**
+ * <p>
+ * Parses a large collection of events the way the CacheManager does, reading only the properties
+ * it needs, and then again reading every value and parameter of every property, logging how
+ * many events we can parse a second, what we allocate, and how much heap the parsed events hold.
+ * </p>
+ * <p>
+ * The collection is made up here, with the sort of properties Google and Exchange send us, so
+ * that the numbers from one device can be compared with the next.  Run from DebugSettings.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class VComponentBenchmark {
+
+	private static final String TAG = "aCal VComponentBenchmark";
+
+	private static final int EVENTS = 2000;
+
+	private VComponentBenchmark() {
+	}
+
+
+	public static void run() {
+		List<String> blobs = buildCollection();
+
+		// Warm up, so we time the parsing and not the first class loads
+		parse(blobs, false, null);
+
+		BenchmarkTimer timer = new BenchmarkTimer(TAG);
+		timer.start();
+		parse(blobs, false, null);
+		timer.stop("Cache properties only", EVENTS);
+
+		timer.start();
+		parse(blobs, true, null);
+		timer.stop("Every property decoded", EVENTS);
+
+		List<Masterable> retained = new ArrayList<Masterable>(EVENTS);
+		long before = usedHeap();
+		parse(blobs, false, retained);
+		long after = usedHeap();
+		Log.println(Constants.LOGI, TAG, String.format("%d events with properties populated hold %d bytes (%d each)",
+					retained.size(), after - before, (after - before) / Math.max(1, retained.size())));
+		for( Masterable m : retained ) m.setPersistentOff();
+	}
+
+
+	/**
+	 * Parse each blob and read the properties a CacheObject needs, or all of them.
+	 * @param retained If not null, the masters are left with their properties populated and added to this
+	 */
+	private static void parse(List<String> blobs, boolean everything, List<Masterable> retained) {
+		for( String blob : blobs ) {
+			VCalendar vCal = (VCalendar) VComponent.createComponentFromBlob(blob);
+			Masterable master = vCal.getMasterChild();
+			try {
+				master.setPersistentOn();
+				if ( everything ) {
+					for( AcalProperty p : master.getAllProperties() ) {
+						p.getValue();
+						p.getParams();
+					}
+				}
+				else {
+					master.getStart();
+					master.getEnd();
+					master.getSummary();
+					master.getLocation();
+					master.getProperty(PropertyName.RRULE);
+				}
+			}
+			catch ( YouMustSurroundThisMethodInTryCatchOrIllEatYouException e ) {
+				Log.w(TAG,Log.getStackTraceString(e));
+			}
+			finally {
+				if ( retained == null )
+					master.setPersistentOff();
+				else
+					retained.add(master);
+			}
+		}
+	}
+
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for( int i = 0; i < 3; i++ ) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+
+	private static List<String> buildCollection() {
+		List<String> blobs = new ArrayList<String>(EVENTS);
+		for( int i = 0; i < EVENTS; i++ ) {
+			int day = 1 + (i % 28);
+			int hour = 8 + (i % 10);
+			StringBuilder blob = new StringBuilder(1500);
+			blob.append("BEGIN:VCALENDAR\r\n")
+				.append("VERSION:2.0\r\n")
+				.append("PRODID:-//Google Inc//Google Calendar 70.9054//EN\r\n")
+				.append("CALSCALE:GREGORIAN\r\n")
+				.append("BEGIN:VEVENT\r\n")
+				.append(String.format("DTSTART;TZID=Pacific/Auckland:2011%02d%02dT%02d0000\r\n", 1 + (i % 12), day, hour))
+				.append(String.format("DTEND;TZID=Pacific/Auckland:2011%02d%02dT%02d3000\r\n", 1 + (i % 12), day, hour))
+				.append("DTSTAMP:20111024T021500Z\r\n")
+				.append("UID:benchmark-").append(i).append("@acal.example.com\r\n")
+				.append("ORGANIZER;CN=\"Smith\\, Jane\":mailto:jane@example.com\r\n")
+				.append("ATTENDEE;CUTYPE=INDIVIDUAL;ROLE=REQ-PARTICIPANT;PARTSTAT=ACCEPTED;CN=Jane Smith;X-NUM-GUESTS=0:mailto:jane@example.com\r\n")
+				.append("ATTENDEE;CUTYPE=INDIVIDUAL;ROLE=REQ-PARTICIPANT;PARTSTAT=NEEDS-ACTION;CN=Bob Jones;X-NUM-GUESTS=0:mailto:bob@example.com\r\n")
+				.append("CREATED:20110101T000000Z\r\n")
+				.append("DESCRIPTION:Agenda:\\n1. Minutes\\, actions\\n2. Budget\\; forecast\\n3. Any other business\r\n")
+				.append("LAST-MODIFIED:20111024T021500Z\r\n")
+				.append("LOCATION:Meeting room ").append(i % 7).append("\\, level 2\r\n")
+				.append("SEQUENCE:").append(i % 3).append("\r\n")
+				.append("STATUS:CONFIRMED\r\n")
+				.append("SUMMARY:Project meeting ").append(i).append("\r\n")
+				.append("TRANSP:OPAQUE\r\n")
+				.append("X-MICROSOFT-CDO-BUSYSTATUS:BUSY\r\n");
+			if ( i % 5 == 0 ) blob.append("RRULE:FREQ=WEEKLY;BYDAY=MO,WE;COUNT=20\r\n");
+			blob.append("END:VEVENT\r\n")
+				.append("END:VCALENDAR\r\n");
+			blobs.add(blob.toString());
+		}
+		return blobs;
+	}
+}
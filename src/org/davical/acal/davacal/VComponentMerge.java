@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.davacal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+import org.davical.acal.Constants;
+import org.davical.acal.acaltime.AcalDateTime;
+
+/**
+ * <p>
+ * Three-way merge of two edited copies of an iCalendar object against the copy they were both
+ * derived from.  Typically the ancestor is the data a local edit started from, 'theirs' is what
+ * the server holds now and 'ours' is the locally edited version.
+ * </p>
+ * <p>
+ * Components are matched up by type plus UID and RECURRENCE-ID, so an override for a single
+ * instance of a repeating event is merged with the same override in the other copy rather than
+ * with the master.  Within a matched component each property name is treated as a unit: if only
+ * one side changed it that side wins, and if both sides changed it differently the merge fails.
+ * DTSTAMP, LAST-MODIFIED and SEQUENCE are rewritten by every client on save, so they never
+ * conflict.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public class VComponentMerge {
+
+	public static final String TAG = "aCal VComponentMerge";
+	private static boolean DEBUG = true && Constants.DEBUG_MODE;
+
+	private static final Set<String> volatileProperties = new HashSet<String>(Arrays.asList(new String[] {
+			PropertyName.DTSTAMP.toString(), PropertyName.LAST_MODIFIED.toString(), PropertyName.SEQUENCE.toString()
+		}));
+
+	private VComponentMerge() {
+	}
+
+
+	/**
+	 * Merge the changes made between ancestor and ours into theirs.
+	 * @param ancestor The common version both edits started from
+	 * @param theirs The version which has been changed elsewhere
+	 * @param ours The version which has been changed locally
+	 * @return The merged iCalendar blob, or null if the changes conflict or could not be parsed.
+	 */
+	public static String merge(String ancestor, String theirs, String ours) {
+		if ( ancestor == null || theirs == null || ours == null ) return null;
+		if ( theirs.equals(ancestor) ) return ours;
+		if ( ours.equals(ancestor) || ours.equals(theirs) ) return theirs;
+
+		try {
+			VComponent base = VComponent.createComponentFromBlob(ancestor);
+			VComponent them = VComponent.createComponentFromBlob(theirs);
+			VComponent us = VComponent.createComponentFromBlob(ours);
+			if ( !base.name.equals(them.name) || !base.name.equals(us.name) ) return null;
+
+			base.setEditable();
+			them.setEditable();
+			us.setEditable();
+
+			if ( !mergeComponent(base, them, us) ) return null;
+			return us.getCurrentBlob();
+		}
+		catch ( Exception e ) {
+			Log.w(TAG, "Unable to merge changes: " + e.getMessage());
+			if ( Constants.LOG_VERBOSE ) Log.println(Constants.LOGV, TAG, Log.getStackTraceString(e));
+		}
+		return null;
+	}
+
+
+	/**
+	 * Merge one level of the tree, leaving the result in 'us'.  Any of the components may
+	 * be null where that side has no such component.
+	 * @return false if the two sets of changes conflict.
+	 */
+	private static boolean mergeComponent(VComponent base, VComponent them, VComponent us) {
+		if ( !mergeProperties(base, them, us) ) return false;
+
+		Map<String,VComponent> baseChildren = childrenByKey(base);
+		Map<String,VComponent> theirChildren = childrenByKey(them);
+		Map<String,VComponent> ourChildren = childrenByKey(us);
+
+		Set<String> keys = new LinkedHashSet<String>(ourChildren.keySet());
+		keys.addAll(theirChildren.keySet());
+		for( String key : keys ) {
+			VComponent b = baseChildren.get(key);
+			VComponent t = theirChildren.get(key);
+			VComponent o = ourChildren.get(key);
+
+			if ( o == null ) {
+				if ( b == null ) {
+					// Added on their side only
+					t.parent = us;
+					us.addChild(t);
+				}
+				else if ( !sameContent(b, t) ) {
+					if ( DEBUG ) Log.println(Constants.LOGD, TAG, "Conflict: " + key + " deleted locally but changed remotely.");
+					return false;
+				}
+				// else deleted on our side and untouched on theirs: leave it out.
+			}
+			else if ( t == null ) {
+				if ( b != null ) {
+					if ( !sameContent(b, o) ) {
+						if ( DEBUG ) Log.println(Constants.LOGD, TAG, "Conflict: " + key + " changed locally but deleted remotely.");
+						return false;
+					}
+					us.removeChild(o);
+				}
+				// else added on our side only: keep it.
+			}
+			else if ( !mergeComponent(b, t, o) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Merge the properties of a component, property name by property name.
+	 */
+	private static boolean mergeProperties(VComponent base, VComponent them, VComponent us) {
+		Map<String,List<String>> baseProps = propertyStrings(base);
+		Map<String,List<String>> theirProps = propertyStrings(them);
+		Map<String,List<String>> ourProps = propertyStrings(us);
+
+		Set<String> names = new LinkedHashSet<String>(ourProps.keySet());
+		names.addAll(theirProps.keySet());
+		for( String name : names ) {
+			List<String> b = baseProps.get(name);
+			List<String> t = theirProps.get(name);
+			List<String> o = ourProps.get(name);
+
+			if ( equalValues(o, t) || equalValues(t, b) ) continue;
+
+			if ( equalValues(o, b) ) {
+				// Only they changed this one
+				if ( DEBUG && Constants.LOG_VERBOSE ) Log.println(Constants.LOGV, TAG, "Taking remote change to " + name);
+				replaceProperties(us, name, them);
+			}
+			else if ( volatileProperties.contains(name) ) {
+				if ( name.equals(PropertyName.SEQUENCE.toString()) && sequence(them) > sequence(us) )
+					replaceProperties(us, name, them);
+			}
+			else {
+				if ( DEBUG ) Log.println(Constants.LOGD, TAG, "Conflict: " + name + " in " + us.name + " changed on both sides.");
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static void replaceProperties(VComponent target, String name, VComponent source) {
+		target.removeProperty(name);
+		if ( source == null ) return;
+		AcalPropertySet properties = source.getProperties().get(name);
+		if ( properties == null ) return;
+		for( AcalProperty p : properties ) {
+			target.addProperty(p);
+		}
+	}
+
+
+	private static int sequence(VComponent component) {
+		AcalProperty p = component.getProperty(PropertyName.SEQUENCE);
+		if ( p == null ) return 0;
+		try {
+			return Integer.parseInt(p.getValue().trim());
+		}
+		catch ( NumberFormatException e ) {
+			return 0;
+		}
+	}
+
+
+	private static boolean equalValues(List<String> a, List<String> b) {
+		if ( a == null || b == null ) return a == b;
+		return a.equals(b);
+	}
+
+
+	/**
+	 * The properties of a component as sorted RFC strings, so that multiply-occurring
+	 * properties like EXDATE or ATTENDEE compare equal regardless of order.
+	 */
+	private static Map<String,List<String>> propertyStrings(VComponent component) {
+		Map<String,List<String>> result = new HashMap<String,List<String>>();
+		if ( component == null ) return result;
+		for( Map.Entry<String,AcalPropertySet> entry : component.getProperties().entrySet() ) {
+			List<String> values = new ArrayList<String>(entry.getValue().size());
+			for( AcalProperty p : entry.getValue() ) {
+				values.add(p.toRfcString());
+			}
+			Collections.sort(values);
+			result.put(entry.getKey(), values);
+		}
+		return result;
+	}
+
+
+	private static boolean sameContent(VComponent a, VComponent b) {
+		if ( !propertyStrings(a).equals(propertyStrings(b)) ) return false;
+		Map<String,VComponent> aChildren = childrenByKey(a);
+		Map<String,VComponent> bChildren = childrenByKey(b);
+		if ( !aChildren.keySet().equals(bChildren.keySet()) ) return false;
+		for( String key : aChildren.keySet() ) {
+			if ( !sameContent(aChildren.get(key), bChildren.get(key)) ) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Index the children of a component by a key which identifies the same component in
+	 * another copy of the object.  Events, tasks and journals are keyed on UID and
+	 * RECURRENCE-ID, timezones on TZID, and anything else (such as alarms) on its type
+	 * and position amongst siblings of the same type.
+	 */
+	private static Map<String,VComponent> childrenByKey(VComponent component) {
+		Map<String,VComponent> result = new LinkedHashMap<String,VComponent>();
+		if ( component == null ) return result;
+		Map<String,Integer> ordinals = new HashMap<String,Integer>();
+		for( VComponent child : new ArrayList<VComponent>(component.getChildren()) ) {
+			String key;
+			if ( child instanceof Masterable ) {
+				key = child.name + ":" + child.safePropertyValue(PropertyName.UID)
+							+ ":" + recurrenceKey(child.getProperty(PropertyName.RECURRENCE_ID));
+			}
+			else if ( child instanceof VTimezone ) {
+				key = child.name + ":" + child.safePropertyValue("TZID");
+			}
+			else {
+				Integer n = ordinals.get(child.name);
+				n = (n == null ? 0 : n + 1);
+				ordinals.put(child.name, n);
+				key = child.name + "#" + n;
+			}
+			result.put(key, child);
+		}
+		return result;
+	}
+
+
+	/**
+	 * RECURRENCE-ID values may be written in different timezones by different clients, so
+	 * compare them as instants where we can.
+	 */
+	private static String recurrenceKey(AcalProperty recurrenceId) {
+		if ( recurrenceId == null ) return "";
+		try {
+			AcalDateTime when = AcalDateTime.fromIcalendar(recurrenceId.getValue(),
+						recurrenceId.getParam(AcalProperty.PARAM_VALUE), recurrenceId.getParam(AcalProperty.PARAM_TZID));
+			if ( when != null ) return Long.toString(when.getMillis());
+		}
+		catch ( Exception e ) { }
+		return recurrenceId.getValue();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.desktop;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Color;
+import android.util.Log;
+
+import org.davical.acal.Constants;
+import org.davical.acal.database.AcalDBHelper;
+import org.davical.acal.dataservice.Collection;
+
+/**
+ * <p>
+ * Reads the show_upcoming_widget_data table, which UpcomingEventsTable keeps as a snapshot
+ * of the events in the cache that have not yet finished, so when the widget updates it only
+ * has to read the first few rows, without expanding any recurrences or starting the
+ * CacheManager.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class ShowUpcomingWidgetData {
+
+	public static final String TAG = "aCal ShowUpcomingWidgetData";
+
+	private ShowUpcomingWidgetData() {
+	}
+
+
+	/**
+	 * One upcoming event, as the widget needs it.
+	 */
+	public static final class Row {
+		public final long start;
+		public final long end;
+		public final int colour;
+		public final String summary;
+
+		Row(long start, long end, int colour, String summary) {
+			this.start = start;
+			this.end = end;
+			this.colour = colour;
+			this.summary = summary;
+		}
+	}
+
+
+	/**
+	 * Read the next few events which have not finished yet, from visible collections.
+	 * @param limit The most events to return
+	 * @return The events in order of start time
+	 */
+	public static ArrayList<Row> getUpcoming(Context context, int limit) {
+		ArrayList<Row> result = new ArrayList<Row>(limit);
+		long now = System.currentTimeMillis();
+		long horizon = now + ShowUpcomingWidgetProvider.NUM_DAYS_TO_LOOK_AHEAD * 86400000L;
+		AcalDBHelper dbHelper = new AcalDBHelper(context);
+		SQLiteDatabase db = dbHelper.getReadableDatabase();
+		Cursor c = null;
+		try {
+			c = db.rawQuery("SELECT w."+ShowUpcomingWidgetProvider.FIELD_DTSTART+", w."+ShowUpcomingWidgetProvider.FIELD_DTEND
+						+", w."+ShowUpcomingWidgetProvider.FIELD_SUMMARY+", w."+ShowUpcomingWidgetProvider.FIELD_COLLECTION_ID
+						+", dav_collection.colour"
+						+" FROM "+ShowUpcomingWidgetProvider.TABLE+" w"
+						+" JOIN dav_collection ON (dav_collection._id = w."+ShowUpcomingWidgetProvider.FIELD_COLLECTION_ID+")"
+						+" JOIN dav_server ON (dav_server._id = dav_collection.server_id)"
+						+" WHERE w."+ShowUpcomingWidgetProvider.FIELD_DTSTART+" < ? AND w."+ShowUpcomingWidgetProvider.FIELD_DTEND+" > ?"
+						+" AND dav_server.active = 1"
+						+" AND (dav_collection.active_events = 1 OR dav_collection.active_tasks = 1 OR dav_collection.active_journal = 1)"
+						+" ORDER BY w."+ShowUpcomingWidgetProvider.FIELD_DTSTART+" ASC LIMIT "+limit,
+					new String[] { Long.toString(horizon), Long.toString(now) });
+			while( c.moveToNext() ) {
+				int colour;
+				try {
+					colour = Color.parseColor(c.getString(4));
+				}
+				catch( Exception e ) {
+					colour = Collection.getInstance(c.getLong(3), context).getColour();
+				}
+				result.add(new Row(c.getLong(0), c.getLong(1), colour, c.getString(2)));
+			}
+		}
+		catch( Exception e ) {
+			Log.w(TAG, "Unable to read widget data", e);
+		}
+		finally {
+			if ( c != null ) c.close();
+			dbHelper.close(db);
+		}
+		return result;
+	}
+}
@@ -22,10 +22,7 @@ import org.davical.acal.Constants;
 import org.davical.acal.R;
 import org.davical.acal.aCal;
 import org.davical.acal.acaltime.AcalDateTime;
-import org.davical.acal.database.cachemanager.CacheManager;
-import org.davical.acal.database.cachemanager.CacheObject;
-import org.davical.acal.database.cachemanager.requests.CRGetNextNObjects;
-import org.davical.acal.dataservice.Collection;
+import org.davical.acal.database.UpcomingEventsTable;
 
 public class ShowUpcomingWidgetProvider extends AppWidgetProvider {
 	
@@ -34,14 +31,15 @@ public class ShowUpcomingWidgetProvider extends AppWidgetProvider {
 	public static final int NUMBER_OF_EVENTS_TO_SHOW = 4;
 	public static final int NUM_DAYS_TO_LOOK_AHEAD = 7;
 	
-	public static final String TABLE = "show_upcoming_widget_data";
+	public static final String TABLE = UpcomingEventsTable.TABLE;
 	
-	public static final String FIELD_ID = "_id";
-	public static final String FIELD_RESOURCE_ID = "resource_id";
-	public static final String FIELD_COLOUR = "colour";
-	public static final String FIELD_DTSTART = "dtstart";
-	public static final String FIELD_DTEND = "dtend";
-	public static final String FIELD_SUMMARY = "summary";
+	public static final String FIELD_ID = UpcomingEventsTable.FIELD_ID;
+	public static final String FIELD_CACHE_ID = UpcomingEventsTable.FIELD_CACHE_ID;
+	public static final String FIELD_RESOURCE_ID = UpcomingEventsTable.FIELD_RESOURCE_ID;
+	public static final String FIELD_COLLECTION_ID = UpcomingEventsTable.FIELD_COLLECTION_ID;
+	public static final String FIELD_DTSTART = UpcomingEventsTable.FIELD_DTSTART;
+	public static final String FIELD_DTEND = UpcomingEventsTable.FIELD_DTEND;
+	public static final String FIELD_SUMMARY = UpcomingEventsTable.FIELD_SUMMARY;
 
 	public static final String SHOW_UPCOMING_WIDGET_IDS_KEY ="acalshowupcomingwidgetids";
 	
@@ -93,13 +91,13 @@ public class ShowUpcomingWidgetProvider extends AppWidgetProvider {
 			PendingIntent onClickIntent = PendingIntent.getActivity(context, 0, startApp, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 				
 			//Get Data
-			ArrayList<CacheObject> data = getCurrentData(context);
-			for (CacheObject object : data) {
-				if (Constants.LOG_VERBOSE) Log.println(Constants.LOGV, TAG, "Processing event "+object.getSummary());
+			ArrayList<ShowUpcomingWidgetData.Row> data = getCurrentData(context);
+			for (ShowUpcomingWidgetData.Row object : data) {
+				if (Constants.LOG_VERBOSE) Log.println(Constants.LOGV, TAG, "Processing event "+object.summary);
 
 				try {
-					AcalDateTime dtstart = object.getStartDateTime();
-					AcalDateTime dtend = object.getEndDateTime();
+					AcalDateTime dtstart = AcalDateTime.localTimeFromMillis(object.start, false);
+					AcalDateTime dtend = AcalDateTime.localTimeFromMillis(object.end, false);
 
 					//inflate row
 					RemoteViews row = new RemoteViews(context.getPackageName(), R.layout.show_upcoming_widget_base_row);
@@ -107,8 +105,8 @@ public class ShowUpcomingWidgetProvider extends AppWidgetProvider {
 					ShowUpcomingRowLayout rowLayout = (ShowUpcomingRowLayout)lf.inflate(R.layout.show_upcoming_widget_custom_row, null);
 
 					row.setImageViewBitmap(R.id.upcoming_row_image, rowLayout.setData(
-								Collection.getInstance(object.getCollectionId(), context).getColour(),
-								object.getSummary(),
+								object.colour,
+								object.summary,
 								getNiceDateTime(context,dtstart,dtend,prefer24Hour) ));
 
 					row.setOnClickPendingIntent(R.id.upcoming_row, onClickIntent);
@@ -175,17 +173,17 @@ public class ShowUpcomingWidgetProvider extends AppWidgetProvider {
 
 	
 	/**
-	 * Get the current next V events and return as an array of CacheObjects
+	 * Get the current next V events from the widget data snapshot.
 	 * Array Size is always <= NUMBER_OF_EVENTS_TO_SHOW, Returned array is in order of events
 	 * 
 	 * @param context
 	 * @return
 	 */
-	public synchronized static ArrayList<CacheObject> getCurrentData(Context context) {
+	public synchronized static ArrayList<ShowUpcomingWidgetData.Row> getCurrentData(Context context) {
 		if ( Constants.debugHeap ) AcalDebug.heapDebug(TAG, "Widget getCurrentData");
 		if (Constants.LOG_DEBUG) Log.println(Constants.LOGD, TAG, "Retrieving current data");
 		
-		return CacheManager.getInstance(context).sendRequest(CRGetNextNObjects.GetNextNEvents(NUMBER_OF_EVENTS_TO_SHOW)).result();
+		return ShowUpcomingWidgetData.getUpcoming(context, NUMBER_OF_EVENTS_TO_SHOW);
 	}
 
 	
@@ -115,6 +115,15 @@ public class CacheDataProvider extends ContentProvider {
         return (mAcalDB == null)?false:true;
     }
 
+    /**
+     * The database the cache is written through.  CacheTableManager uses it to keep the tables
+     * derived from event_cache in step, so that they are written by the same connection rather
+     * than by a second writer.
+     */
+    public SQLiteDatabase getDatabase() {
+        return mAcalDB;
+    }
+
 	/*
 	 * 	(non-Javadoc)
 	 * @see android.content.ContentProvider#delete(android.net.Uri, java.lang.String, java.lang.String[])
@@ -18,10 +18,14 @@
 
 package org.davical.acal.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.http.Header;
 import org.apache.http.message.BasicHeader;
@@ -42,6 +46,7 @@ import org.davical.acal.davacal.VTimezone;
 import org.davical.acal.providers.DavCollections;
 import org.davical.acal.providers.PathSets;
 import org.davical.acal.providers.Servers;
+import org.davical.acal.service.connector.AcalConnectionPool;
 import org.davical.acal.service.connector.AcalRequestor;
 import org.davical.acal.xml.DavNode;
 
@@ -108,9 +113,23 @@ public class HomeSetsUpdate extends ServiceJob {
 
 		collectionsToDelete = currentCollectionList();
 
-		boolean allHomeSetsProcessed = true;
+		// Send all of the PROPFINDs together, then process the responses in order.
+		requestor.applyFromServer(serverData);
+		ExecutorService executor = AcalConnectionPool.getRequestExecutor();
+		List<Future<HomeSetListing>> listings = new ArrayList<Future<HomeSetListing>>(homeSetPaths.length);
 		for (String homePath : homeSetPaths) {
-			if ( !updateCollectionsWithin(homePath) ) allHomeSetsProcessed = false;
+			listings.add(executor.submit(new HomeSetListing(requestor.copy(), homePath)));
+		}
+
+		boolean allHomeSetsProcessed = true;
+		for (Future<HomeSetListing> listing : listings) {
+			try {
+				if ( !updateCollectionsWithin(listing.get()) ) allHomeSetsProcessed = false;
+			}
+			catch (Exception e) {
+				Log.e(TAG,"Error waiting for home set listing: "+e.getMessage());
+				allHomeSetsProcessed = false;
+			}
 		}
 
 		// Anything we did not see on the server is still in collectionsToDelete, so
@@ -159,20 +178,49 @@ public class HomeSetsUpdate extends ServiceJob {
 	}
 
 
+	/**
+	 * The PROPFIND listing the collections within a home set, which is fetched on its own
+	 * copy of the requestor so that several home sets can be listed at once.
+	 */
+	private static class HomeSetListing implements Callable<HomeSetListing> {
+		final AcalRequestor requestor;
+		final String homeSet;
+		DavNode root = null;
+		Exception failure = null;
+
+		HomeSetListing( AcalRequestor requestor, String homeSet ) {
+			this.requestor = requestor;
+			this.homeSet = homeSet;
+		}
+
+		@Override
+		public HomeSetListing call() {
+			try {
+				root = requestor.doXmlRequest("PROPFIND", homeSet, pCalendarHeaders, pCalendarRequest);
+			}
+			catch (Exception e) {
+				failure = e;
+			}
+			return this;
+		}
+	}
+
+
 	/**
 	 * Update all of the collections we can find within a homeSet
-	 * @param homeSet
+	 * @param listing The response to a PROPFIND on the home set
 	 * @return true if the home set was listed successfully, so its absent
 	 *         collections may safely be treated as deleted on the server.
 	 */
-	private boolean updateCollectionsWithin( String homeSet ) {
+	private boolean updateCollectionsWithin( HomeSetListing listing ) {
+		String homeSet = listing.homeSet;
 
 		if (Constants.LOG_DEBUG) Log.d(TAG,"Updating collections within "+homeSet);
 
 		try {
-			requestor.applyFromServer(serverData);
-			DavNode root = requestor.doXmlRequest("PROPFIND", homeSet, pCalendarHeaders, pCalendarRequest);
-			if (requestor.getStatusCode() == 404) {
+			if ( listing.failure != null ) throw listing.failure;
+			DavNode root = listing.root;
+			if (listing.requestor.getStatusCode() == 404) {
 				Log.i(TAG, "PROPFIND got 404 on " + homeSet + " so a HomeSetDiscovery is being scheduled.");
 				ServiceJob sj = new HomeSetDiscovery(serverId);
 				context.addWorkerJob(sj);
@@ -184,6 +232,7 @@ public class HomeSetsUpdate extends ServiceJob {
 			}
 
 			// The home set itself is not one of the collections within it.
+			requestor.applyFromServer(serverData);
 			requestor.interpretUriString(homeSet);
 			String homeSetUrl = requestor.fullUrl();
 
@@ -21,9 +21,17 @@ package org.davical.acal.service;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.net.ssl.SSLException;
 
@@ -42,14 +50,17 @@ import android.util.Log;
 import org.davical.acal.Constants;
 import org.davical.acal.database.DMAction;
 import org.davical.acal.database.DMQueryBuilder;
+import org.davical.acal.database.DMQueryList;
 import org.davical.acal.database.TableManager.QUERY_ACTION;
 import org.davical.acal.database.resourcesmanager.ResourceManager;
 import org.davical.acal.database.resourcesmanager.ResourceManager.ResourceTableManager;
 import org.davical.acal.database.resourcesmanager.ResourceManager.WriteableResourceTableManager;
 import org.davical.acal.database.resourcesmanager.ResourceProcessingException;
 import org.davical.acal.database.resourcesmanager.requesttypes.BlockingResourceRequest;
+import org.davical.acal.davacal.VComponentMerge;
 import org.davical.acal.providers.DavCollections;
 import org.davical.acal.providers.Servers;
+import org.davical.acal.service.connector.AcalConnectionPool;
 import org.davical.acal.service.connector.AcalRequestor;
 import org.davical.acal.service.connector.ConnectionFailedException;
 import org.davical.acal.service.connector.SendRequestFailedException;
@@ -63,10 +74,12 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 	private final long timeToWait = 90000;
 	private aCalService acalService;
 
-	private AcalRequestor requestor;
-
 	private Set<Long> collectionsToSync = null;
 
+	// Rows and requestors are read once per run, rather than once per pending change.
+	private Map<Long,ContentValues> collectionRows = null;
+	private Map<Integer,AcalRequestor> serverRequestors = null;
+
 	private boolean updateSyncStatus = false;
 
 	private WriteableResourceTableManager processor;
@@ -96,7 +109,6 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 	@Override
 	public void process(WriteableResourceTableManager processor) throws ResourceProcessingException {
 		this.processor = processor;
-		this.requestor = new AcalRequestor();
 		this.cr = acalService.getContentResolver();
 
 		ArrayList<ContentValues> pendingChangesList = processor.getPendingResources();
@@ -114,13 +126,14 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 			Log.println(Constants.LOGI,TAG, "Starting sync of "+pendingChangesList.size()+" local changes");
 
 			collectionsToSync = new HashSet<Long>();
+			collectionRows = new HashMap<Long,ContentValues>();
+			serverRequestors = new HashMap<Integer,AcalRequestor>();
 
 			try {
 			    for( ContentValues collectionData : syncCollectionMetadataList ) {
 			        updateCollectionProperties(collectionData);
 			    }
-				for( ContentValues pendingChange :  pendingChangesList )
-					syncOneChange(pendingChange);
+				uploadPendingChanges(pendingChangesList);
 
 				if ( collectionsToSync.size() > 0 ) {
 					for( Long collectionId : collectionsToSync ) {
@@ -174,27 +187,128 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 
 
 
-	private void syncOneChange(ContentValues pending) throws SSLException {
+	/**
+	 * Get the collection row, reading it from the DB only the first time in this run.
+	 */
+	private ContentValues getCollectionRow( long collectionId ) {
+		if ( !collectionRows.containsKey(collectionId) )
+			collectionRows.put(collectionId, processor.getCollectionRow(collectionId));
+		return collectionRows.get(collectionId);
+	}
+
+
+	/**
+	 * Get a requestor set up for this server, reading the server row and decrypting the
+	 * password only the first time in this run.  Uploads should each use a copy of it.
+	 * @return The requestor, or null if there is no such server.
+	 */
+	private AcalRequestor getServerRequestor( int serverId ) {
+		if ( !serverRequestors.containsKey(serverId) ) {
+			AcalRequestor requestor = null;
+			ContentValues serverData = processor.getServerRow(serverId);
+			if ( serverData != null ) {
+				Servers.decryptPassword(processor.getContext(), serverData);
+				requestor = new AcalRequestor();
+				requestor.applyFromServer(serverData);
+			}
+			serverRequestors.put(serverId, requestor);
+		}
+		return serverRequestors.get(serverId);
+	}
+
+
+	/**
+	 * Send the pending changes to their servers.  Changes are grouped by server and each
+	 * group is uploaded in parallel, up to the limit of the shared request executor.  The
+	 * local DB updates for each group's successful uploads are then committed together.
+	 */
+	private void uploadPendingChanges( ArrayList<ContentValues> pendingChangesList ) {
+		Map<Integer,List<PendingUpload>> uploadsByServer = new LinkedHashMap<Integer,List<PendingUpload>>();
+		for( ContentValues pendingChange :  pendingChangesList ) {
+			PendingUpload upload = prepareUpload(pendingChange);
+			if ( upload == null ) continue;
+			List<PendingUpload> serverUploads = uploadsByServer.get(upload.serverId);
+			if ( serverUploads == null ) {
+				serverUploads = new ArrayList<PendingUpload>();
+				uploadsByServer.put(upload.serverId, serverUploads);
+			}
+			serverUploads.add(upload);
+		}
+
+		ExecutorService executor = AcalConnectionPool.getRequestExecutor();
+		for( Map.Entry<Integer,List<PendingUpload>> serverUploads : uploadsByServer.entrySet() ) {
+			long start = System.currentTimeMillis();
+			List<Future<PendingUpload>> results = new ArrayList<Future<PendingUpload>>(serverUploads.getValue().size());
+			for( PendingUpload upload : serverUploads.getValue() ) {
+				results.add(executor.submit(upload));
+			}
+
+			DMQueryList completed = processor.getNewQueryList();
+			List<Long> completedPendingIds = new ArrayList<Long>();
+			boolean interrupted = false;
+			for( Future<PendingUpload> result : results ) {
+				PendingUpload upload;
+				try {
+					// Once interrupted we only collect the uploads which have already finished
+					if ( interrupted && !result.isDone() ) {
+						result.cancel(true);
+						continue;
+					}
+					upload = result.get();
+				}
+				catch ( InterruptedException e ) {
+					Log.w(TAG,"Interrupted waiting for upload to complete.");
+					Thread.currentThread().interrupt();
+					interrupted = true;
+					result.cancel(true);
+					continue;
+				}
+				catch ( ExecutionException e ) {
+					Log.w(TAG,"Exception uploading change: "+e.getCause());
+					continue;
+				}
+				DMAction action = uploadCompleted(upload);
+				if ( action != null ) {
+					completed.addAction(action);
+					completedPendingIds.add(upload.pendingId);
+				}
+			}
+
+			if ( !completed.isEmpty() ) {
+				if ( DEBUG ) Log.println(Constants.LOGD,TAG,
+						"Applying "+completed.size()+" resource modifications to local database");
+				processor.syncToServer(completed, completedPendingIds);
+			}
+			Log.println(Constants.LOGI,TAG, "Uploaded "+completed.size()+" of "+results.size()
+						+" changes to server "+serverUploads.getKey()+" in "+(System.currentTimeMillis()-start)+"ms");
+			if ( interrupted ) return;
+		}
+	}
+
+
+	/**
+	 * Work out where and how a pending change should be sent to the server.
+	 * @return The upload, ready to run, or null if the pending change was invalid.
+	 */
+	private PendingUpload prepareUpload(ContentValues pending) {
 
 		long collectionId = pending.getAsLong(ResourceTableManager.PEND_COLLECTION_ID);
-		ContentValues collectionData = processor.getCollectionRow(collectionId);
+		ContentValues collectionData = getCollectionRow(collectionId);
 		if (collectionData == null) {
 			invalidPendingChange(pending.getAsInteger(ResourceTableManager.PENDING_ID),
 						"Error getting collection data from DB - deleting invalid pending change record." );
-			return;
+			return null;
 		}
 
 		int serverId = collectionData.getAsInteger(DavCollections.SERVER_ID);
-		ContentValues serverData = processor.getServerRow(serverId);
-		if (serverData == null) {
+		AcalRequestor serverRequestor = getServerRequestor(serverId);
+		if (serverRequestor == null) {
 			invalidPendingChange(pending.getAsInteger(ResourceTableManager.PENDING_ID),
 						"Error getting server data from DB - deleting invalid pending change record." );
 			Log.e(TAG, "Deleting invalid collection Record.");
 			processor.deleteInvalidCollectionRecord(collectionId);
-			return;
+			return null;
 		}
-		Servers.decryptPassword(processor.getContext(), serverData);
-		requestor.applyFromServer(serverData);
 
 		String collectionPath = collectionData.getAsString(DavCollections.COLLECTION_PATH);
 
@@ -255,7 +369,7 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 				builder.setAction(QUERY_ACTION.DELETE);
 			}
 			else {
-				if ( oldData != null && latestDbData != null && oldData.equals(latestDbData) ) {
+				if ( oldData != null && latestDbData != null && !oldData.equals(latestDbData) ) {
 					newData = mergeAsyncChanges( oldData, latestDbData, newData );
 				}
 				if ( DEBUG && Constants.LOG_DEBUG ) {
@@ -269,8 +383,6 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 			}
 		}
 
-		String path = collectionPath + resourcePath;
-
 		Header[] headers;
 		if ( builder.getAction() == QUERY_ACTION.DELETE )
             headers = new Header[] {
@@ -284,34 +396,48 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
                                     new BasicHeader("Prefer","return=representation")
                              };
 
-		InputStream in = null;
-		String method = (builder.getAction() == QUERY_ACTION.DELETE ? "DELETE" : "PUT");
+		PendingUpload upload = new PendingUpload();
+		upload.requestor = serverRequestor.copy();
+		upload.serverId = serverId;
+		upload.collectionId = collectionId;
+		upload.resourceId = resourceId;
+		upload.pendingId = pendingId;
+		upload.resourcePath = resourcePath;
+		upload.path = collectionPath + resourcePath;
+		upload.method = (builder.getAction() == QUERY_ACTION.DELETE ? "DELETE" : "PUT");
+		upload.headers = headers;
+		upload.contentType = contentHeader.getValue();
+		upload.newData = newData;
+		upload.oldData = oldData;
+		upload.builder = builder;
+		return upload;
+	}
 
-		try {
-			in = requestor.doRequest( method, path, headers, newData);
-		}
-		catch (ConnectionFailedException e) {
-			Log.w(TAG,"HTTP Connection failed: "+e.getMessage());
-			return;
-		}
-		catch (SendRequestFailedException e) {
-			Log.w(TAG,"HTTP Request failed: "+e.getMessage());
-			return;
+
+	/**
+	 * Deal with the server's response to an upload.  Changes the server would not accept
+	 * are discarded here, while the local DB update for a successful upload is returned
+	 * so that it can be committed along with the rest of the batch.
+	 * @return The action to apply to the local DB, or null if there is none.
+	 */
+	private DMAction uploadCompleted(PendingUpload upload) {
+		if ( upload.failure != null ) {
+			Log.w(TAG, upload.failure);
+			return null;
 		}
 
-        Log.println(Constants.LOGI,TAG, method+" got "+requestor.getStatusCode()+" response from "+requestor.fullUrl());
+		String method = upload.method;
+		String path = upload.path;
+		DMQueryBuilder builder = upload.builder;
+		String responseData = upload.responseData;
+
+        Log.println(Constants.LOGI,TAG, method+" got "+upload.status+" response from "+upload.requestor.fullUrl());
 
         // If we made it this far we should do a sync on this collection ASAP after we're done
-        collectionsToSync.add(collectionId);
-
-		int status = requestor.getStatusCode();
-        String responseData = null;
-        boolean useResponseData = false;
-        if ( builder.getAction() != QUERY_ACTION.DELETE ) try {
-            responseData = AcalRequestor.convertStreamToString(in);
-            useResponseData = contentHeader.getValue().equals(getContentType(responseData));
-        }
-        catch ( IOException e ) { }
+        collectionsToSync.add(upload.collectionId);
+
+		int status = upload.status;
+        boolean useResponseData = ( responseData != null && upload.contentType.equals(getContentType(responseData)) );
 
 		if (DEBUG) Log.println(Constants.LOGD,TAG, "Response "+status+" for "+method+" "+path);
 		switch (status) {
@@ -319,39 +445,27 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 			case 204: // Status No Content (normal for DELETE).
 			case 200: // Status OK. (normal for UPDATE)
 				ContentValues resourceData = new ContentValues();
-				resourceData.put(ResourceTableManager.RESOURCE_ID, resourceId);
-				resourceData.put(ResourceTableManager.COLLECTION_ID, collectionId);
-				resourceData.put(ResourceTableManager.RESOURCE_NAME, resourcePath);
-				resourceData.put(ResourceTableManager.RESOURCE_DATA, newData);
+				resourceData.put(ResourceTableManager.RESOURCE_ID, upload.resourceId);
+				resourceData.put(ResourceTableManager.COLLECTION_ID, upload.collectionId);
+				resourceData.put(ResourceTableManager.RESOURCE_NAME, upload.resourcePath);
+				resourceData.put(ResourceTableManager.RESOURCE_DATA, upload.newData);
 				resourceData.put(ResourceTableManager.NEEDS_SYNC, 1);
 				resourceData.put(ResourceTableManager.ETAG, "unknown etag after PUT before sync");
 
-                for (Header hdr : requestor.getResponseHeaders()) {
+                for (Header hdr : upload.responseHeaders) {
 					if (hdr.getName().equalsIgnoreCase("ETag")) {
 						resourceData.put(ResourceTableManager.ETAG, hdr.getValue());
 						resourceData.put(ResourceTableManager.NEEDS_SYNC, 0);
 						break;
 					}
 				}
-                if ( responseData != null && useResponseData ) {
+                if ( useResponseData ) {
                     resourceData.put(ResourceTableManager.RESOURCE_DATA, responseData);
                 }
 
-				if ( DEBUG ) Log.println(Constants.LOGD,TAG,
-						"Applying resource modification to local database");
 				builder.setValues(resourceData);
-				builder.setWhereClause(ResourceTableManager.RESOURCE_ID + " = "+resourceId);
-
-				DMAction action = builder.build();
-
-				try {
-					processor.syncToServer(action, resourceId, pendingId);
-				}
-				catch (Exception e) {
-					Log.w(TAG, action.toString()+": Exception applying resource modification: " + e.getMessage());
-					Log.println(Constants.LOGD,TAG, Log.getStackTraceString(e));
-				}
-				break;
+				builder.setWhereClause(ResourceTableManager.RESOURCE_ID + " = "+upload.resourceId);
+				return builder.build();
 
 			case 412: // Server won't accept it
 			case 403: // Server won't accept it
@@ -360,27 +474,139 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
             case 409: // conflict with If-Match
 				Log.w(TAG, builder.getAction().toString()+": Status " + status + " for " +method+" "+ path + " - giving up on change.");
                 Log.i(TAG,"Full server response was:\n"+responseData);
-				processor.deletePendingChange(pendingId);
+				processor.deletePendingChange(upload.pendingId);
 				break;
 
 			default: // Unknown code
 				Log.w(TAG, builder.getAction().toString()+": Status " + status + " for " +method+" "+ path);
 				Log.i(TAG,"Full server response was:\n"+responseData);
 				if ( status < 500 ) {
-				    processor.deletePendingChange(pendingId);
+				    processor.deletePendingChange(upload.pendingId);
 				}
 		}
+		return null;
 	}
 
 
-	private String mergeAsyncChanges(String oldData, String latestDbData, String newData) {
+	/**
+	 * A single PUT or DELETE of a pending change, run on its own copy of the server's
+	 * requestor so that several can be in flight at once.
+	 */
+	private static class PendingUpload implements Callable<PendingUpload> {
+		AcalRequestor requestor;
+		int serverId;
+		long collectionId;
+		long resourceId;
+		long pendingId;
+		String resourcePath;
+		String path;
+		String method;
+		Header[] headers;
+		String contentType;
+		String newData;
+		String oldData;
+		DMQueryBuilder builder;
+
+		// Results
+		int status = -1;
+		Header[] responseHeaders = null;
+		String responseData = null;
+		String failure = null;
+
+		@Override
+		public PendingUpload call() {
+			InputStream in;
+			try {
+				in = requestor.doRequest( method, path, headers, newData);
+			}
+			catch (ConnectionFailedException e) {
+				failure = "HTTP Connection failed: "+e.getMessage();
+				return this;
+			}
+			catch (SendRequestFailedException e) {
+				failure = "HTTP Request failed: "+e.getMessage();
+				return this;
+			}
+			catch (SSLException e) {
+				failure = "SSL failure on "+method+" "+path+": "+e.getMessage();
+				return this;
+			}
+			status = requestor.getStatusCode();
+			responseHeaders = requestor.getResponseHeaders();
+	        if ( !"DELETE".equals(method) ) try {
+	            responseData = AcalRequestor.convertStreamToString(in);
+	        }
+	        catch ( IOException e ) { }
+
+	        if ( status == 412 && "PUT".equals(method) && oldData != null ) {
+	        	try {
+	        		retryWithMerge();
+	        	}
+	        	catch ( Exception e ) {
+	        		Log.w(TAG, "Failed to merge with server copy of "+path+": "+e.getMessage());
+	        	}
+	        }
+			return this;
+		}
+
 		/**
-		 * @todo Around here is where we should handle the case where latestDbData != oldData. We
-		 * need to parse out both objects and work out what the differences are between oldData
-		 * and newData, and see if we can apply them to latestDbData without them overwriting
-		 * differences between oldData and latestDbData...
+		 * The resource changed on the server since we last synchronised it.  Rather than
+		 * throwing away the local edit, fetch the server's copy, merge our changes into
+		 * it and try once more with a PUT conditional on the ETag we just fetched.
 		 */
-		return newData;
+		private void retryWithMerge() throws Exception {
+			InputStream in = requestor.doRequest("GET", path, null, null);
+			if ( requestor.getStatusCode() != 200 ) return;
+
+			String serverETag = null;
+			for( Header hdr : requestor.getResponseHeaders() ) {
+				if ( hdr.getName().equalsIgnoreCase("ETag") ) {
+					serverETag = hdr.getValue();
+					break;
+				}
+			}
+			if ( serverETag == null ) return;
+
+			String merged = VComponentMerge.merge(oldData, AcalRequestor.convertStreamToString(in), newData);
+			if ( merged == null ) {
+				Log.println(Constants.LOGI, TAG, "Local changes to "+path+" conflict with changes on the server.");
+				return;
+			}
+
+			Header[] retryHeaders = new Header[headers.length];
+			for( int i=0; i < headers.length; i++ ) {
+				if ( headers[i] != null && headers[i].getName().equalsIgnoreCase("If-Match") )
+					retryHeaders[i] = new BasicHeader("If-Match", serverETag);
+				else
+					retryHeaders[i] = headers[i];
+			}
+
+			if ( DEBUG ) Log.println(Constants.LOGD, TAG, "Retrying PUT of "+path+" merged with server changes.");
+			in = requestor.doRequest(method, path, retryHeaders, merged);
+			newData = merged;
+			status = requestor.getStatusCode();
+			responseHeaders = requestor.getResponseHeaders();
+			responseData = null;
+			try {
+				responseData = AcalRequestor.convertStreamToString(in);
+			}
+			catch ( IOException e ) { }
+		}
+	}
+
+
+	/**
+	 * The resource was changed by a sync after this change was made locally, so merge the
+	 * local changes into the latest copy.  Where the two sets of changes conflict we keep
+	 * the local version, as we always have.
+	 */
+	private String mergeAsyncChanges(String oldData, String latestDbData, String newData) {
+		String merged = VComponentMerge.merge(oldData, latestDbData, newData);
+		if ( merged == null ) {
+			Log.println(Constants.LOGI, TAG, "Local changes conflict with changes synchronised from the server: local version wins.");
+			return newData;
+		}
+		return merged;
 	}
 
 
@@ -444,10 +670,12 @@ public class SyncChangesToServer extends ServiceJob implements BlockingResourceR
 	    }
 		String proppatchRequest = String.format(baseProppatch, settings.toString() );
 
+		AcalRequestor requestor = getServerRequestor(collectionData.getAsInteger(DavCollections.SERVER_ID));
+		if ( requestor == null ) {
+			Log.e(TAG,"No server for collection "+collectionData.getAsLong(DavCollections._ID)+" - not sending proppatch.");
+			return;
+		}
 		try {
-			ContentValues serverData = processor.getServerRow(collectionData.getAsInteger(DavCollections.SERVER_ID));
-			Servers.decryptPassword(processor.getContext(), serverData);
-			requestor.applyFromServer(serverData);
 			requestor.doRequest("PROPPATCH", collectionData.getAsString(DavCollections.COLLECTION_PATH),
 						proppatchHeaders, proppatchRequest);
 
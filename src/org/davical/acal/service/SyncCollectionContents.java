@@ -21,9 +21,16 @@ package org.davical.acal.service;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 
 import javax.net.ssl.SSLException;
@@ -56,6 +63,7 @@ import org.davical.acal.database.resourcesmanager.requests.RRSyncQueryMap;
 import org.davical.acal.database.resourcesmanager.requests.RRUpdateCollection;
 import org.davical.acal.providers.DavCollections;
 import org.davical.acal.providers.Servers;
+import org.davical.acal.service.connector.AcalConnectionPool;
 import org.davical.acal.service.connector.AcalRequestor;
 import org.davical.acal.service.connector.ConnectionFailedException;
 import org.davical.acal.service.connector.SendRequestFailedException;
@@ -67,6 +75,23 @@ public class SyncCollectionContents extends ServiceJob {
 	private long collectionId;
 	
 	private static final int	nPerMultiget		= 30;
+
+	// How many multiget REPORTs we will have outstanding while processing earlier responses.
+	private static final int	multigetPipelineDepth	= 3;
+
+	// How many sync-report changes we commit per transaction, how many results we ask the
+	// server to limit each sync-report to, and how many such reports we will make in one run.
+	private static final int	nPerSyncCommit		= 100;
+	private static final int	syncReportLimit		= 1000;
+	private static final int	maxSyncReportPages	= 20;
+
+	private static final int	SYNC_PAGE_NEEDS_SYNC	= 1;
+	private static final int	SYNC_PAGE_TRUNCATED		= 2;
+	private static final int	SYNC_PAGE_FAILED		= -1;
+	private static final int	SYNC_PAGE_FALLBACK		= -2;
+
+	// Servers which have refused a sync-collection REPORT because of the DAV:limit we sent.
+	private static final Set<Integer> serversWithoutSyncLimit = Collections.synchronizedSet(new HashSet<Integer>());
 	
 	private long timeToWait = 0;
 	private boolean scheduleNextInstance = false;
@@ -178,7 +203,11 @@ public class SyncCollectionContents extends ServiceJob {
 			else 
 				syncMarkedResources( originalData );
 			
-			if ( (StaticHelpers.toBoolean(serverData.getAsInteger(Servers.HAS_SYNC),false) && !this.synchronisationForced
+			if ( Thread.currentThread().isInterrupted() ) {
+				// Stopped waiting for the server part way through, so leave the rest for the next run
+				syncWasCompleted = false;
+			}
+			else if ( (StaticHelpers.toBoolean(serverData.getAsInteger(Servers.HAS_SYNC),false) && !this.synchronisationForced
 										? doRegularSyncReport()
 										: doRegularSyncPropfind() ) ) {
 				originalData = 
@@ -279,6 +308,16 @@ public class SyncCollectionContents extends ServiceJob {
 	 *         </p>
 	 */
 	private DavNode doCalendarRequest( String method, int depth, String xml) {
+		return doCalendarRequest(requestor, method, depth, xml);
+	}
+
+	/**
+	 * <p>
+	 * Does a request against the collection path using the supplied requestor, which may
+	 * be a copy of ours being used from another thread.
+	 * </p>
+	 */
+	private DavNode doCalendarRequest( AcalRequestor requestor, String method, int depth, String xml) {
 		DavNode root;
 		try {
 			root = requestor.doXmlRequest(method, collectionPath,
@@ -299,206 +338,290 @@ public class SyncCollectionContents extends ServiceJob {
 
 	
 	/**
-		 * <p>
-		 * Do a sync run using a sync-collection REPORT against the collection, hopefully retrieving the -data
-		 * pseudo-properties at the same time, but in any case getting a list of changed resources to process.
-		 * Quick and light on the bandwidth, we hope.
-		 * </p>
-		 * 
-		 * @return true if we still need to syncMarkedResources() afterwards.
-		 */
-		private boolean doRegularSyncReport() {
-			if ( Constants.DISABLE_FEATURE_WEBDAV_SYNC ) {
-				Log.w("aCal","Sync report is disabled. Falling back to PROPFIND.");
-				return doRegularSyncPropfind();
-			}
-
-			DavNode root = doCalendarRequest("REPORT", 1,
-						"<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
-						+ "<sync-collection xmlns=\"DAV:\">"
-							+ (oldSyncToken == null ? "<sync-token/>" : "<sync-token>" + oldSyncToken + "</sync-token>")
-							+ "<sync-level>1</sync-level>"
-							+ "<prop>"
-								+ "<getetag/>"
-	//							+ "<getlastmodified/>"
-	//							+ "<" + dataType + "-data xmlns=\"" + nameSpace + "\"/>"
-							+ "</prop>"
-						+ "</sync-collection>"
-					);
-	
-			boolean needSyncAfterwards = false; 
-	
-			if (root == null) {
-				Log.i(TAG, "Unable to sync collection " + this.collectionPath + " (ID:" + this.collectionId
-							+ " - no data from server.");
-				syncWasCompleted = false;
-				Log.i("aCal","Sync report did not work.  Attempting sync via PROPFIND.");
-				syncToken = null;
-				updateCollectionToken(syncToken);
-				return doRegularSyncPropfind();
-			}
-	/**
-	 * SOGO's sync-response looks like this (as of draft-1):
-	 *
-	<?xml version="1.0" encoding="utf-8"?>
-	<D:multistatus xmlns:D="DAV:">
-	 <D:sync-response>
-	  <D:href>/SOGo/dav/sogo2/Calendar/personal/351dc1af-2aa3-4d14-9704-eadbcfecaf7e.ics</D:href>
-	  <D:status>HTTP/1.1 200 OK</D:status>
-	  <D:propstat>
-	   <D:prop>
-	   <D:getetag>&quot;gcs00000001&quot;</D:getetag></D:prop>
-	   <D:status>HTTP/1.1 200 OK</D:status>
-	  </D:propstat>
-	 </D:sync-response>
-	 <D:sync-token>1322100412</D:sync-token>
-	</D:multistatus>
-	 *
+	 * <p>
+	 * Do a sync run using a sync-collection REPORT against the collection, hopefully retrieving the -data
+	 * pseudo-properties at the same time, but in any case getting a list of changed resources to process.
+	 * Quick and light on the bandwidth, we hope.
+	 * </p>
+	 * <p>
+	 * We ask the server to limit the size of each response, and where it truncates one (with a 507 status
+	 * for the collection itself) we commit what we have, store the partial sync-token it gave us and carry
+	 * on from there.  Changes are committed in batches of nPerSyncCommit, so an interrupted sync of a
+	 * large collection resumes from the last token we stored rather than starting from scratch, and
+	 * skips over whatever it finds we already hold.
+	 * </p>
+	 * 
+	 * @return true if we still need to syncMarkedResources() afterwards.
 	 */
+	private boolean doRegularSyncReport() {
+		if ( Constants.DISABLE_FEATURE_WEBDAV_SYNC ) {
+			Log.w("aCal","Sync report is disabled. Falling back to PROPFIND.");
+			return doRegularSyncPropfind();
+		}
+
+		boolean needSyncAfterwards = false;
+		for( int page = 0; page < maxSyncReportPages; page++ ) {
+			int result = doSyncReportPage();
+			if ( result == SYNC_PAGE_FALLBACK ) return doRegularSyncPropfind();
+			if ( result == SYNC_PAGE_FAILED ) return needSyncAfterwards;
+			if ( (result & SYNC_PAGE_NEEDS_SYNC) != 0 ) needSyncAfterwards = true;
+			if ( (result & SYNC_PAGE_TRUNCATED) == 0 ) return needSyncAfterwards;
+
+			if ( Constants.LOG_DEBUG )
+				Log.println(Constants.LOGD,TAG,"Sync report was truncated by server - continuing from token '"+syncToken+"'");
+		}
+
+		// Enough for one run.  The token we stored means the next run carries on from here.
+		Log.i(TAG,"Sync of collection "+collectionId+" still incomplete after "+maxSyncReportPages+" reports.");
+		syncWasCompleted = false;
+		return needSyncAfterwards;
+	}
+
+
 	/**
-	 * Correct sync-response looks like this (as of draft-2 and later):
-	 *
-	<?xml version="1.0" encoding="utf-8" ?>
-	<multistatus xmlns="DAV:">
-	 <response>
-	  <href>/caldav.php/user1/home/DAYPARTY-77C6-4FB7-BDD3-6882E2F1BE74.ics</href>
-	  <propstat>
-	   <prop>
-	    <getetag>"165746adbab8bc0c8336a63cc5332ff2"</getetag>
-	    <getlastmodified>Dow, 01 Jan 2000 00:00:00 GMT</getlastmodified>
-	   </prop>
-	   <status>HTTP/1.1 200 OK</status>
-	  </propstat>
-	 </response>
-	 <sync-token>urn:,1322100412</sync-token>
-	</multistatus>
+	 * <p>
+	 * Request and process a single sync-collection REPORT response, starting from oldSyncToken.
+	 * </p>
 	 * 
+	 * @return SYNC_PAGE_FALLBACK or SYNC_PAGE_FAILED, otherwise a combination of SYNC_PAGE_NEEDS_SYNC
+	 * and SYNC_PAGE_TRUNCATED flags. 
 	 */
-			
-			//ArrayList<ResourceModification> changeList = new ArrayList<ResourceModification>(); 
-			DMQueryList queryList = new DMQueryList();
-	
-			if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
-				Log.println(Constants.LOGV,TAG, "Start processing response");
-			List<DavNode> responses = root.getNodesFromPath("multistatus/response");
-			if ( responses.isEmpty() ) {
-				if ( errorCounter == 0 ) {
-					responses = root.getNodesFromPath("error/valid-sync-token");
-					errorCounter++;
-					
-					if ( ! responses.isEmpty() ) {
-						Log.i("aCal","We sent an invalid sync-token.  Retrying without a sync-token.");
-						syncToken = null;
-						updateCollectionToken(syncToken);
-						return doRegularSyncPropfind();
-					}
-				}
-	
-				responses = root.getNodesFromPath("multistatus/sync-response");
+	private int doSyncReportPage() {
+		boolean useLimit = !serversWithoutSyncLimit.contains(serverId);
+		DavNode root = doCalendarRequest("REPORT", 1,
+					"<?xml version=\"1.0\" encoding=\"utf-8\" ?>"
+					+ "<sync-collection xmlns=\"DAV:\">"
+						+ (oldSyncToken == null ? "<sync-token/>" : "<sync-token>" + oldSyncToken + "</sync-token>")
+						+ "<sync-level>1</sync-level>"
+						+ (useLimit ? "<limit><nresults>" + syncReportLimit + "</nresults></limit>" : "")
+						+ "<prop>"
+							+ "<getetag/>"
+//							+ "<getlastmodified/>"
+//							+ "<" + dataType + "-data xmlns=\"" + nameSpace + "\"/>"
+						+ "</prop>"
+					+ "</sync-collection>"
+				);
+
+		if ( useLimit && requestor.getStatusCode() == 507 ) {
+			// RFC6578 3.7: the server can't honour our limit, so it has refused the whole request.
+			Log.i(TAG, "Server rejected DAV:limit on sync-collection REPORT. Retrying without it.");
+			serversWithoutSyncLimit.add(serverId);
+			return doSyncReportPage();
+		}
+
+		int result = 0;
+
+		if (root == null) {
+			Log.i(TAG, "Unable to sync collection " + this.collectionPath + " (ID:" + this.collectionId
+						+ " - no data from server.");
+			syncWasCompleted = false;
+			Log.i("aCal","Sync report did not work.  Attempting sync via PROPFIND.");
+			syncToken = null;
+			updateCollectionToken(syncToken);
+			return SYNC_PAGE_FALLBACK;
+		}
+/**
+ * SOGO's sync-response looks like this (as of draft-1):
+ *
+<?xml version="1.0" encoding="utf-8"?>
+<D:multistatus xmlns:D="DAV:">
+ <D:sync-response>
+  <D:href>/SOGo/dav/sogo2/Calendar/personal/351dc1af-2aa3-4d14-9704-eadbcfecaf7e.ics</D:href>
+  <D:status>HTTP/1.1 200 OK</D:status>
+  <D:propstat>
+   <D:prop>
+   <D:getetag>&quot;gcs00000001&quot;</D:getetag></D:prop>
+   <D:status>HTTP/1.1 200 OK</D:status>
+  </D:propstat>
+ </D:sync-response>
+ <D:sync-token>1322100412</D:sync-token>
+</D:multistatus>
+ *
+ */
+/**
+ * Correct sync-response looks like this (as of draft-2 and later):
+ *
+<?xml version="1.0" encoding="utf-8" ?>
+<multistatus xmlns="DAV:">
+ <response>
+  <href>/caldav.php/user1/home/DAYPARTY-77C6-4FB7-BDD3-6882E2F1BE74.ics</href>
+  <propstat>
+   <prop>
+    <getetag>"165746adbab8bc0c8336a63cc5332ff2"</getetag>
+    <getlastmodified>Dow, 01 Jan 2000 00:00:00 GMT</getlastmodified>
+   </prop>
+   <status>HTTP/1.1 200 OK</status>
+  </propstat>
+ </response>
+ <sync-token>urn:,1322100412</sync-token>
+</multistatus>
+ * 
+ * and where the server has truncated the results it includes a response for the collection itself:
+ *
+ <response>
+  <href>/caldav.php/user1/home/</href>
+  <status>HTTP/1.1 507 Insufficient Storage</status>
+ </response>
+ *
+ */
+
+		DMQueryList queryList = new DMQueryList();
+
+		if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
+			Log.println(Constants.LOGV,TAG, "Start processing response");
+		List<DavNode> responses = root.getNodesFromPath("multistatus/response");
+		if ( responses.isEmpty() ) {
+			if ( errorCounter == 0 ) {
+				responses = root.getNodesFromPath("error/valid-sync-token");
+				errorCounter++;
+				
 				if ( ! responses.isEmpty() ) {
-					Log.e("aCal","CalDAV Server at "+requestor.getHostName()+" uses obsolete draft sync-response syntax. Falling back to inefficient PROPFIND.  Please upgrade your server.");
-	/*
-	 * We won't write it back to the server, because at least we can use this much as an indication that
-	 * something has changed, so we'll just fall through and do a PROPFIND sync.
-	 * 
-					serverData.put(Servers.HAS_SYNC,0);
-					Uri provider = ContentUris.withAppendedId(Servers.CONTENT_URI, serverData.getAsInteger(Servers._ID));
-					cr.update(provider, Servers.cloneValidColumns(serverData), null, null);
-	 */
-					return doRegularSyncPropfind();
+					Log.i("aCal","We sent an invalid sync-token.  Retrying without a sync-token.");
+					syncToken = null;
+					updateCollectionToken(syncToken);
+					return SYNC_PAGE_FALLBACK;
 				}
-				responses = root.getNodesFromPath("multistatus/sync-token");
-				if ( responses.isEmpty() ) {
-					Log.i("aCal","No sync-token in sync-collection response. Falling back to PROPFIND.");
-					updateCollectionToken(null);
-					return doRegularSyncPropfind();
+			}
+
+			responses = root.getNodesFromPath("multistatus/sync-response");
+			if ( ! responses.isEmpty() ) {
+				Log.e("aCal","CalDAV Server at "+requestor.getHostName()+" uses obsolete draft sync-response syntax. Falling back to inefficient PROPFIND.  Please upgrade your server.");
+/*
+ * We won't write it back to the server, because at least we can use this much as an indication that
+ * something has changed, so we'll just fall through and do a PROPFIND sync.
+ * 
+				serverData.put(Servers.HAS_SYNC,0);
+				Uri provider = ContentUris.withAppendedId(Servers.CONTENT_URI, serverData.getAsInteger(Servers._ID));
+				cr.update(provider, Servers.cloneValidColumns(serverData), null, null);
+ */
+				return SYNC_PAGE_FALLBACK;
+			}
+			responses = root.getNodesFromPath("multistatus/sync-token");
+			if ( responses.isEmpty() ) {
+				Log.i("aCal","No sync-token in sync-collection response. Falling back to PROPFIND.");
+				updateCollectionToken(null);
+				return SYNC_PAGE_FALLBACK;
+			}
+			
+		}
+		else {
+
+			for (DavNode response : responses) {
+				String responseHref = response.segmentFromFirstHref("href");
+				List<DavNode> aNode = response.getNodesFromPath("status");
+
+				if ( !aNode.isEmpty() && aNode.get(0).getText().contains(" 507 ") ) {
+					// The server truncated the results at this point
+					result |= SYNC_PAGE_TRUNCATED;
+					root.removeSubTree(response);
+					continue;
 				}
+
+				if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
+					Log.println(Constants.LOGV,TAG, "Processing response for "+responseHref);
+				DMQueryBuilder builder = new DMQueryBuilder();
+				builder.setAction(QUERY_ACTION.UPDATE);
 				
-			}
-			else {
-	
-				for (DavNode response : responses) {
-					String responseHref = response.segmentFromFirstHref("href");
-					if (Constants.LOG_VERBOSE && Constants.debugSyncCollectionContents )
-						Log.println(Constants.LOGV,TAG, "Processing response for "+responseHref);
-					//WriteActions action = WriteActions.UPDATE;
-					DMQueryBuilder builder = new DMQueryBuilder();
-					builder.setAction(QUERY_ACTION.UPDATE);
-					
-					ContentValues cv = 
-						ResourceManager.getInstance(context).sendBlockingRequest(
-								new RRGetResourceInCollection(collectionId,responseHref)).result();
+				ContentValues cv = 
+					ResourceManager.getInstance(context).sendBlockingRequest(
+							new RRGetResourceInCollection(collectionId,responseHref)).result();
+
+				if ( cv == null ) {
+					cv = new ContentValues();
+					cv.put(ResourceTableManager.COLLECTION_ID, collectionId);
+					cv.put(ResourceTableManager.RESOURCE_NAME, responseHref);
+					cv.put(ResourceTableManager.NEEDS_SYNC, 1 );
+					builder.setAction(QUERY_ACTION.INSERT);
+				} else {
+					builder.setWhereClause(ResourceTableManager.RESOURCE_ID+" = ?");
+					builder.setwhereArgs(new String[] {cv.getAsString(ResourceTableManager.RESOURCE_ID)});
+				}
+				
+				if ( aNode.isEmpty()
+							|| aNode.get(0).getText().equalsIgnoreCase("HTTP/1.1 201 Created")
+							|| aNode.get(0).getText().equalsIgnoreCase("HTTP/1.1 200 OK") ) {
 	
-					if ( cv == null ) {
-						cv = new ContentValues();
-						cv.put(ResourceTableManager.COLLECTION_ID, collectionId);
-						cv.put(ResourceTableManager.RESOURCE_NAME, responseHref);
-						cv.put(ResourceTableManager.NEEDS_SYNC, 1 );
-						//action = WriteActions.INSERT;
-						builder.setAction(QUERY_ACTION.INSERT);
-					} else {
-						builder.setWhereClause(ResourceTableManager.RESOURCE_ID+" = ?");
-						builder.setwhereArgs(new String[] {cv.getAsString(ResourceTableManager.RESOURCE_ID)});
-					}
-					
-					List<DavNode> aNode = response.getNodesFromPath("status");
-					if ( aNode.isEmpty()
-								|| aNode.get(0).getText().equalsIgnoreCase("HTTP/1.1 201 Created")
-								|| aNode.get(0).getText().equalsIgnoreCase("HTTP/1.1 200 OK") ) {
-		
-						if ( Constants.LOG_DEBUG )
-							Log.println(Constants.LOGD,TAG,"Updating node "+responseHref+" with "+builder.getAction().toString() );
-						// We are dealing with an update or insert
-						if ( !parseResponseNode(response, cv, false) ) continue;
-						if ( cv.getAsInteger(ResourceTableManager.NEEDS_SYNC) == 1 ) needSyncAfterwards = true; 
-		
-					}
-					//else if ( action == WriteActions.INSERT ) {
-					else if ( builder.getAction()  == QUERY_ACTION.INSERT ) {				
-						// It looked like an INSERT because it's not in our DB, but in fact
-						// the status message was not 200/201 so it's a DELETE that we're
-						// seeing reflected back at us.
-						Log.i(TAG,"Ignoring delete sync on node '"+responseHref+"' which is already deleted from our DB." );
+					if ( Constants.LOG_DEBUG )
+						Log.println(Constants.LOGD,TAG,"Updating node "+responseHref+" with "+builder.getAction().toString() );
+					// We are dealing with an update or insert
+					boolean alreadySynced = (builder.getAction() == QUERY_ACTION.UPDATE
+								&& Integer.valueOf(0).equals(cv.getAsInteger(ResourceTableManager.NEEDS_SYNC)));
+					if ( !parseResponseNode(response, cv, false) ) continue;
+					if ( cv.getAsInteger(ResourceTableManager.NEEDS_SYNC) == 1 ) result |= SYNC_PAGE_NEEDS_SYNC;
+					else if ( alreadySynced ) {
+						// Same etag as we already hold, typically because we are resuming
+						// an interrupted sync, so there is nothing to write.
+						root.removeSubTree(response);
 						continue;
 					}
-					else {
-						// This really *is* a DELETE, since the status could only
-						// have said so.  Or we're getting invalid status messages
-						// and their events all deserve to die anyway!
-						if ( Constants.LOG_DEBUG )
-							Log.println(Constants.LOGD,TAG,"Deleting node '"+responseHref+"'with status: "+aNode.get(0).getText() );
-						//action = WriteActions.DELETE;
-						builder.setAction(QUERY_ACTION.DELETE);
-					}
-					root.removeSubTree(response);
-		
-					//changeList.add( new ResourceModification(action, cv, null) );
-					builder.setValues(cv);
-					queryList.addAction(builder.build());
-					
+	
 				}
-			}
+				else if ( builder.getAction()  == QUERY_ACTION.INSERT ) {				
+					// It looked like an INSERT because it's not in our DB, but in fact
+					// the status message was not 200/201 so it's a DELETE that we're
+					// seeing reflected back at us.
+					Log.i(TAG,"Ignoring delete sync on node '"+responseHref+"' which is already deleted from our DB." );
+					continue;
+				}
+				else {
+					// This really *is* a DELETE, since the status could only
+					// have said so.  Or we're getting invalid status messages
+					// and their events all deserve to die anyway!
+					if ( Constants.LOG_DEBUG )
+						Log.println(Constants.LOGD,TAG,"Deleting node '"+responseHref+"'with status: "+aNode.get(0).getText() );
+					builder.setAction(QUERY_ACTION.DELETE);
+				}
+				root.removeSubTree(response);
 	
-			// Pull the syncToken we will update with.
-			syncToken = root.getFirstNodeText("multistatus/sync-token");
-			if ( Constants.LOG_DEBUG )
-				Log.println(Constants.LOGD,TAG,"Found sync token of '"+syncToken+"' in sync-report response." );
+				builder.setValues(cv);
+				queryList.addAction(builder.build());
 
-			//ResourceModification.commitChangeList(context, changeList, processor.getTableName(this));
-			RRBlockAndProcessQueryList changeRequest = new RRBlockAndProcessQueryList(queryList);
-			ResourceManager.getInstance(context).sendBlockingRequest(changeRequest);
-			if ( !changeRequest.wasSuccessful() ) {
-				// If we advance the sync token past changes we failed to apply, any
-				// deletions in this report would be lost forever.  Leave the old
-				// token in place so the next sync retries them.
-				Log.w(TAG, "Failed to commit sync-report changes for collection "+collectionId
-							+" - not advancing sync token.");
-				syncToken = null;
+				if ( queryList.size() >= nPerSyncCommit ) {
+					if ( !commitSyncReportChanges(queryList) ) return SYNC_PAGE_FAILED;
+					queryList = new DMQueryList();
+				}
+			}
+		}
+
+		if ( !queryList.isEmpty() && !commitSyncReportChanges(queryList) ) return SYNC_PAGE_FAILED;
+
+		// Pull the syncToken we will update with.
+		syncToken = root.getFirstNodeText("multistatus/sync-token");
+		if ( Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD,TAG,"Found sync token of '"+syncToken+"' in sync-report response." );
+
+		if ( (result & SYNC_PAGE_TRUNCATED) != 0 ) {
+			if ( syncToken == null || syncToken.equals(oldSyncToken) ) {
+				// We can't make any progress from here.
+				Log.w(TAG, "Truncated sync report for collection "+collectionId+" did not advance the sync token.");
 				syncWasCompleted = false;
+				return SYNC_PAGE_FAILED;
 			}
+			// Everything up to this token is committed, so it is our checkpoint from now on.
+			updateCollectionToken(syncToken);
+		}
+
+		return result;
+	}
+
 
-			return needSyncAfterwards;
+	/**
+	 * Commit a batch of changes from a sync report.  If the commit fails we must not advance the sync token past
+	 * the changes we failed to apply, or any deletions among them would be lost forever.
+	 * @return true if the changes were committed.
+	 */
+	private boolean commitSyncReportChanges(DMQueryList queryList) {
+		RRBlockAndProcessQueryList changeRequest = new RRBlockAndProcessQueryList(queryList);
+		ResourceManager.getInstance(context).sendBlockingRequest(changeRequest);
+		if ( !changeRequest.wasSuccessful() ) {
+			Log.w(TAG, "Failed to commit sync-report changes for collection "+collectionId
+						+" - not advancing sync token.");
+			syncToken = null;
+			syncWasCompleted = false;
+			return false;
 		}
+		return true;
+	}
 
 
 	/**
@@ -862,32 +985,38 @@ public class SyncCollectionContents extends ServiceJob {
 		}
 
 		String pathOnServer =  StaticHelpers.pathOnServer(collectionPath);
-		int limit;
-		StringBuilder hrefList; 
-		for (int hrefIndex = 0; hrefIndex < hrefs.length; hrefIndex += nPerMultiget) {
-			limit = nPerMultiget + hrefIndex;
-			if ( limit > hrefs.length ) limit = hrefs.length;
-			
-			hrefList = new StringBuilder();
-			for (int i = hrefIndex; i < limit; i++) {
-				try {
-					hrefList.append(String.format("<D:href>%s</D:href>\n", pathOnServer + hrefs[i].toString()));
-					if (Constants.LOG_DEBUG)
-						Log.w(TAG,"Fetching resource from: "+ pathOnServer + " " + hrefs[i].toString());
-				}
-				catch( Exception e) {
-					Log.e(TAG,"Error syncing resource.", e);
-				}
+
+		// The next few multigets are sent while we are still committing the results of
+		// earlier ones.  Each runs on its own copy of the requestor, and they share the
+		// same connection(s) to the server.
+		ExecutorService executor = AcalConnectionPool.getRequestExecutor();
+		LinkedList<Future<DavNode>> inFlight = new LinkedList<Future<DavNode>>();
+		int nextIndex = 0;
+		while ( nextIndex < hrefs.length || !inFlight.isEmpty() ) {
+			while ( nextIndex < hrefs.length && inFlight.size() < multigetPipelineDepth ) {
+				inFlight.add(executor.submit(multigetRequest(baseXml, pathOnServer, hrefs, nextIndex)));
+				nextIndex += nPerMultiget;
 			}
-		
-			if (Constants.LOG_DEBUG)
-				Log.println(Constants.LOGD,TAG, "Requesting " + multigetReportTag + " for " + nPerMultiget + " resources out of "+hrefs.length+"." );
 
-			DavNode root = doCalendarRequest( "REPORT", 1, String.format(baseXml,hrefList.toString()) );
+			DavNode root = null;
+			try {
+				root = inFlight.removeFirst().get();
+			}
+			catch ( InterruptedException e ) {
+				Log.i(TAG, "Interrupted while waiting for multiget response.");
+				Thread.currentThread().interrupt();
+				syncWasCompleted = false;
+				for( Future<DavNode> f : inFlight ) f.cancel(true);
+				return;
+			}
+			catch ( ExecutionException e ) {
+				Log.w(TAG, "Error in multiget request", e.getCause());
+			}
 
 			if (root == null) {
 				Log.w(TAG, "Unable to sync collection " + this.collectionPath + " (ID:" + this.collectionId
 							+ " - no data from server).");
+				for( Future<DavNode> f : inFlight ) f.cancel(true);
 				return;
 			}
 
@@ -932,7 +1061,6 @@ public class SyncCollectionContents extends ServiceJob {
 
 			//ResourceModification.commitChangeList(context, changeList, processor.getTableName(this));
 			ResourceManager.getInstance(context).sendBlockingRequest( new RRBlockAndProcessQueryList(queryList));
-			try { Thread.sleep(300); } catch ( InterruptedException e ) { }
 		}
 
 		for( String href : toBeRemoved ) {
@@ -946,6 +1074,40 @@ public class SyncCollectionContents extends ServiceJob {
 		return;
 	}
 	
+	/**
+	 * <p>
+	 * Build a task which will send one multiget REPORT for up to nPerMultiget of the hrefs,
+	 * starting at hrefIndex, on its own copy of our requestor.
+	 * </p>
+	 */
+	private Callable<DavNode> multigetRequest( final String baseXml, String pathOnServer, Object[] hrefs, int hrefIndex ) {
+		int limit = nPerMultiget + hrefIndex;
+		if ( limit > hrefs.length ) limit = hrefs.length;
+
+		final StringBuilder hrefList = new StringBuilder();
+		for (int i = hrefIndex; i < limit; i++) {
+			try {
+				hrefList.append(String.format("<D:href>%s</D:href>\n", pathOnServer + hrefs[i].toString()));
+				if (Constants.LOG_DEBUG)
+					Log.w(TAG,"Fetching resource from: "+ pathOnServer + " " + hrefs[i].toString());
+			}
+			catch( Exception e) {
+				Log.e(TAG,"Error syncing resource.", e);
+			}
+		}
+
+		if (Constants.LOG_DEBUG)
+			Log.println(Constants.LOGD,TAG, "Requesting " + multigetReportTag + " for " + (limit - hrefIndex) + " resources out of "+hrefs.length+"." );
+
+		final AcalRequestor batchRequestor = requestor.copy();
+		return new Callable<DavNode>() {
+			@Override
+			public DavNode call() {
+				return doCalendarRequest(batchRequestor, "REPORT", 1, String.format(baseXml,hrefList.toString()));
+			}
+		};
+	}
+
 	private void calculateNextSchedulingTime() {
 		// An exception here would propagate out of run() and kill the worker
 		// thread, so never dereference collectionData if something has cleared it.
@@ -30,6 +30,7 @@ import org.davical.acal.PrefNames;
 import org.davical.acal.R;
 import org.davical.acal.StaticHelpers;
 import org.davical.acal.acaltime.AcalDateTime;
+import org.davical.acal.davacal.TimeZoneCache;
 import org.davical.acal.davacal.VComponent;
 import org.davical.acal.providers.Timezones;
 import org.davical.acal.service.connector.AcalConnectionPool;
@@ -257,6 +258,7 @@ public class UpdateTimezones extends ServiceJob {
             }
 
             Log.println(Constants.LOGI, TAG, "Updated data for " + updatedZones.size() + " zones, added data for " + insertedZones.size() + " new zones, removed data for " + removed);
+            if (updatedZones.size() + insertedZones.size() + removed > 0) TimeZoneCache.invalidate();
         } catch (Exception e) {
             Log.e(TAG, Log.getStackTraceString(e));
         }
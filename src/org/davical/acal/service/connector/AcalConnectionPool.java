@@ -1,8 +1,19 @@
 package org.davical.acal.service.connector;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -11,14 +22,25 @@ import android.content.Context;
 import android.os.Build;
 import android.util.Log;
 
+import okhttp3.Call;
+import okhttp3.Connection;
 import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 
+import org.davical.acal.Constants;
 import org.davical.acal.service.aCalService;
 
 /**
  * Connection pool manager for HTTP requests using OkHttp.
  * Provides a shared OkHttpClient instance with custom SSL/TLS handling.
+ *
+ * All clients handed out share a single ConnectionPool and Dispatcher, so requests
+ * to the same server reuse one HTTP/2 connection where the server negotiates h2 via
+ * ALPN, falling back to pooled HTTP/1.1 keep-alive connections otherwise.  Clients
+ * with different timeouts are derived from the same base client rather than rebuilt,
+ * so changing a timeout no longer throws the pool away.
  */
 public class AcalConnectionPool {
 
@@ -28,13 +50,20 @@ public class AcalConnectionPool {
 	private static final int MAX_IDLE_CONNECTIONS = 5;
 	private static final int KEEP_ALIVE_DURATION_MINUTES = 5;
 
-	private static OkHttpClient httpClient = null;
+	/** Number of threads available for running DAV requests in parallel */
+	public static final int MAX_PARALLEL_REQUESTS = 4;
+
+	private static OkHttpClient baseClient = null;
+	private static final Map<Long,OkHttpClient> timeoutClients = new HashMap<Long,OkHttpClient>();
+	private static ExecutorService requestExecutor = null;
 	private static Context appContext = null;
 	private static String userAgent = null;
 
 	private static int socketTimeOut = 60000;
 	private static int connectionTimeOut = 30000;
 
+	private static final ConnectionMetrics metrics = new ConnectionMetrics();
+
 	/**
 	 * Initialize the connection pool with application context.
 	 * Should be called once during app initialization.
@@ -45,33 +74,72 @@ public class AcalConnectionPool {
 	}
 
 	/**
-	 * Get or create the shared OkHttpClient instance.
+	 * Get or create the shared OkHttpClient instance, using the timeouts most recently
+	 * set through setTimeOuts().
 	 * @return OkHttpClient configured with custom SSL and connection pooling
 	 */
 	public static synchronized OkHttpClient getHttpClient() {
-		if (httpClient == null) {
-			httpClient = createClient();
+		return getHttpClient(socketTimeOut, connectionTimeOut);
+	}
+
+	/**
+	 * Get a client with the given timeouts.  The client shares its connection pool and
+	 * dispatcher with every other client from this class, so connections to a server are
+	 * reused regardless of which timeouts a particular requestor asked for.
+	 * @param socketTimeOutMs Socket/read timeout in milliseconds
+	 * @param connectionTimeOutMs Connection timeout in milliseconds
+	 * @return OkHttpClient configured with custom SSL and connection pooling
+	 */
+	public static synchronized OkHttpClient getHttpClient(int socketTimeOutMs, int connectionTimeOutMs) {
+		if (baseClient == null) {
+			baseClient = createClient();
 		}
-		return httpClient;
+		Long key = (((long) socketTimeOutMs) << 32) | (connectionTimeOutMs & 0xffffffffL);
+		OkHttpClient client = timeoutClients.get(key);
+		if (client == null) {
+			client = baseClient.newBuilder()
+				.connectTimeout(connectionTimeOutMs, TimeUnit.MILLISECONDS)
+				.readTimeout(socketTimeOutMs, TimeUnit.MILLISECONDS)
+				.writeTimeout(socketTimeOutMs, TimeUnit.MILLISECONDS)
+				.build();
+			timeoutClients.put(key, client);
+		}
+		return client;
 	}
 
 	/**
-	 * Set the timeouts to use for subsequent requests, in milliseconds.
-	 * If timeouts change, the client will be rebuilt.
+	 * Set the default timeouts to use for subsequent requests, in milliseconds.
 	 * @param newSocketTimeOut Socket/read timeout in milliseconds
 	 * @param newConnectionTimeOut Connection timeout in milliseconds
 	 */
 	public static synchronized void setTimeOuts(int newSocketTimeOut, int newConnectionTimeOut) {
-		if (socketTimeOut != newSocketTimeOut || connectionTimeOut != newConnectionTimeOut) {
-			socketTimeOut = newSocketTimeOut;
-			connectionTimeOut = newConnectionTimeOut;
-			// Rebuild client with new timeouts
-			httpClient = createClient();
+		socketTimeOut = newSocketTimeOut;
+		connectionTimeOut = newConnectionTimeOut;
+	}
+
+	/**
+	 * Get the executor used to run DAV requests in parallel, for instance pipelined multiget
+	 * REPORTs or bulk PUT uploads.  Each task should use its own AcalRequestor (see
+	 * AcalRequestor.copy()) since a requestor holds the state of its most recent request.
+	 * @return A bounded ExecutorService shared by all request producers.
+	 */
+	public static synchronized ExecutorService getRequestExecutor() {
+		if (requestExecutor == null) {
+			requestExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_REQUESTS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "aCal DAV request " + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
 		}
+		return requestExecutor;
 	}
 
 	/**
-	 * Create a new OkHttpClient with the current configuration.
+	 * Create the base OkHttpClient which all other clients are derived from.
 	 */
 	private static OkHttpClient createClient() {
 		try {
@@ -91,7 +159,10 @@ public class AcalConnectionPool {
 					int port = session.getPeerPort();
 					return trustManager.verifyPin(hostname, port);
 				})
+				// HTTP/2 is only offered via ALPN on TLS connections; plain http stays on 1.1
+				.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
 				.connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+				.eventListenerFactory(call -> new ConnectionMetrics.CallListener(metrics))
 				.followRedirects(false) // Manual redirect handling in AcalRequestor
 				.followSslRedirects(false)
 				.build();
@@ -122,4 +193,115 @@ public class AcalConnectionPool {
 		return userAgent;
 	}
 
+	/**
+	 * Get the connection reuse and multiplexing counters gathered since the process started.
+	 * @return The live metrics object; its getters may be read from any thread.
+	 */
+	public static ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Log the current connection metrics, along with the state of the shared pool.
+	 */
+	public static synchronized void logMetrics() {
+		String poolState = "";
+		if (baseClient != null) {
+			ConnectionPool pool = baseClient.connectionPool();
+			poolState = String.format(", Pool: %d connections (%d idle), In flight: %d",
+						pool.connectionCount(), pool.idleConnectionCount(),
+						baseClient.dispatcher().runningCallsCount());
+		}
+		Log.println(Constants.LOGI, TAG, metrics.toString() + poolState);
+	}
+
+
+	/**
+	 * Counters for how calls are being served by the pool: how many needed a new connection,
+	 * how many reused one, which protocol they ran over and how many ran concurrently.
+	 */
+	public static class ConnectionMetrics {
+		private final AtomicLong calls = new AtomicLong();
+		private final AtomicLong failedCalls = new AtomicLong();
+		private final AtomicLong connectionsOpened = new AtomicLong();
+		private final AtomicLong connectionsReused = new AtomicLong();
+		private final AtomicLong http2Calls = new AtomicLong();
+		private final AtomicLong http1Calls = new AtomicLong();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger peakInFlight = new AtomicInteger();
+
+		public long getCalls() { return calls.get(); }
+		public long getFailedCalls() { return failedCalls.get(); }
+		public long getConnectionsOpened() { return connectionsOpened.get(); }
+		public long getConnectionsReused() { return connectionsReused.get(); }
+		public long getHttp2Calls() { return http2Calls.get(); }
+		public long getHttp1Calls() { return http1Calls.get(); }
+		public int getPeakInFlight() { return peakInFlight.get(); }
+
+		@Override
+		public String toString() {
+			long acquired = connectionsOpened.get() + connectionsReused.get();
+			return String.format("Calls: %d (%d failed), Connections opened: %d, reused: %d (%.0f%%),"
+						+ " HTTP/2: %d, HTTP/1.x: %d, Peak concurrent: %d",
+						calls.get(), failedCalls.get(), connectionsOpened.get(), connectionsReused.get(),
+						(acquired == 0 ? 0.0 : 100.0 * connectionsReused.get() / acquired),
+						http2Calls.get(), http1Calls.get(), peakInFlight.get());
+		}
+
+		/**
+		 * One of these is created per call, so it can tell whether the connection it was
+		 * given was freshly opened or taken from the pool.
+		 */
+		private static class CallListener extends EventListener {
+			private final ConnectionMetrics metrics;
+			private boolean connected = false;
+			private boolean finished = false;
+
+			CallListener(ConnectionMetrics metrics) {
+				this.metrics = metrics;
+			}
+
+			@Override
+			public void callStart(Call call) {
+				metrics.calls.incrementAndGet();
+				int now = metrics.inFlight.incrementAndGet();
+				int peak;
+				while ( now > (peak = metrics.peakInFlight.get()) ) {
+					if ( metrics.peakInFlight.compareAndSet(peak, now) ) break;
+				}
+			}
+
+			@Override
+			public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+				connected = true;
+			}
+
+			@Override
+			public void connectionAcquired(Call call, Connection connection) {
+				if ( connected ) metrics.connectionsOpened.incrementAndGet();
+				else metrics.connectionsReused.incrementAndGet();
+				connected = false;
+				if ( connection.protocol() == Protocol.HTTP_2 ) metrics.http2Calls.incrementAndGet();
+				else metrics.http1Calls.incrementAndGet();
+			}
+
+			@Override
+			public void callEnd(Call call) {
+				finish();
+			}
+
+			@Override
+			public void callFailed(Call call, IOException ioe) {
+				metrics.failedCalls.incrementAndGet();
+				finish();
+			}
+
+			private void finish() {
+				if ( finished ) return;
+				finished = true;
+				metrics.inFlight.decrementAndGet();
+			}
+		}
+	}
+
 }
@@ -20,6 +20,7 @@ package org.davical.acal.service.connector;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,8 +34,15 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
@@ -71,6 +79,15 @@ public class AcalRequestor {
 
 	private static final int	LONG_LINE_WRAP_FOR_DEBUG	= 500;
 
+	/** Request bodies smaller than this are never worth compressing */
+	private static final int	COMPRESS_REQUEST_THRESHOLD	= 2048;
+
+	/**
+	 * Whether each server (by protocol://host:port) has told us it will accept gzip
+	 * encoded request bodies, through an Accept-Encoding response header (RFC 7694).
+	 */
+	private static final ConcurrentHashMap<String,Boolean> serverAcceptsGzip = new ConcurrentHashMap<String,Boolean>();
+
 	private boolean initialised = false;
 
 	// Basic URI components
@@ -88,7 +105,7 @@ public class AcalRequestor {
 	private String opaque = null;
 	private String cnonce = null;
 	private String qop = null;
-	private int authNC = 0;
+	private AtomicInteger authNC = new AtomicInteger();
 	private String algorithm = null;
 
 	private String username = null;
@@ -106,6 +123,7 @@ public class AcalRequestor {
 	private Request lastRequest = null;
 	private Response lastResponse = null;
 	private String lastResponseBody = null;
+	private boolean lastRequestCompressed = false;
 
 	private boolean	debugThisRequest = false;
 
@@ -245,11 +263,43 @@ public class AcalRequestor {
 
 
 	private void initialise() {
-		AcalConnectionPool.setTimeOuts(socketTimeOut, connectionTimeOut);
-		httpClient = AcalConnectionPool.getHttpClient();
+		httpClient = AcalConnectionPool.getHttpClient(socketTimeOut, connectionTimeOut);
 		initialised = true;
 	}
 
+
+	/**
+	 * Construct a new AcalRequestor with the same server, path, timeouts and authentication
+	 * state as this one.  A requestor holds the status and headers of its most recent request
+	 * so it can only be used by one thread at a time, but copies may be used concurrently.
+	 * They share the underlying connection pool, so concurrent requests to the same server
+	 * will be multiplexed over one HTTP/2 connection where the server supports it.
+	 * @return
+	 */
+	public synchronized AcalRequestor copy() {
+		AcalRequestor result = new AcalRequestor();
+		result.hostName = hostName;
+		result.path = path;
+		result.protocol = protocol;
+		result.port = port;
+		result.method = method;
+		result.authRequired = authRequired;
+		result.authType = authType;
+		result.authRealm = authRealm;
+		result.nonce = nonce;
+		result.opaque = opaque;
+		result.qop = qop;
+		result.authNC = authNC;	// Shared, so a digest nonce count is never reused
+		result.algorithm = algorithm;
+		result.username = username;
+		result.password = password;
+		result.connectionTimeOut = connectionTimeOut;
+		result.socketTimeOut = socketTimeOut;
+		result.debugThisRequest = debugThisRequest;
+		if ( initialised ) result.initialise();
+		return result;
+	}
+
 	/**
 	 * Takes the current AcalRequestor values and applies them to the Server ContentValues
 	 * to be saved back in the database.  Used during the server discovery process.
@@ -455,7 +505,7 @@ public class AcalRequestor {
 		String A1 = md5( username + ":" + authRealm + ":" + password);
 		String A2 = md5( method + ":" + path );
 		cnonce = md5(AcalConnectionPool.getUserAgent());
-		String printNC = String.format("%08x", ++authNC);
+		String printNC = String.format("%08x", authNC.incrementAndGet());
 		String responseString = A1+":"+nonce+":"+printNC+":"+cnonce+":auth:"+A2;
 		if ( debugThisRequest )
 			Log.println(Constants.LOGV,TAG, "DigestDebugging: '"+responseString+"'" );
@@ -540,8 +590,7 @@ public class AcalRequestor {
 		socketTimeOut = newSocketTimeOut;
 		connectionTimeOut = newConnectionTimeOut;
 		if ( !initialised ) return;
-		AcalConnectionPool.setTimeOuts(socketTimeOut,connectionTimeOut);
-		httpClient = AcalConnectionPool.getHttpClient();
+		httpClient = AcalConnectionPool.getHttpClient(socketTimeOut,connectionTimeOut);
 	}
 
 
@@ -728,6 +777,81 @@ public class AcalRequestor {
 		return result.toArray(new Header[0]);
 	}
 
+	/**
+	 * We only gzip large REPORT and PUT bodies, and only for servers which have said they
+	 * will accept them.
+	 */
+	private boolean shouldCompressRequest( int length ) {
+		if ( length < COMPRESS_REQUEST_THRESHOLD ) return false;
+		if ( !"REPORT".equals(method) && !"PUT".equals(method) ) return false;
+		return Boolean.TRUE.equals(serverAcceptsGzip.get(protocolHostPort()));
+	}
+
+
+	/**
+	 * Remember whether the server will take gzip request bodies, if this response says.
+	 */
+	private void noteAcceptedEncodings( Response response ) {
+		String acceptEncoding = response.header("Accept-Encoding");
+		if ( acceptEncoding == null ) return;
+		serverAcceptsGzip.put(protocolHostPort(), acceptEncoding.toLowerCase(Locale.ENGLISH).contains("gzip"));
+	}
+
+
+	private static byte[] gzip( byte[] in ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(in.length / 4 + 64);
+		GZIPOutputStream zipper = new GZIPOutputStream(out, AcalConnectionPool.DEFAULT_BUFFER_SIZE);
+		zipper.write(in);
+		zipper.close();
+		return out.toByteArray();
+	}
+
+
+	/**
+	 * Since we ask for compressed responses ourselves OkHttp leaves the body alone, so
+	 * we need to undo any Content-Encoding the server applied.
+	 * @param raw The bytes as received
+	 * @param contentEncoding The Content-Encoding header of the response, or null
+	 * @return The decoded bytes
+	 * @throws IOException
+	 */
+	private static byte[] decodeBody( byte[] raw, String contentEncoding ) throws IOException {
+		if ( contentEncoding == null || raw.length == 0 ) return raw;
+		String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+		if ( encoding.equals("gzip") || encoding.equals("x-gzip") ) {
+			return readFully(new GZIPInputStream(new ByteArrayInputStream(raw), AcalConnectionPool.DEFAULT_BUFFER_SIZE), raw.length);
+		}
+		else if ( encoding.equals("deflate") ) {
+			// Should be zlib wrapped, but some servers send a raw deflate stream
+			try {
+				return readFully(new InflaterInputStream(new ByteArrayInputStream(raw)), raw.length);
+			}
+			catch ( IOException e ) {
+				return readFully(new InflaterInputStream(new ByteArrayInputStream(raw), new Inflater(true)), raw.length);
+			}
+		}
+		return raw;
+	}
+
+
+	private static byte[] readFully( InputStream in, int sizeHint ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint * 4);
+		byte[] buffer = new byte[AcalConnectionPool.DEFAULT_BUFFER_SIZE];
+		int n;
+		while ( (n = in.read(buffer)) != -1 ) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+
+	private static String compressionRatio( long original, long transferred ) {
+		if ( original <= 0 || original == transferred ) return "";
+		return String.format(" (%d on the wire, %.0f%%)", transferred, 100.0 * transferred / original);
+	}
+
+
 	/**
 	 * Marshall and send the request.
 	 * @param headers
@@ -742,17 +866,22 @@ public class AcalRequestor {
 									throws SendRequestFailedException, SSLException, AuthenticationFailure,
 									ConnectionFailedException {
 		long down = 0;
+		long downOnWire = 0;
 		long up = 0;
+		long upOnWire = 0;
 		long start = System.currentTimeMillis();
 
 		if ( !initialised ) throw new IllegalStateException("AcalRequestor has not been initialised!");
 		statusCode = -1;
+		lastRequestCompressed = false;
 
 		try {
 			// Build the request
 			Request.Builder requestBuilder = new Request.Builder()
 				.url(this.fullUrl())
-				.header("User-Agent", AcalConnectionPool.getUserAgent());
+				.header("User-Agent", AcalConnectionPool.getUserAgent())
+				// Setting this ourselves means we see the compressed size of the response
+				.header("Accept-Encoding", "gzip, deflate");
 
 			// Add custom headers
 			if ( headers != null ) {
@@ -775,8 +904,18 @@ public class AcalRequestor {
 			// Set method and body
 			RequestBody body = null;
 			if (entityString != null) {
-				body = RequestBody.create(entityString, MediaType.parse("text/xml; charset=utf-8"));
-				up = entityString.length();
+				byte[] entityBytes = entityString.getBytes("UTF-8");
+				up = entityBytes.length;
+				if ( shouldCompressRequest(entityBytes.length) ) {
+					byte[] compressed = gzip(entityBytes);
+					if ( compressed.length < entityBytes.length ) {
+						entityBytes = compressed;
+						lastRequestCompressed = true;
+						requestBuilder.header("Content-Encoding", "gzip");
+					}
+				}
+				upOnWire = entityBytes.length;
+				body = RequestBody.create(entityBytes, MediaType.parse("text/xml; charset=utf-8"));
 			}
 
 			// OkHttp requires explicit method setting
@@ -820,21 +959,28 @@ public class AcalRequestor {
 
 			this.responseHeaders = convertHeaders(response.headers());
 			this.statusCode = response.code();
+			noteAcceptedEncodings(response);
 
 			ResponseBody responseBody = response.body();
-			down = (responseBody == null ? 0 : responseBody.contentLength());
+			byte[] bodyBytes = null;
+			if (responseBody != null) {
+				// Read the response body for potential logging and return as stream
+				byte[] rawBytes = responseBody.bytes();
+				downOnWire = rawBytes.length;
+				bodyBytes = decodeBody(rawBytes, response.header("Content-Encoding"));
+				down = bodyBytes.length;
+			}
+			response.close();
 
 			long finish = System.currentTimeMillis();
 			double timeTaken = (finish-start)/1000.0;
 
 			if ( Constants.LOG_DEBUG || debugThisRequest )
-				Log.println(Constants.LOGD,TAG, "Response: "+statusCode+", Sent: "+up+", Received: "+down+", Took: "+timeTaken+" seconds");
-
-			if (responseBody != null) {
-				// Read the response body into a string for potential logging and return as stream
-				byte[] bodyBytes = responseBody.bytes();
-				response.close();
+				Log.println(Constants.LOGD,TAG, "Response: "+statusCode+" ("+response.protocol()+"), Sent: "+up
+							+ compressionRatio(up,upOnWire) + ", Received: "+down
+							+ compressionRatio(down,downOnWire) + ", Took: "+timeTaken+" seconds");
 
+			if (bodyBytes != null) {
 				lastResponseBody = new String(bodyBytes, "UTF-8");
 
 				if ( debugThisRequest ) {
@@ -924,6 +1070,13 @@ public class AcalRequestor {
     			Log.e(TAG,Log.getStackTraceString(e));
     		}
 
+    		if ( statusCode == 415 && lastRequestCompressed ) {
+    			// They said they would take gzip, but evidently not for this.
+    			Log.i(TAG, "Server at "+protocolHostPort()+" rejected a gzip request body - sending uncompressed.");
+    			serverAcceptsGzip.put(protocolHostPort(), false);
+    			continue;
+    		}
+
     		if ( statusCode == 401 ) {
     			// In this case we didn't send auth credentials the first time, so
     			// we need to try again after we interpret the auth request.
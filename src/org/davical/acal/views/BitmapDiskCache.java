@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.views;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.davical.acal.Constants;
+
+/**
+ * A directory of PNG files, one per key, which is kept under a size limit by deleting the
+ * least recently used files.  Reading a file counts as using it.
+ *
+ * The methods do file I/O, so they should not be called on the UI thread.
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class BitmapDiskCache {
+
+	private static final String TAG = "aCal BitmapDiskCache";
+	private static final String SUFFIX = ".png";
+
+	private final File dir;
+	private final long maxBytes;
+	private long totalBytes = -1;
+
+	/**
+	 * @param dir The directory to keep the files in, which will be created if needed
+	 * @param maxBytes How large the files may grow to in total
+	 */
+	public BitmapDiskCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+	}
+
+
+	/**
+	 * @return The bitmap stored under this key, or null if there isn't one.
+	 */
+	public synchronized Bitmap get(String key) {
+		File f = fileFor(key);
+		if ( !f.exists() ) return null;
+		Bitmap b = BitmapFactory.decodeFile(f.getPath());
+		if ( b == null ) {
+			// Probably written partially before we were killed
+			remove(f);
+			return null;
+		}
+		f.setLastModified(System.currentTimeMillis());
+		return b;
+	}
+
+
+	/**
+	 * Store a bitmap under this key, replacing any previous one, and then trim the cache back
+	 * under its size limit.
+	 */
+	public synchronized void put(String key, Bitmap bitmap) {
+		if ( !dir.isDirectory() && !dir.mkdirs() ) return;
+		File f = fileFor(key);
+		File tmp = new File(dir, f.getName() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			if ( !bitmap.compress(Bitmap.CompressFormat.PNG, 100, out) ) throw new IOException("Could not compress bitmap.");
+			out.close();
+			out = null;
+			if ( totalBytes >= 0 && f.exists() ) totalBytes -= f.length();
+			if ( !tmp.renameTo(f) ) throw new IOException("Could not rename "+tmp+" to "+f);
+			if ( totalBytes >= 0 ) totalBytes += f.length();
+		}
+		catch ( IOException e ) {
+			Log.w(TAG, "Unable to write "+key+" to disk cache: "+e.getMessage());
+			tmp.delete();
+			return;
+		}
+		finally {
+			if ( out != null ) try { out.close(); } catch ( IOException e ) { }
+		}
+		trim();
+	}
+
+
+	/**
+	 * Remove everything from the cache.
+	 */
+	public synchronized void clear() {
+		File[] files = dir.listFiles();
+		if ( files != null ) for ( File f : files ) f.delete();
+		totalBytes = 0;
+	}
+
+
+	private void trim() {
+		if ( totalBytes >= 0 && totalBytes <= maxBytes ) return;
+		File[] files = dir.listFiles();
+		if ( files == null ) return;
+		totalBytes = 0;
+		for ( File f : files ) totalBytes += f.length();
+		if ( totalBytes <= maxBytes ) return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long la = a.lastModified(), lb = b.lastModified();
+				return la < lb ? -1 : (la == lb ? 0 : 1);
+			}
+		});
+		int removed = 0;
+		for ( int i = 0; i < files.length && totalBytes > maxBytes; i++ ) {
+			remove(files[i]);
+			removed++;
+		}
+		if ( Constants.LOG_DEBUG )
+			Log.println(Constants.LOGD, TAG, "Trimmed "+removed+" files from "+dir+", "+(totalBytes/1024)+"k remain.");
+	}
+
+
+	private void remove(File f) {
+		long length = f.length();
+		if ( f.delete() && totalBytes >= 0 ) totalBytes -= length;
+	}
+
+
+	private File fileFor(String key) {
+		return new File(dir, key.replaceAll("[^A-Za-z0-9_.-]", "_") + SUFFIX);
+	}
+}
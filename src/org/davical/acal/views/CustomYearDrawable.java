@@ -29,6 +29,7 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.R;
 import org.davical.acal.acaltime.AcalDateTime;
 
@@ -46,6 +47,7 @@ public class CustomYearDrawable extends ImageView  {
 	private int startMonth;
 	private int startYear;
 	private MonthImageGenerator imageGenerator;
+	private final DrawTimer drawTimer = new DrawTimer(TAG, false);
 	
 	
 	
@@ -141,6 +143,7 @@ public class CustomYearDrawable extends ImageView  {
 	protected void onDraw(Canvas canvas) {
 		super.onDraw(canvas);
 		if (this.isInEditMode()) return;
+		drawTimer.start();
 		//draw background first
 		Drawable bg = (Drawable)ContextCompat.getDrawable(this.context, R.drawable.morphossbg);
 		bg.setBounds(0, 0, this.getRight(),this.getBottom());
@@ -160,6 +163,7 @@ public class CustomYearDrawable extends ImageView  {
 		
 		
 		if (childViews != null) childViews.draw(canvas,(int)drawY, NUM_COLS);
+		drawTimer.stop();
 	}
 	public AcalDateTime getClickedMonth(int x, int y) {
 		return this.childViews.getClickedMonth(x,y,(int)this.y, NUM_ROWS_ABOVE, NUM_COLS);
@@ -170,7 +174,7 @@ public class CustomYearDrawable extends ImageView  {
 		this.compWidth = this.getWidth()/NUM_COLS;
 		if (this.compHeight == 0 || this.compWidth == 0) return;
 		this.lastWidth = getWidth(); this.lastheight = getHeight();
-		imageGenerator = new MonthImageGenerator(compWidth,compHeight,this.getWidth(),this.context);
+		imageGenerator = new MonthImageGenerator(compWidth,compHeight,this.getWidth(),this.context,this);
 		childViews = new YearViewLinkedList();
 		int year = startYear;
 		int month = startMonth;
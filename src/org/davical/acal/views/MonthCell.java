@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2011 Morphoss Ltd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.davical.acal.views;
+
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.davical.acal.Constants;
+import org.davical.acal.acaltime.AcalDateTime;
+import org.davical.acal.database.cachemanager.CacheObject;
+import org.davical.acal.dataservice.Collection;
+
+/**
+ * <p>
+ * An immutable description of one day box in the month view: which day it is, whether it is in
+ * the displayed month, whether it is today, and the bars to draw for the events on that day.
+ * </p>
+ * <p>
+ * The event bars are worked out when the cell is built, which happens once per month on a
+ * background thread, so MonthDayBox has nothing more than some arithmetic to do when drawing.
+ * Bar positions are in seconds from the start of the day.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class MonthCell {
+
+	private final static String TAG = "aCal MonthCell";
+
+	// We always show at least 8am to 8pm, widening it to fit the day's events.
+	private static final int MIN_DISPLAY_START = 8 * AcalDateTime.SECONDS_IN_HOUR;
+	private static final int MIN_DISPLAY_FINISH = 20 * AcalDateTime.SECONDS_IN_HOUR;
+	private static final int DEFAULT_COLOUR = 0xff000000 - 0x77000000;
+
+	private final AcalDateTime date;
+	private final short year;
+	private final short yearDay;
+	private final short monthDay;
+	private final boolean inMonth;
+	private final boolean today;
+
+	private final int displayStart;
+	private final int displayFinish;
+	private final int[] markerStarts;
+	private final int[] markerEnds;
+	private final int[] markerColours;
+	private final boolean[] markerAllDay;
+
+	/**
+	 * @param date The day, in local time.  The cell keeps its own copy.
+	 * @param inMonth Whether the day is in the month being displayed
+	 * @param today Whether the day is today
+	 * @param events The events on this day, or null if we don't show them for this cell
+	 * @param context Used to look up the colour of each event's collection
+	 */
+	public MonthCell(AcalDateTime date, boolean inMonth, boolean today, List<CacheObject> events, Context context) {
+		this.date = date.clone().setDaySecond(0);
+		this.year = this.date.getYear();
+		this.yearDay = this.date.getYearDay();
+		this.monthDay = this.date.getMonthDay();
+		this.inMonth = inMonth;
+		this.today = today;
+
+		int n = (events == null ? 0 : events.size());
+		markerStarts = new int[n];
+		markerEnds = new int[n];
+		markerColours = new int[n];
+		markerAllDay = new boolean[n];
+
+		long dayEpoch = this.date.getEpoch();
+		int dayStart = MIN_DISPLAY_START;
+		int dayFinish = MIN_DISPLAY_FINISH;
+		for( int i = 0; i < n; i++ ) {
+			CacheObject event = events.get(i);
+			markerAllDay[i] = event.isAllDay();
+			if ( !markerAllDay[i] ) {
+				markerStarts[i] = (int) (event.getStartDateTime().getMillis()/1000 - dayEpoch);
+				markerEnds[i] = (int) (event.getEndDateTime().getMillis()/1000 - dayEpoch);
+				int eStart = (markerStarts[i] < 0 ? 0 : markerStarts[i]);
+				int eFinish = (markerEnds[i] > AcalDateTime.SECONDS_IN_DAY ? AcalDateTime.SECONDS_IN_DAY : markerEnds[i]);
+				if ( eStart < dayStart ) dayStart = eStart;
+				if ( eFinish > dayFinish ) dayFinish = eFinish;
+			}
+			markerColours[i] = DEFAULT_COLOUR;
+			try {
+				Collection collection = Collection.getInstance(event.getCollectionId(), context);
+				markerColours[i] = (collection.getColour()|0xff000000)-0x77000000;
+			}
+			catch( Exception ex ) {
+				Log.e(TAG,Log.getStackTraceString(ex));
+			}
+			if ( Constants.LOG_VERBOSE && Constants.debugMonthView )
+				Log.println(Constants.LOGV,TAG, String.format("%s: %d - %d: %s", this.date.fmtIcal(),
+							event.getStart(), event.getEnd(), event.getSummary()));
+		}
+		if ( dayFinish > AcalDateTime.SECONDS_IN_DAY ) dayFinish = AcalDateTime.SECONDS_IN_DAY;
+		this.displayStart = dayStart;
+		this.displayFinish = dayFinish;
+	}
+
+	/**
+	 * @return A copy of the date of this cell, which the caller is free to modify.
+	 */
+	public AcalDateTime getDate() {
+		return date.clone();
+	}
+
+	public short getYear() {
+		return year;
+	}
+
+	public short getYearDay() {
+		return yearDay;
+	}
+
+	public short getMonthDay() {
+		return monthDay;
+	}
+
+	public boolean isInMonth() {
+		return inMonth;
+	}
+
+	public boolean isToday() {
+		return today;
+	}
+
+	/**
+	 * @return Whether this cell is for the same day as the given date.
+	 */
+	public boolean isSameDay(AcalDateTime other) {
+		return other != null && other.getYearDay() == yearDay && other.getYear() == year;
+	}
+
+	/**
+	 * @return The number of event bars to draw in this cell.
+	 */
+	public int getMarkerCount() {
+		return markerStarts.length;
+	}
+
+	/**
+	 * @return The second of the day the bars should start from, which is 8am or earlier.
+	 */
+	public int getDisplayStart() {
+		return displayStart;
+	}
+
+	/**
+	 * @return The second of the day the bars should finish at, which is 8pm or later.
+	 */
+	public int getDisplayFinish() {
+		return displayFinish;
+	}
+
+	public boolean isMarkerAllDay(int i) {
+		return markerAllDay[i];
+	}
+
+	/**
+	 * @return The start of event i in seconds from the start of the day, which may be negative.
+	 */
+	public int getMarkerStart(int i) {
+		return markerStarts[i];
+	}
+
+	/**
+	 * @return The end of event i in seconds from the start of the day, which may be after midnight.
+	 */
+	public int getMarkerEnd(int i) {
+		return markerEnds[i];
+	}
+
+	public int getMarkerColour(int i) {
+		return markerColours[i];
+	}
+}
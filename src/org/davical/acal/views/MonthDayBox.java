@@ -19,8 +19,6 @@
 package org.davical.acal.views;
 import androidx.core.content.ContextCompat;
 
-import java.util.List;
-
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -29,22 +27,23 @@ import android.util.Log;
 import android.widget.TextView;
 
 import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.R;
-import org.davical.acal.acaltime.AcalDateTime;
-import org.davical.acal.database.cachemanager.CacheObject;
-import org.davical.acal.dataservice.Collection;
 
 public class MonthDayBox extends TextView {
 
 	private final static String TAG = "Acal MonthDayBox";
 
-	private List<CacheObject> events;
+	private MonthCell cell;
 	private boolean isToday = false;
 	private boolean isSelectedDay = false;
 	private Context context;
-	private AcalDateTime boxDate;
+	private final Paint p = new Paint();
 
 	private static int minBarHeight = -1;
+
+	// Shared by every box, since they are all drawn on the UI thread
+	private static final DrawTimer drawTimer = new DrawTimer(TAG, Constants.debugMonthView);
 	
 	public MonthDayBox(Context context) {
 		super(context);
@@ -62,8 +61,8 @@ public class MonthDayBox extends TextView {
 	
 	@Override
 	public void draw(Canvas arg0) {
+		drawTimer.start();
 		super.draw(arg0);
-		Paint p = new Paint();
 		p.setStyle(Paint.Style.FILL);
 		float width = getWidth();
 		float height = getHeight();
@@ -90,78 +89,58 @@ public class MonthDayBox extends TextView {
 			arg0.drawRect(0, height-y, width, height, p);
 		}
 
-		if (events != null && !events.isEmpty()) {
-			long dayEpoch = boxDate.setDaySecond(0).getEpoch(); 
-			//Get the range of hours for todays events (min = 9am -> 5pm)
-			int dayStart  = 8 * AcalDateTime.SECONDS_IN_HOUR;
-			int dayFinish = 20 * AcalDateTime.SECONDS_IN_HOUR;
-			int eStart, eFinish;
-			for (CacheObject e : events) {
-				if ( e.isAllDay() ) continue;
-				eStart = (int) (e.getStartDateTime().getMillis()/1000 - dayEpoch);
-				if ( eStart < 0 ) eStart = 0;
-				eFinish = (int) (e.getEndDateTime().getMillis()/1000 - dayEpoch);
-				if ( eFinish > AcalDateTime.SECONDS_IN_DAY ) eFinish = AcalDateTime.SECONDS_IN_DAY;
-				if (eStart < dayStart) dayStart = eStart;
-				if (eFinish > dayFinish) dayFinish = eFinish;
-			}
-			if ( dayFinish > AcalDateTime.SECONDS_IN_DAY ) dayFinish = AcalDateTime.SECONDS_IN_DAY;
+		int markers = (cell == null ? 0 : cell.getMarkerCount());
+		if ( markers > 0 ) {
+			//Bars are scaled to the range of hours for todays events (min = 8am -> 8pm)
+			int dayStart  = cell.getDisplayStart();
+			int dayFinish = cell.getDisplayFinish();
 			int displaySecs = dayFinish - dayStart;
+			int eStart, eFinish;
 			
 			int barWidth = (int) (width/5f);
 			int secsPerPixel = (int) ((displaySecs / height) + 1);
-			for (CacheObject event : events) {
-				if ( event.isAllDay() ) {
+			for (int i = 0; i < markers; i++) {
+				if ( cell.isMarkerAllDay(i) ) {
 					eStart = 0;
 					eFinish = dayFinish - dayStart;
 				}
 				else {
-					eStart = (int) (event.getStartDateTime().getMillis()/1000 - dayEpoch) - dayStart;
+					eStart = cell.getMarkerStart(i) - dayStart;
 					if ( eStart < 0 ) eStart = 0;
-					eFinish = (int) (event.getEndDateTime().getMillis()/1000 - dayEpoch) - dayStart;
+					eFinish = cell.getMarkerEnd(i) - dayStart;
 				}
 				if ( eFinish < (eStart + (secsPerPixel * minBarHeight)) )
 					eFinish = eStart + (minBarHeight * secsPerPixel);
 				//draw
-				Collection collection = Collection.getInstance(event.getCollectionId(), this.context);
-				try {
-					p.setColor((collection.getColour()|0xff000000)-0x77000000);
-				}
-				catch( Exception ex ) {
-					Log.e(TAG,Log.getStackTraceString(ex));
-				}
+				p.setColor(cell.getMarkerColour(i));
 				arg0.drawRect(x,(y+eStart/secsPerPixel), x+barWidth, y+(eFinish/secsPerPixel), p);
-				
-				if ( Constants.LOG_VERBOSE && Constants.debugMonthView )
-					Log.v(TAG, String.format("%d - %d: %s (%ds - %ds, %dspp, %dx,%dy, %dw,%dh, %d-%d)",
-								event.getStartDateTime().getMillis()/1000, event.getEndDateTime().getMillis()/1000,
-								"["+event.getStartDateTime().fmtIcal()+".."+event.getEndDateTime().fmtIcal()+"] "+event.getSummary(),
-								eStart, eFinish, secsPerPixel, x, y, barWidth, (int) height,
-								(int) y+(eStart/secsPerPixel), (int) y+(eFinish/secsPerPixel)));
 			}
 		}
 		else {
 			if ( Constants.LOG_VERBOSE && Constants.debugMonthView )
 				Log.v(TAG,"No events for day " + this.getText() );
 		}
+		drawTimer.stop();
 	}
 
-	public void setEvents(List<CacheObject> events) {
-		this.events = events;
-	}
-	
-	public void setToday() {
-		isToday = true;
-	}
-
-	public void setSelected() {
-		isSelectedDay = true;
+	/**
+	 * Show the given day in this box.  Boxes are recycled as the month changes, so this
+	 * replaces anything the box was showing before.
+	 * @param cell The day to show
+	 * @param selected Whether it is the currently selected day
+	 */
+	public void setCell(MonthCell cell, boolean selected) {
+		if ( this.cell != cell ) {
+			this.cell = cell;
+			setText(Integer.toString(cell.getMonthDay()));
+		}
+		isToday = cell.isToday();
+		isSelectedDay = selected;
+		invalidate();
 	}
 
-	public void setDate(AcalDateTime bDate ) {
-		boxDate = bDate;
-		setText(Integer.toString(boxDate.getMonthDay()));
+	public MonthCell getCell() {
+		return cell;
 	}
-
 	
 }
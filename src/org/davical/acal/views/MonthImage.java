@@ -35,6 +35,8 @@ public class MonthImage extends YearViewNode {
 	private Bitmap headerBMP;
 	private Bitmap dayHeadsBMP;
 	private Bitmap daySectionBMP;
+	private final int daySectionHeight;
+	private final MonthImageGenerator ig;
 
 	final private int myYear;
 	final private int myMonth;
@@ -47,6 +49,8 @@ public class MonthImage extends YearViewNode {
 		this.headerBMP = ig.getMonthHeader(month);
 		this.dayHeadsBMP = ig.getDayHeaders();
 		this.daySectionBMP = ig.getDaySection(year, month);
+		this.daySectionHeight = ig.getDaySectionHeight();
+		this.ig = ig;
 		Log.println(Constants.LOGD, TAG, "Created month image for "+year+"-"+month);
 	}
 	
@@ -56,12 +60,15 @@ public class MonthImage extends YearViewNode {
 		
 		canvas.drawBitmap(headerBMP, x, y, paint);
 		canvas.drawBitmap(dayHeadsBMP, x, y+headerBMP.getHeight(), paint);
-		canvas.drawBitmap(daySectionBMP, x, y+headerBMP.getHeight()+dayHeadsBMP.getHeight(), paint);
+		// The days are rendered in the background, so may not be here yet
+		if ( daySectionBMP == null ) daySectionBMP = ig.getDaySection(myYear, myMonth);
+		if ( daySectionBMP != null )
+			canvas.drawBitmap(daySectionBMP, x, y+headerBMP.getHeight()+dayHeadsBMP.getHeight(), paint);
 	}
 
 	public int getHeight() { return headerBMP.getHeight()
 			+dayHeadsBMP.getHeight()
-			+daySectionBMP.getHeight(); }
+			+daySectionHeight; }
 
 	public int getMonth() { return this.myMonth; }
 	public int getYear() { return this.myYear; }
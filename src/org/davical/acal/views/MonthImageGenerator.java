@@ -18,26 +18,77 @@
 
 package org.davical.acal.views;
 
+import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.os.Process;
 import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.MeasureSpec;
 import android.widget.TextView;
 
+import org.davical.acal.Constants;
+import org.davical.acal.PerformanceStats;
+import org.davical.acal.PrefNames;
 import org.davical.acal.R;
 import org.davical.acal.acaltime.AcalDateTime;
 
+/**
+ * Generates the pieces of the month thumbnails in the year view.
+ *
+ * The day section of each month is the expensive part, so it is rendered on a background
+ * thread and kept in a memory cache shared by every generator, backed by a cache on disk
+ * which survives the activity and the process.  Until a day section is ready getDaySection()
+ * returns null, and the owning view is invalidated when it arrives.
+ */
 public class MonthImageGenerator {
 
-	private HashMap<Integer,Bitmap> daySection = new HashMap<Integer,Bitmap>();
+	private static final String TAG = "aCal MonthImageGenerator";
+
+	private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+	// Months with the same shape have the same day section, so there are few distinct ones.
+	private static final LruCache<String,Bitmap> daySections = new LruCache<String,Bitmap>(
+				(int) Math.min(Runtime.getRuntime().maxMemory() / 32, 8 * 1024 * 1024)) {
+		@Override
+		protected int sizeOf(String key, Bitmap value) {
+			return value.getAllocationByteCount();
+		}
+	};
+	private static final Set<String> pendingSections = new HashSet<String>();
+	private static BitmapDiskCache diskCache = null;
+
+	// TextViews are not safe to draw from several threads at once, so there is a single renderer.
+	private static final ExecutorService renderer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "aCal year view render");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	private Bitmap[] days = new Bitmap[31];
 	private Bitmap shadowedDay;
 	private HashMap<Integer,Bitmap> yearHeaders = new HashMap<Integer,Bitmap>();
@@ -47,21 +98,40 @@ public class MonthImageGenerator {
 	private int height;
 	private int screenWidth;
 	private Context context;
+	private final View owner;
 	private int firstCol;
 	private int headerHeight;
 	private int dayHeaderHeight;
+	private final String themeKey;
+
+	// Only used on the render thread
+	private View renderAssets = null;
 	
 	private Bitmap titleBg = null;
 	private Bitmap monthHeaderBg = null;
 	
-	public MonthImageGenerator(int monthWidth, int height, int screenWidth, Context context) {
+	/**
+	 * @param owner The view to invalidate when a day section has been rendered in the background
+	 */
+	public MonthImageGenerator(int monthWidth, int height, int screenWidth, Context context, View owner) {
 		this.width = monthWidth;
 		this.height = height;
 		this.screenWidth = screenWidth;
 		this.context = context;
+		this.owner = owner;
 		titleBg = BitmapFactory.decodeResource(context.getResources(), R.drawable.titlebg);
 		monthHeaderBg = BitmapFactory.decodeResource(context.getResources(), R.drawable.monthdayheadingsbg);
 		this.getFirstDay(context);
+
+		Configuration config = context.getResources().getConfiguration();
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		this.themeKey = prefs.getString(PrefNames.appTheme, "pink")
+					+ "_" + (config.uiMode & Configuration.UI_MODE_NIGHT_MASK)
+					+ "_" + Float.floatToIntBits(config.fontScale);
+		synchronized( MonthImageGenerator.class ) {
+			if ( diskCache == null )
+				diskCache = new BitmapDiskCache(new File(context.getApplicationContext().getCacheDir(), "year_view"), MAX_DISK_BYTES);
+		}
 	}
 	
 	public Bitmap getYearHeader(int year) {
@@ -80,15 +150,55 @@ public class MonthImageGenerator {
 		return dayHeaders;
 	}
 	
+	/**
+	 * @return The height of the day section, which is known before it has been rendered.
+	 */
+	public int getDaySectionHeight() {
+		return 6*((this.height - this.headerHeight -this.dayHeaderHeight)/6);
+	}
+
+	/**
+	 * Get the bitmap of the days in a month.  getMonthHeader() and getDayHeaders() must have
+	 * been called first, since the space left for the days depends on them.
+	 * @return The bitmap, or null if it is being rendered in the background.
+	 */
 	public Bitmap getDaySection(int year, int month) {
-		int numDaysInMonth = AcalDateTime.monthDays(year, month);
-		int numDaysInPrevious = (month == 1 ? 31 : AcalDateTime.monthDays(year, month - 1));
+		final int numDaysInMonth = AcalDateTime.monthDays(year, month);
+		final int numDaysInPrevious = (month == 1 ? 31 : AcalDateTime.monthDays(year, month - 1));
 		AcalDateTime firstOfMonth = new AcalDateTime(year, month, 1, 0 , 0, 0, null);
-		int dayOfFirst = (firstOfMonth.getWeekDay()+this.firstCol)%7;
-		int hash = dayOfFirst+(numDaysInMonth*10) + (numDaysInPrevious * 1000);
-		if (daySection.containsKey(hash)) return daySection.get(hash);
-		generateDaySectionBitmap(year, month, dayOfFirst, numDaysInMonth, numDaysInPrevious, hash);
-		return daySection.get(hash);
+		final int dayOfFirst = (firstOfMonth.getWeekDay()+this.firstCol)%7;
+		final String key = "days_" + width + "x" + getDaySectionHeight() + "_" + firstCol + "_" + dayOfFirst
+					+ "_" + numDaysInMonth + "_" + numDaysInPrevious + "_" + themeKey;
+		Bitmap section = daySections.get(key);
+		if ( section != null ) return section;
+
+		synchronized( pendingSections ) {
+			if ( !pendingSections.add(key) ) return null;
+		}
+		renderer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Bitmap b = diskCache.get(key);
+					if ( b == null ) {
+						b = generateDaySectionBitmap(dayOfFirst, numDaysInMonth, numDaysInPrevious);
+						if ( b != null ) diskCache.put(key, b);
+					}
+					else if ( Constants.LOG_VERBOSE ) Log.println(Constants.LOGV, TAG, "Loaded "+key+" from disk");
+					if ( b != null ) daySections.put(key, b);
+				}
+				catch ( RuntimeException e ) {
+					Log.w(TAG, "Failed to render day section "+key, e);
+				}
+				finally {
+					synchronized( pendingSections ) {
+						pendingSections.remove(key);
+					}
+				}
+				if ( owner != null ) owner.postInvalidate();
+			}
+		});
+		return null;
 	}
 
 	private void generateYearHeader(int year) {
@@ -98,7 +208,7 @@ public class MonthImageGenerator {
 		title.setText(year+"");
 		title.measure(MeasureSpec.makeMeasureSpec(this.screenWidth, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(this.height, MeasureSpec.UNSPECIFIED));
 		title.layout(0, 0, screenWidth, title.getMeasuredHeight());
-		Bitmap returnedBitmap = Bitmap.createScaledBitmap(titleBg, screenWidth, title.getMeasuredHeight(), false);
+		Bitmap returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createScaledBitmap(titleBg, screenWidth, title.getMeasuredHeight(), false));
 		Canvas tempCanvas = new Canvas(returnedBitmap);
 		title.draw(tempCanvas);
 		this.yearHeaders.put(year, returnedBitmap);
@@ -111,7 +221,7 @@ public class MonthImageGenerator {
 		title.setText(AcalDateTime.getMonthName(month));
 		title.measure(MeasureSpec.makeMeasureSpec(this.width, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(this.height, MeasureSpec.UNSPECIFIED));
 		title.layout(0, 0, width, title.getMeasuredHeight());
-		Bitmap returnedBitmap = Bitmap.createScaledBitmap(titleBg, width, title.getMeasuredHeight(), false);
+		Bitmap returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createScaledBitmap(titleBg, width, title.getMeasuredHeight(), false));
 		Canvas tempCanvas = new Canvas(returnedBitmap);
 		title.draw(tempCanvas);
 		this.headerHeight = title.getMeasuredHeight();
@@ -145,12 +255,12 @@ public class MonthImageGenerator {
 		for (int i =0; i<7; i++) {
 			headerViews[i].measure(MeasureSpec.makeMeasureSpec((this.width/7), MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(this.height, MeasureSpec.UNSPECIFIED));
 			headerViews[i].layout(0, 0, width/7, headerViews[i].getMeasuredHeight());
-			headerBMP[i] = Bitmap.createScaledBitmap(monthHeaderBg, screenWidth, headerViews[i].getMeasuredHeight(), false);
+			headerBMP[i] = PerformanceStats.bitmapAllocated(TAG, Bitmap.createScaledBitmap(monthHeaderBg, screenWidth, headerViews[i].getMeasuredHeight(), false));
 			Canvas tempCanvas = new Canvas(headerBMP[i]);
 			headerViews[i].draw(tempCanvas);
 		}
 		this.dayHeaderHeight = headerViews[0].getHeight();
-		this.dayHeaders = Bitmap.createBitmap(width, headerViews[0].getMeasuredHeight(),Bitmap.Config.ARGB_8888);
+		this.dayHeaders = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap(width, headerViews[0].getMeasuredHeight(),Bitmap.Config.ARGB_8888));
 		Canvas canvas = new Canvas(this.dayHeaders);
 		for (int i = 0; i < 7; i++)
 			canvas.drawBitmap(headerBMP[i], ((this.width/7)*i), 0, new Paint());
@@ -158,17 +268,16 @@ public class MonthImageGenerator {
 	}
 
 	/**
-	 * Generate a bitmap of the days in this month.
+	 * Generate a bitmap of the days in a month.  Called on the render thread.
 	 * 
-	 * @param year The year for this month.
-	 * @param month The month for this month (1 to 12)
 	 * @param dowOfFirst The day of week of the first day of the month.
 	 * @param daysInMonth The number of days in the month.
 	 * @param daysInPrevious The number of days in the previous month.
 	 */
-	private void generateDaySectionBitmap(int year, int month, int dowOfFirst, int daysInMonth, int daysInPrevious, int hash) {
-		int myHeight = 6*((this.height - this.headerHeight -this.dayHeaderHeight)/6);
-		Bitmap myBitmap = Bitmap.createBitmap(width, myHeight,Bitmap.Config.ARGB_8888);
+	private Bitmap generateDaySectionBitmap(int dowOfFirst, int daysInMonth, int daysInPrevious) {
+		int myHeight = getDaySectionHeight();
+		if ( width < 7 || myHeight < 6 ) return null;
+		Bitmap myBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap(width, myHeight,Bitmap.Config.ARGB_8888));
 		Canvas c = new Canvas(myBitmap);
 		Paint p = new Paint();
 		
@@ -184,7 +293,7 @@ public class MonthImageGenerator {
 				currentDay++;
 			}
 		}
-		daySection.put(hash,myBitmap);
+		return myBitmap;
 	}
 
 	
@@ -202,25 +311,32 @@ public class MonthImageGenerator {
 	private void generateShadowedDay(int day) {
 		int wid = this.width/7;
 		int hi = (this.height - this.headerHeight -this.dayHeaderHeight)/6;
-		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View v = (View) inflater.inflate(R.layout.year_view_assets, null);
-		TextView dayView = ((TextView) v.findViewById(R.id.YVDayShadowed));
+		TextView dayView = ((TextView) getRenderAssets().findViewById(R.id.YVDayShadowed));
 		shadowedDay = genDay(dayView,"",wid,hi);
 		
 	}
 	private void generateDay(int day) {
 		int wid = this.width/7;
 		int hi = (this.height - this.headerHeight -this.dayHeaderHeight)/6;
-		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View v = (View) inflater.inflate(R.layout.year_view_assets, null);
-		TextView dayView = ((TextView) v.findViewById(R.id.YVDayBoxInMonth));
+		TextView dayView = ((TextView) getRenderAssets().findViewById(R.id.YVDayBoxInMonth));
 		days[day-1] = genDay(dayView,day+"",wid,hi);		
 	}
 	
+	/**
+	 * The day views are reused for every day we draw, rather than inflated for each one.
+	 */
+	private View getRenderAssets() {
+		if ( renderAssets == null ) {
+			LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			renderAssets = (View) inflater.inflate(R.layout.year_view_assets, null);
+		}
+		return renderAssets;
+	}
+
 	private Bitmap genDay(TextView dayView, String day, int wid, int hi) {
 		dayView.setText(day);
 		dayView.layout(0, 0, wid, hi);
-		Bitmap dayBMP = Bitmap.createBitmap(wid, hi,Bitmap.Config.ARGB_8888);
+		Bitmap dayBMP = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap(wid, hi,Bitmap.Config.ARGB_8888));
 		Canvas tempCanvas = new Canvas(dayBMP);
 		dayView.draw(tempCanvas);
 		return dayBMP;
@@ -0,0 +1,178 @@
+package org.davical.acal.weekview;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Lays out a set of intervals into columns so that no two overlapping intervals share a column.
+ *
+ * This is a sweep over the intervals in order of start time, keeping a heap of the intervals
+ * currently active and a heap of the columns they have freed.  Each interval takes the lowest
+ * free column, so the layout takes O(n log n) time and O(n) memory.  Intervals which overlap
+ * each other, directly or through a chain of others, form a cluster, and every interval in a
+ * cluster is given the same number of columns to share out the available width.
+ *
+ * The class has no dependency on Android, so it can be exercised and timed on its own.
+ *
+ * @author Chris Noldus
+ *
+ */
+public final class IntervalLayout {
+
+	private final long[] starts;
+	private final long[] ends;
+
+	private final int[] column;
+	private final int[] clusterColumns;
+	private final int[] span;
+	private int maxColumns = 0;
+
+	/**
+	 * Lay out the given intervals.  An interval [start,end) overlaps another if each starts
+	 * before the other ends, so an interval ending exactly when another starts does not.
+	 * @param starts The start of each interval
+	 * @param ends The end of each interval, which must be the same length as starts
+	 */
+	public IntervalLayout(long[] starts, long[] ends) {
+		if (starts.length != ends.length) throw new IllegalArgumentException("starts and ends differ in length");
+		this.starts = starts;
+		this.ends = ends;
+		int n = starts.length;
+		this.column = new int[n];
+		this.clusterColumns = new int[n];
+		this.span = new int[n];
+		if (n > 0) layout();
+	}
+
+	/** @return The number of intervals laid out */
+	public int size() {
+		return column.length;
+	}
+
+	/** @return The zero-based column (or row, for a horizontal layout) of interval i */
+	public int getColumn(int i) {
+		return column[i];
+	}
+
+	/** @return The number of columns in the cluster interval i belongs to */
+	public int getClusterColumns(int i) {
+		return clusterColumns[i];
+	}
+
+	/**
+	 * @return The number of columns interval i can occupy, starting at its own column, without
+	 * covering any other interval in its cluster.  Always at least 1.
+	 */
+	public int getSpan(int i) {
+		return span[i];
+	}
+
+	/** @return The largest number of columns needed by any cluster */
+	public int getMaxColumns() {
+		return maxColumns;
+	}
+
+
+	private void layout() {
+		final int n = starts.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (starts[a] != starts[b]) return starts[a] < starts[b] ? -1 : 1;
+				// Longer intervals first, so they end up in the leftmost columns
+				if (ends[a] != ends[b]) return ends[a] > ends[b] ? -1 : 1;
+				return a - b;
+			}
+		});
+
+		PriorityQueue<Integer> active = new PriorityQueue<Integer>(Math.min(n, 64), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return ends[a] < ends[b] ? -1 : (ends[a] == ends[b] ? 0 : 1);
+			}
+		});
+		PriorityQueue<Integer> freeColumns = new PriorityQueue<Integer>();
+
+		int clusterStart = 0;	// index into order of the first interval in the current cluster
+		int columnsInUse = 0;	// columns allocated in the current cluster
+
+		for (int k = 0; k < n; k++) {
+			int i = order[k];
+			while (!active.isEmpty() && ends[active.peek()] <= starts[i]) {
+				freeColumns.add(column[active.poll()]);
+			}
+			if (active.isEmpty() && k > clusterStart) {
+				finishCluster(order, clusterStart, k, columnsInUse);
+				clusterStart = k;
+				columnsInUse = 0;
+				freeColumns.clear();
+			}
+			if (freeColumns.isEmpty()) column[i] = columnsInUse++;
+			else column[i] = freeColumns.poll();
+			active.add(i);
+		}
+		finishCluster(order, clusterStart, n, columnsInUse);
+	}
+
+
+	/**
+	 * Record the width of a completed cluster and work out how far each interval in it can
+	 * stretch to the right.  Within a column the intervals were placed in start order and
+	 * cannot overlap, so each column is sorted and can be binary searched.
+	 */
+	private void finishCluster(Integer[] order, int from, int to, int columns) {
+		if (columns > maxColumns) maxColumns = columns;
+		if (columns == 1) {
+			clusterColumns[order[from]] = 1;
+			span[order[from]] = 1;
+			for (int k = from + 1; k < to; k++) {
+				clusterColumns[order[k]] = 1;
+				span[order[k]] = 1;
+			}
+			return;
+		}
+
+		int[] columnSize = new int[columns + 1];
+		for (int k = from; k < to; k++) columnSize[column[order[k]] + 1]++;
+		for (int c = 1; c <= columns; c++) columnSize[c] += columnSize[c - 1];
+		int[] byColumn = new int[to - from];
+		int[] fill = Arrays.copyOf(columnSize, columns);
+		for (int k = from; k < to; k++) {
+			int i = order[k];
+			byColumn[fill[column[i]]++] = i;
+		}
+
+		for (int k = from; k < to; k++) {
+			int i = order[k];
+			clusterColumns[i] = columns;
+			int s = 1;
+			while (column[i] + s < columns
+					&& !overlapsColumn(byColumn, columnSize[column[i] + s], columnSize[column[i] + s + 1], starts[i], ends[i])) {
+				s++;
+			}
+			span[i] = s;
+		}
+	}
+
+
+	/**
+	 * Whether [start,end) overlaps any of the intervals in byColumn[from..to), which are
+	 * sorted by start and do not overlap one another.
+	 */
+	private boolean overlapsColumn(int[] byColumn, int from, int to, long start, long end) {
+		// Find the last interval starting before our end
+		int lo = from, hi = to - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[byColumn[mid]] < end) {
+				found = mid;
+				lo = mid + 1;
+			}
+			else hi = mid - 1;
+		}
+		return found >= 0 && ends[byColumn[found]] > start;
+	}
+}
@@ -0,0 +1,165 @@
+package org.davical.acal.weekview;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import android.util.Log;
+
+import org.davical.acal.BenchmarkTimer;
+import org.davical.acal.Constants;
+
+/**
+ * <p>
+ * Checks the columns IntervalLayout gives a busy day of events against the row by row probing
+ * WeekViewTimeTable used to do, and that no overlapping events share a column or are stretched
+ * across one another, then times the two on a day with more overlapping events than anyone
+ * would really have.
+ * </p>
+ * <p>
+ * The days are made up here from a fixed seed, so that the numbers from one device can be
+ * compared with the next.  Run from DebugSettings.
+ * </p>
+ *
+ * @author Morphoss Ltd
+ *
+ */
+public final class IntervalLayoutBenchmark {
+
+	private static final String TAG = "aCal IntervalLayoutBenchmark";
+
+	private static final int ITERATIONS = 2000;
+
+	private static final int EVENTS = 80;
+	private static final int DAYS_CHECKED = 200;
+
+	private static final long MINUTE = 60 * 1000L;
+
+	private IntervalLayoutBenchmark() {
+	}
+
+
+	public static void run() {
+		Random random = new Random(20111024L);
+
+		int failures = 0;
+		for( int d = 0; d < DAYS_CHECKED; d++ ) {
+			long[][] day = buildDay(random, 1 + random.nextInt(EVENTS));
+			failures += check(day[0], day[1]);
+		}
+		// Events which end exactly when the next starts can share a column
+		failures += check(new long[] { 0, 30 * MINUTE, 60 * MINUTE, 0 },
+						new long[] { 30 * MINUTE, 60 * MINUTE, 90 * MINUTE, 90 * MINUTE });
+		Log.println(Constants.LOGI, TAG, "Checked layout of "+(DAYS_CHECKED + 1)+" days, "+failures+" problems");
+
+		long[][] day = buildDay(random, EVENTS);
+		long[] starts = day[0];
+		long[] ends = day[1];
+
+		// Warm up, so we time the layout and not the first class loads
+		for( int i = 0; i < ITERATIONS / 10; i++ ) {
+			legacyLayout(starts, ends);
+			new IntervalLayout(starts, ends);
+		}
+
+		BenchmarkTimer timer = new BenchmarkTimer(TAG);
+		timer.start();
+		for( int i = 0; i < ITERATIONS; i++ ) legacyLayout(starts, ends);
+		timer.stop("Probing layout of "+EVENTS+" events", ITERATIONS);
+
+		timer.start();
+		for( int i = 0; i < ITERATIONS; i++ ) new IntervalLayout(starts, ends);
+		timer.stop("IntervalLayout of "+EVENTS+" events", ITERATIONS);
+	}
+
+
+	/**
+	 * A working day with the given number of events, mostly between half an hour and two hours
+	 * long, starting on the quarter hour.
+	 * @return The starts and the ends
+	 */
+	private static long[][] buildDay(Random random, int events) {
+		long[] starts = new long[events];
+		long[] ends = new long[events];
+		for( int i = 0; i < events; i++ ) {
+			starts[i] = (8 * 60 + 15 * random.nextInt(40)) * MINUTE;
+			ends[i] = starts[i] + 15 * (1 + random.nextInt(8)) * MINUTE;
+		}
+		return new long[][] { starts, ends };
+	}
+
+
+	/**
+	 * Lay out the events and compare the columns with the probing layout, then check that
+	 * nothing overlaps within its columns.
+	 * @return The number of problems found
+	 */
+	private static int check(long[] starts, long[] ends) {
+		IntervalLayout layout = new IntervalLayout(starts, ends);
+		int[] legacy = legacyLayout(starts, ends);
+		int failures = 0;
+		for( int i = 0; i < starts.length; i++ ) {
+			int column = layout.getColumn(i);
+			if ( column != legacy[i] && failures++ < 10 )
+				Log.w(TAG, "Event "+i+" is in column "+column+" but probing put it in "+legacy[i]);
+			if ( column >= layout.getClusterColumns(i) && failures++ < 10 )
+				Log.w(TAG, "Event "+i+" is in column "+column+" of "+layout.getClusterColumns(i));
+
+			int last = column + layout.getSpan(i) - 1;
+			boolean blocked = false;
+			for( int j = 0; j < starts.length; j++ ) {
+				if ( j == i || starts[j] >= ends[i] || starts[i] >= ends[j] ) continue;
+				int other = layout.getColumn(j);
+				if ( other >= column && other <= last && failures++ < 10 )
+					Log.w(TAG, "Event "+i+" in columns "+column+"-"+last+" overlaps event "+j+" in column "+other);
+				if ( other == last + 1 ) blocked = true;
+				if ( layout.getClusterColumns(j) != layout.getClusterColumns(i) && failures++ < 10 )
+					Log.w(TAG, "Overlapping events "+i+" and "+j+" are in clusters of different widths");
+			}
+			// It should have been stretched as far as it could go
+			if ( !blocked && last + 1 < layout.getClusterColumns(i) && failures++ < 10 )
+				Log.w(TAG, "Event "+i+" could span more than "+layout.getSpan(i)+" columns");
+		}
+		return failures;
+	}
+
+
+	/**
+	 * The way WeekViewTimeTable used to stack events, probing each row of an n by n table in
+	 * turn for the first one where everything already there has ended.
+	 * @return The row each event was put in
+	 */
+	private static int[] legacyLayout(final long[] starts, final long[] ends) {
+		int n = starts.length;
+		Integer[] order = new Integer[n];
+		for( int i = 0; i < n; i++ ) order[i] = i;
+		// The same order as IntervalLayout, so ties go the same way
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if ( starts[a] != starts[b] ) return starts[a] < starts[b] ? -1 : 1;
+				if ( ends[a] != ends[b] ) return ends[a] > ends[b] ? -1 : 1;
+				return a - b;
+			}
+		});
+
+		int[][] timetable = new int[n][n];
+		for( int[] row : timetable ) Arrays.fill(row, -1);
+		int[] rows = new int[n];
+		for( Integer x : order ) {
+			int i = 0;
+			boolean go = true;
+			while( go ) {
+				int[] row = timetable[i];
+				int j = 0;
+				while( true ) {
+					if ( row[j] < 0 ) { row[j] = x; rows[x] = i; go = false; break; }
+					else if ( !(ends[row[j]] > starts[x]) ) { j++; continue; }
+					else break;
+				}
+				i++;
+			}
+		}
+		return rows;
+	}
+}
@@ -321,6 +321,8 @@ public class WeekViewActivity extends AcalActivity implements OnGestureListener,
 	public void onPause() {
 		super.onPause();
 		days.close();		//important - otherwise days will never be dereferenced causing memory hole.
+		if (Constants.LOG_DEBUG && Constants.debugWeekView) imageCache.logStatistics();
+		imageCache.clear();
 		prefs.edit().putLong(getString(R.string.prefSelectedDate), selectedDate.getMillis()).apply();
 		prefs.edit().putLong(getString(R.string.prefSavedSelectedDate), System.currentTimeMillis()).apply();
 	}
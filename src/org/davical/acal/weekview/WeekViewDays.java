@@ -33,15 +33,14 @@ import android.view.View.OnTouchListener;
 import android.widget.ImageView;
 
 import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.R;
 import org.davical.acal.acaltime.AcalDateRange;
 import org.davical.acal.acaltime.AcalDateTime;
 import org.davical.acal.dataservice.Collection;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class WeekViewDays extends ImageView implements OnTouchListener {
 
@@ -49,7 +48,7 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
 
     private WeekViewActivity context;
     private WeekViewCache dataCache = null;
-    private WVCacheObject[][] headerTimeTable;
+    private WeekViewTimeTable headerTimeTable;
 
 
     //Drawing vars - easier to set these as class fields than to send them as parmaeters
@@ -91,6 +90,8 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
 
     private Paint workPaint;
 
+    private final DrawTimer drawTimer = new DrawTimer(TAG, Constants.debugWeekView);
+
     /**
      * Default Constructor
      */
@@ -213,11 +214,10 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
         //Get the current timetable
         try {
             open();
-            WeekViewTimeTable timeTable = dataCache.getMultiDayTimeTable(range, HDepth);
-            headerTimeTable = timeTable.getTimetable();
-            HDepth = timeTable.HDepth;    //TODO yucky side affect stuff
+            headerTimeTable = dataCache.getMultiDayTimeTable(range, HDepth);
+            HDepth = headerTimeTable.HDepth;    //TODO yucky side affect stuff
 
-            if (headerTimeTable.length <= 0) {
+            if (headerTimeTable.size() <= 0) {
                 this.PxH = 0;
                 PxD = TpX;
                 return;
@@ -262,6 +262,7 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
             this.calculateDimensions();
             return;
         }
+        drawTimer.start();
 
         //reset the displayed events list
         eventsDisplayed = new ArrayList<Rectangle>();
@@ -279,6 +280,7 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
         drawEvents(canvas, p);
         drawBorder(canvas, p);
         drawShading(canvas, p);
+        drawTimer.stop();
     }
 
     /**
@@ -311,14 +313,8 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
             canvas.drawRect(curx, 0, curx + WeekViewActivity.DAY_WIDTH, PxH, p);
         }
 
-        for (int i = 0; i < headerTimeTable.length; i++) {
-            boolean hasEvent = false;
-            for (int j = 0; j < headerTimeTable[i].length && headerTimeTable[i][j] != null; j++) {
-                WVCacheObject event = headerTimeTable[i][j];
-                drawHorizontal(event, canvas, i);
-                hasEvent = true;
-            }
-            if (!hasEvent) break;
+        for (int i = 0; i < headerTimeTable.size(); i++) {
+            drawHorizontal(headerTimeTable.getEvent(i), canvas, headerTimeTable.getColumn(i));
         }
     }
 
@@ -345,10 +341,8 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
         int workBot = (context.WORK_FINISH_SECONDS - topSec) / WeekViewActivity.SECONDS_PER_PIXEL;
         if (workTop < PxH) workTop = PxH;
 
-        try {
-            dayGrid = Bitmap.createBitmap(dayGrid, 0, offset, dayGrid.getWidth(), PxD);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to createBitmap for dayGrid: offset=" + offset + ", width=" + dayGrid.getWidth() + ", PxH=" + PxH + ", PxD=" + PxD);
+        if (offset < 0 || offset + PxD > dayGrid.getHeight()) {
+            Log.e(TAG, "dayGrid too small: offset=" + offset + ", height=" + dayGrid.getHeight() + ", PxH=" + PxH + ", PxD=" + PxD);
             return;
         }
         Rect src = new Rect(0, offset, dayGrid.getWidth(), offset + PxD);
@@ -399,48 +393,23 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
                 dayX += dayWidth;
                 continue;
             }
-            WVCacheObject[][] timeTableData = timeTable.getTimetable();
-
             //draw visible events
-            if (timeTableData.length > 0) {
+            if (timeTable.size() > 0) {
                 p.reset();
                 p.setStyle(Paint.Style.FILL);
                 long thisDayEpoch = currentDay.getEpoch();
 
-                //events can show up several times in the timetable, keep a record of what's already drawn
-                Set<WVCacheObject> drawn = new HashSet<WVCacheObject>();
-
-                //for each set of overlapping events
-                for (int i = 0; i < timeTableData.length; i++) {
-                    int curX = 0;
-                    //for each overlapping event in a set
-                    for (int j = 0; j < timeTableData[i].length; j++) {
-                        if (timeTableData[i][j] != null) {
-                            if (drawn.contains(timeTableData[i][j])) {
-                                //if we have already drawn this event, we need to increment x by its width
-                                curX += timeTableData[i][j].getLastWidth();
-                                continue;
-                            }
-                            drawn.add(timeTableData[i][j]);
-
-                            //calculate depth - i.e how many events this event overlaps.
-                            int depth = 0;
-                            for (int k = j;
-                                 k <= timeTable.lastMaxX && (timeTableData[i][k] == null || timeTableData[i][k] == timeTableData[i][j]);
-                                 k++)
-                                depth++;
-                            //Calculate the width we should draw by dividing the available space by the number of events.
-                            float singleWidth = (dayWidth / (timeTable.lastMaxX + 1)) * depth;
-                            WVCacheObject event = timeTableData[i][j];
-                            //draw the event
-                            drawVertical(event, canvas, (int) dayX + curX, (int) singleWidth, thisDayEpoch);
-                            //save its width for future reference
-                            event.setLastWidth((int) singleWidth);
-                            //increment x pointer
-                            curX += singleWidth;
-                        }
-                    } //end this event in set
-                } //end this set of overlapping events
+                for (int i = 0; i < timeTable.size(); i++) {
+                    //each group of overlapping events shares the day between its columns
+                    float columnWidth = (float) dayWidth / timeTable.getClusterColumns(i);
+                    int curX = (int) (columnWidth * timeTable.getColumn(i));
+                    int singleWidth = (int) (columnWidth * timeTable.getSpan(i));
+                    WVCacheObject event = timeTable.getEvent(i);
+                    //draw the event
+                    drawVertical(event, canvas, (int) dayX + curX, singleWidth, thisDayEpoch);
+                    //save its width for future reference
+                    event.setLastWidth(singleWidth);
+                }
             } //end this day
             currentDay.addDays(1);
             dayX += dayWidth;
@@ -565,8 +534,8 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
                     " - " + event.getStart() + "," + event.getEnd());
 
         Collection collection = Collection.getInstance(event.getCollectionId(), this.context);
-        canvas.drawBitmap(context.getImageCache().getEventBitmap(event.getResourceId(), event.getSummary(), collection.getColour(),
-                width, height, maxWidth, maxHeight), x, top, new Paint());
+        context.getImageCache().drawEvent(canvas, this, event.getResourceId(), event.getSummary(), collection.getColour(),
+                x, top, width, height, maxWidth, maxHeight);
 
         eventsDisplayed.add(new Rectangle(x, top, x + width, top + height, event));
     }
@@ -588,8 +557,8 @@ public class WeekViewDays extends ImageView implements OnTouchListener {
         int actualWidth = (int) Math.min(Math.min(event.getActualWidth(), viewWidth - x), (event.getEnd() / 1000 - HST) / HSPP);
         if (actualWidth <= 0) return;
         Collection collection = Collection.getInstance(event.getCollectionId(), this.context);
-        c.drawBitmap(context.getImageCache().getEventBitmap(event.getResourceId(), event.getSummary(), collection.getColour(),
-                actualWidth, HIH, maxWidth, HIH), x, y, new Paint());
+        context.getImageCache().drawEvent(c, this, event.getResourceId(), event.getSummary(), collection.getColour(),
+                x, y, actualWidth, HIH, maxWidth, HIH);
         eventsDisplayed.add(new Rectangle(x, y, x + actualWidth, y + HIH, event));
     }
 
@@ -17,26 +17,22 @@
  */
 package org.davical.acal.weekview;
 
-import java.text.SimpleDateFormat;
-
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
-import android.view.View;
 import android.widget.ImageView;
-import android.widget.TextView;
 
-import org.davical.acal.R;
+import org.davical.acal.Constants;
+import org.davical.acal.DrawTimer;
 import org.davical.acal.acaltime.AcalDateTime;
 
 public class WeekViewHeader extends ImageView {
 	
 	private WeekViewActivity context; 
 	private AcalDateTime date;
+	private final DrawTimer drawTimer = new DrawTimer("aCal WeekViewHeader", Constants.debugWeekView);
 	
 	/** Default Constructor */
 	public WeekViewHeader(Context context, AttributeSet attrs, int defStyle) {
@@ -84,6 +80,7 @@ public class WeekViewHeader extends ImageView {
 			canvas.drawRect(0, 0, canvas.getWidth(), getHeight(), p);
 			return;
 		}
+		drawTimer.start();
 		date = this.context.getCurrentDate();
 		AcalDateTime startDate = date.clone();
 		startDate.addDays(-1);		//we start one day before the current date, current date should be first fully visible date
@@ -93,33 +90,12 @@ public class WeekViewHeader extends ImageView {
 		
 		int dayHeight = this.getHeight();
 		int totalWidth = this.getWidth();
+		WeekViewImageCache imageCache = context.getImageCache();
 		while(x<(totalWidth+dayWidth)) {		//continue until we have draw one past screen edge
-			drawBox (x, y,dayWidth,dayHeight,canvas,startDate);
+			imageCache.drawDayHeader(canvas, this, startDate, x, y, dayWidth, dayHeight);
 			startDate.addDays(1);
 			x+=dayWidth;
 		}
-		
-		
-	}
-
-	//TODO move to image cache
-	private void drawBox(int x, int y, int w, int h, Canvas c, AcalDateTime day) {
-		LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View v = (View) inflater.inflate(R.layout.week_view_assets, null);
-		TextView title = ((TextView) v.findViewById(R.id.WV_header_day_box));
-		title.setVisibility(View.VISIBLE);
-		String formatString = "EEE\nMMM d";
-		if (day.get(AcalDateTime.DAY_OF_WEEK) == WeekViewActivity.FIRST_DAY_OF_WEEK) {
-			formatString+=" (w)";
-		}
-		SimpleDateFormat formatter = new SimpleDateFormat(formatString);
-		title.setText(formatter.format(day.toJavaDate()));
-
-		title.measure(MeasureSpec.makeMeasureSpec(w, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(h, MeasureSpec.EXACTLY));
-		title.layout(0, 0, w, h);
-		Bitmap returnedBitmap = Bitmap.createBitmap(w, h,Bitmap.Config.ARGB_8888);
-		Canvas tempCanvas = new Canvas(returnedBitmap);
-		title.draw(tempCanvas);
-		c.drawBitmap(returnedBitmap,x, y, new Paint());
+		drawTimer.stop();
 	}
 }
@@ -18,42 +18,92 @@
 package org.davical.acal.weekview;
 import androidx.core.content.ContextCompat;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.MeasureSpec;
 import android.widget.TextView;
 
+import org.davical.acal.Constants;
+import org.davical.acal.PerformanceStats;
 import org.davical.acal.R;
+import org.davical.acal.acaltime.AcalDateTime;
 
+/**
+ * Holds the bitmaps week view is drawn from.  Anything which needs a TextView laid out and
+ * rasterised (event tiles, day headers and the side bar) is rendered on a background thread
+ * and published here when it is complete, so the UI thread only ever copies finished bitmaps
+ * to the screen.  Until a bitmap is ready the views draw a plain placeholder, or keep showing
+ * the previous side bar, and are invalidated once it arrives.
+ */
 public class WeekViewImageCache {
 
+	private static final String TAG = "aCal WeekViewImageCache";
+
 	private float dayWidth;
 	private Context c;
 
-	private Bitmap sidebar;
+	// Day headers are small and we only show a week or so of them at a time
+	private static final int MAX_HEADER_TILES = 32;
+
+	private static HandlerThread renderThread = null;
+	private static Handler renderHandler = null;
+
+	// The side bar is double buffered: this is what we draw, while any replacement is rendered
+	// on the render thread and swapped in when complete.
+	private volatile Bitmap sidebar;
 	private int sidebarWidth = -1;
+	private int sidebarSPP = 0;
+	private int sidebarPendingWidth = -1;
+	private int sidebarPendingSPP = 0;
 
 	private Bitmap hourbox;
 	private Bitmap daybox;
 	private int lastDaySPP = 0;
 	private int lastDayHeight = 0;
 
-	private HashMap<Long,Bitmap> eventMap = new HashMap<Long, Bitmap>();
-	private Queue<Long> eventQueue = new LinkedList<Long>();
+	private final LruCache<Long,Bitmap> eventTiles;
+	private final LruCache<Long,Bitmap> headerTiles = new LruCache<Long,Bitmap>(MAX_HEADER_TILES);
+	private final Set<Long> pendingTiles = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+
+	// Only used on the UI thread
+	private final Rect tileSrc = new Rect();
+	private final Rect tileDst = new Rect();
+	private final Paint tilePaint = new Paint();
+	private final Paint placeholderPaint = new Paint();
+
+	// Only used on the render thread
+	private TextView eventBox = null;
+	private TextView headerBox = null;
 
 	public WeekViewImageCache(Context c) {
 		this.c=c;
 		this.dayWidth=WeekViewActivity.DAY_WIDTH;
+
+		//Event tiles are bounded by the memory they use rather than how many there are
+		int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 16 * 1024 * 1024);
+		eventTiles = new LruCache<Long,Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(Long key, Bitmap tile) {
+				return tile.getAllocationByteCount();
+			}
+		};
 	}
 
 	public void cacheDayBoxes(int minHeight) {
@@ -65,7 +115,7 @@ public class WeekViewImageCache {
 
 		if (hourbox == null) {
 			//First hour box
-			returnedBitmap = Bitmap.createBitmap((int)dayWidth, (int)(halfHeight*2),Bitmap.Config.ARGB_4444);
+			returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap((int)dayWidth, (int)(halfHeight*2),Bitmap.Config.ARGB_4444));
 			canvas = new Canvas(returnedBitmap);
 			p = new Paint();
 			p.setStyle(Paint.Style.STROKE);
@@ -82,7 +132,7 @@ public class WeekViewImageCache {
 		}
 
 		//now do whole day
-		returnedBitmap = Bitmap.createBitmap((int)dayWidth,(int)( minHeight+halfHeight*2),Bitmap.Config.ARGB_4444);
+		returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap((int)dayWidth,(int)( minHeight+halfHeight*2),Bitmap.Config.ARGB_4444));
 		canvas = new Canvas(returnedBitmap);
 		p = new Paint();
 		p.setStyle(Paint.Style.FILL);
@@ -100,30 +150,86 @@ public class WeekViewImageCache {
 		return daybox;
 	}
 	
-	public Bitmap getSideBar(int width) {
-		if (width == sidebarWidth) return sidebar;	
-		float halfHeight = 1800F/(float)WeekViewActivity.SECONDS_PER_PIXEL;
-		float SPP = (float)WeekViewActivity.SECONDS_PER_PIXEL;
+	/**
+	 * Get the side bar for the given width.  If we don't have one at that width yet, one is
+	 * rendered in the background and the requester is invalidated when it is ready.
+	 * @return The side bar, which may be a previous one of a different size, or null if none
+	 * has been rendered yet.
+	 */
+	public synchronized Bitmap getSideBar(final int width, final View requester) {
+		final int spp = WeekViewActivity.SECONDS_PER_PIXEL;
+		if (width == sidebarWidth && spp == sidebarSPP) return sidebar;
+		if (width != sidebarPendingWidth || spp != sidebarPendingSPP) {
+			sidebarPendingWidth = width;
+			sidebarPendingSPP = spp;
+			getRenderHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					Bitmap rendered;
+					try {
+						rendered = renderSideBar(width, spp);
+					}
+					catch (RuntimeException e) {
+						Log.w(TAG, "Failed to render side bar", e);
+						sideBarFailed(width, spp);
+						return;
+					}
+					catch (OutOfMemoryError e) {
+						Log.w(TAG, "Failed to render side bar", e);
+						sideBarFailed(width, spp);
+						return;
+					}
+					synchronized(WeekViewImageCache.this) {
+						if (width != sidebarPendingWidth || spp != sidebarPendingSPP) return; //superseded
+						sidebar = rendered;
+						sidebarWidth = width;
+						sidebarSPP = spp;
+						sidebarPendingWidth = -1;
+					}
+					requester.postInvalidate();
+				}
+			});
+		}
+		return sidebar;
+	}
+
+	/**
+	 * Forget that the side bar is being rendered at this size, so the next getSideBar() tries again.
+	 */
+	private synchronized void sideBarFailed(int width, int spp) {
+		if (width == sidebarPendingWidth && spp == sidebarPendingSPP) sidebarPendingWidth = -1;
+	}
+
+	/**
+	 * Render the side bar.  Called on the render thread.
+	 */
+	private Bitmap renderSideBar(int width, int secondsPerPixel) {
+		float halfHeight = 1800F/(float)secondsPerPixel;
+		float SPP = (float)secondsPerPixel;
 		boolean half = false;
 		boolean byHalves = (halfHeight > WeekViewActivity.PIXELS_PER_TEXT_ROW+3);
 		float rowHeight = halfHeight * (byHalves?1f:2f);
 		float offset = -rowHeight/2;
 		if (!byHalves) offset=-(rowHeight/4f);
 		int hour = 0;
-		Bitmap master = Bitmap.createBitmap((int)width, (86400/WeekViewActivity.SECONDS_PER_PIXEL),Bitmap.Config.ARGB_4444);
+		Bitmap master = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap((int)width, (86400/secondsPerPixel),Bitmap.Config.ARGB_4444));
 		Canvas masterCanvas = new Canvas(master);
-		
+
 		String am = c.getString(R.string.oneCharMorning);
 		String pm = c.getString(R.string.oneCharAfternoon);
-		
+
+		LayoutInflater inflater = (LayoutInflater) c.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+		View v = (View) inflater.inflate(R.layout.week_view_assets, null);
+		TextView fullBox = ((TextView) v.findViewById(R.id.WV_side_box));
+		TextView halfBox = ((TextView) v.findViewById(R.id.WV_side_box_half));
+		fullBox.setVisibility(View.VISIBLE);
+		halfBox.setVisibility(View.VISIBLE);
+		fullBox.setTextSize(TypedValue.COMPLEX_UNIT_SP, WeekViewActivity.TEXT_SIZE_SIDE);
+		halfBox.setTextSize(TypedValue.COMPLEX_UNIT_SP, WeekViewActivity.TEXT_SIZE_SIDE);
+
 		int currentSecond = 0;
 		while ( currentSecond<=86400 ) {
-			LayoutInflater inflater = (LayoutInflater) c.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-			View v = (View) inflater.inflate(R.layout.week_view_assets, null);
-			TextView box;
-			if ( !half ) box= ((TextView) v.findViewById(R.id.WV_side_box));
-			else box= ((TextView) v.findViewById(R.id.WV_side_box_half));
-			box.setVisibility(View.VISIBLE);
+			TextView box = (half ? halfBox : fullBox);
 			String text = "";
 
 			if (WeekViewActivity.TIME_24_HOUR) {
@@ -140,13 +246,12 @@ public class WeekViewImageCache {
 			}
 			
 			box.setText(text);
-			box.setTextSize(TypedValue.COMPLEX_UNIT_SP, WeekViewActivity.TEXT_SIZE_SIDE);
 			box.measure(MeasureSpec.makeMeasureSpec((int) width, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec((int) rowHeight, MeasureSpec.EXACTLY));
 			box.layout(0,0, (int)width, (int)rowHeight);
-			Bitmap returnedBitmap = Bitmap.createBitmap((int)width, (int)rowHeight,Bitmap.Config.ARGB_4444);
-			Canvas tempCanvas = new Canvas(returnedBitmap);
-			box.draw(tempCanvas);
-			masterCanvas.drawBitmap(returnedBitmap, 0, offset+(currentSecond/SPP), new Paint());
+			masterCanvas.save();
+			masterCanvas.translate(0, offset+(currentSecond/SPP));
+			box.draw(masterCanvas);
+			masterCanvas.restore();
 
 			if ( byHalves ) {
 				half = !half;
@@ -158,36 +263,117 @@ public class WeekViewImageCache {
 				currentSecond+=3600;
 			}
 		}
-		sidebar = master;
-		sidebarWidth=width;
-		return sidebar;
+		return master;
 	}
 
-	public Bitmap getEventBitmap(long resourceId, String summary, int colour,
+	/**
+	 * Draw an event tile, cropped to width x height, with its top left corner at x,y.  If the
+	 * tile is not ready yet a plain box is drawn instead, and the requester is invalidated once
+	 * the tile has been rendered.
+	 */
+	public void drawEvent(Canvas canvas, View requester, long resourceId, String summary, int colour, int x, int y,
 							int width, int height, int maxWidth, int maxHeight) {
-		long hash = getEventHash(resourceId,maxWidth,maxHeight);
-		if (eventMap.containsKey(hash)) {
-			eventQueue.remove(hash);
-			eventQueue.offer(hash);	//re prioritise
-			Bitmap base = eventMap.get(hash);
-			if (base.getHeight() < height) height = base.getHeight();
-			if (base.getWidth() < width) width = base.getWidth();
-			return Bitmap.createBitmap(base, 0, 0, width, height, null, false);
-		}
-		if (eventMap.size() > 100) eventQueue.poll(); //make space
-		//now construct the Bitmap
+		if ( width <= 0 || height <= 0 ) return;
 		if ( height > maxHeight ) maxHeight = height;
 		if ( width > maxWidth ) maxWidth = width;
-		LayoutInflater inflater = (LayoutInflater) c.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View v = (View) inflater.inflate(R.layout.week_view_assets, null);
-		TextView title = ((TextView) v.findViewById(R.id.WV_event_box));
-		title.setTextSize(TypedValue.COMPLEX_UNIT_SP, WeekViewActivity.TEXT_SIZE_EVENT);
+		long hash = getEventHash(resourceId,maxWidth,maxHeight);
+		Bitmap tile = eventTiles.get(hash);
+		if (tile == null) {
+			requestEventTile(hash, requester, summary, colour, maxWidth, maxHeight);
+			placeholderPaint.setColor((colour&0x00ffffff)|0xA0000000);
+			canvas.drawRect(x, y, x + width, y + height, placeholderPaint);
+			return;
+		}
+		blit(canvas, tile, x, y, width, height);
+	}
+
+	/**
+	 * Draw the header box for a day at x,y, if it has been rendered.
+	 */
+	public void drawDayHeader(Canvas canvas, View requester, AcalDateTime day, int x, int y, int width, int height) {
+		if ( width <= 0 || height <= 0 ) return;
+		long hash = (day.getEpochDay() << 28) ^ ((long)(width & 0x3fff) << 14) ^ (height & 0x3fff);
+		Bitmap tile = headerTiles.get(hash);
+		if (tile == null) {
+			requestHeaderTile(hash, requester, day.clone(), width, height);
+			return;
+		}
+		blit(canvas, tile, x, y, width, height);
+	}
+
+	private void blit(Canvas canvas, Bitmap tile, int x, int y, int width, int height) {
+		tileSrc.set(0, 0, Math.min(width, tile.getWidth()), Math.min(height, tile.getHeight()));
+		tileDst.set(x, y, x + tileSrc.width(), y + tileSrc.height());
+		canvas.drawBitmap(tile, tileSrc, tileDst, tilePaint);
+	}
+
+	private void requestEventTile(final long hash, final View requester, final String summary, final int colour,
+							final int width, final int height) {
+		if (!pendingTiles.add(hash)) return;
+		getRenderHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					eventTiles.put(hash, renderEventTile(summary, colour, width, height));
+				}
+				catch (RuntimeException e) {
+					Log.w(TAG, "Failed to render tile", e);
+					return;
+				}
+				catch (OutOfMemoryError e) {
+					Log.w(TAG, "Failed to render tile", e);
+					return;
+				}
+				finally {
+					pendingTiles.remove(hash);
+				}
+				requester.postInvalidate();
+			}
+		});
+	}
+
+	private void requestHeaderTile(final long hash, final View requester, final AcalDateTime day,
+							final int width, final int height) {
+		if (!pendingTiles.add(hash)) return;
+		getRenderHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					headerTiles.put(hash, renderHeaderTile(day, width, height));
+				}
+				catch (RuntimeException e) {
+					Log.w(TAG, "Failed to render tile", e);
+					return;
+				}
+				catch (OutOfMemoryError e) {
+					Log.w(TAG, "Failed to render tile", e);
+					return;
+				}
+				finally {
+					pendingTiles.remove(hash);
+				}
+				requester.postInvalidate();
+			}
+		});
+	}
+
+	/**
+	 * Render an event at its full size.  Called on the render thread.
+	 */
+	private Bitmap renderEventTile(String summary, int colour, int width, int height) {
+		if (eventBox == null) {
+			LayoutInflater inflater = (LayoutInflater) c.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			View v = (View) inflater.inflate(R.layout.week_view_assets, null);
+			eventBox = ((TextView) v.findViewById(R.id.WV_event_box));
+			eventBox.setTextSize(TypedValue.COMPLEX_UNIT_SP, WeekViewActivity.TEXT_SIZE_EVENT);
+			eventBox.setVisibility(View.VISIBLE);
+		}
+		TextView title = eventBox;
 		title.setBackgroundColor((colour&0x00ffffff)|0xA0000000); //add some transparancy
-		title.setVisibility(View.VISIBLE);
 		title.setText(summary);
-		title.measure(MeasureSpec.makeMeasureSpec(maxWidth, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(maxHeight, MeasureSpec.EXACTLY));
-		title.layout(0, 0, maxWidth, maxHeight);
-		Bitmap returnedBitmap = Bitmap.createBitmap(maxWidth, maxHeight, Bitmap.Config.ARGB_8888);
+		title.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+		title.layout(0, 0, width, height);
+		Bitmap returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
 		Canvas tempCanvas = new Canvas(returnedBitmap);
 		title.draw(tempCanvas);
 		//draw a border
@@ -195,14 +381,70 @@ public class WeekViewImageCache {
 		p.setStyle(Paint.Style.STROKE);
 		p.setColor(colour|0xff000000);
 		for (int i = 0; i<WeekViewActivity.EVENT_BORDER; i++) {
-			tempCanvas.drawRect(i, i, maxWidth-i, maxHeight-i, p);
+			tempCanvas.drawRect(i, i, width-i, height-i, p);
 		}
-		eventMap.put(hash, returnedBitmap);
-		eventQueue.offer(hash);
-		return Bitmap.createBitmap(returnedBitmap, 0, 0, width, height, null, false);
+		return returnedBitmap;
 	}
+
+	/**
+	 * Render the header box for a day.  Called on the render thread.
+	 */
+	private Bitmap renderHeaderTile(AcalDateTime day, int width, int height) {
+		if (headerBox == null) {
+			LayoutInflater inflater = (LayoutInflater) c.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			View v = (View) inflater.inflate(R.layout.week_view_assets, null);
+			headerBox = ((TextView) v.findViewById(R.id.WV_header_day_box));
+			headerBox.setVisibility(View.VISIBLE);
+		}
+		String formatString = "EEE\nMMM d";
+		if (day.get(AcalDateTime.DAY_OF_WEEK) == WeekViewActivity.FIRST_DAY_OF_WEEK) {
+			formatString+=" (w)";
+		}
+		SimpleDateFormat formatter = new SimpleDateFormat(formatString);
+		headerBox.setText(formatter.format(day.toJavaDate()));
+
+		headerBox.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+		headerBox.layout(0, 0, width, height);
+		Bitmap returnedBitmap = PerformanceStats.bitmapAllocated(TAG, Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+		headerBox.draw(new Canvas(returnedBitmap));
+		return returnedBitmap;
+	}
+
+	/**
+	 * Drop all of the cached tiles.
+	 */
+	public void clear() {
+		eventTiles.evictAll();
+		headerTiles.evictAll();
+	}
+
+	/**
+	 * Log how effective the event tile cache has been.
+	 */
+	public void logStatistics() {
+		int hits = eventTiles.hitCount();
+		int lookups = hits + eventTiles.missCount();
+		Log.println(Constants.LOGD, TAG, String.format(
+				"Event tiles: %d hits from %d lookups (%.0f%%), %d evictions, %dKB of %dKB resident",
+				hits, lookups, (lookups == 0 ? 0.0 : 100.0 * hits / lookups), eventTiles.evictionCount(),
+				eventTiles.size() / 1024, eventTiles.maxSize() / 1024));
+	}
+
 	public long getEventHash(long resourceId, int width, int height) {
-		return (long)width + ((long)dayWidth * (long)resourceId);
+		return (resourceId << 28) ^ ((long)(width & 0x3fff) << 14) ^ (height & 0x3fff);
 	}
-	 
+
+	/**
+	 * All week view rendering happens on one background thread, shared by every instance
+	 * of this class.
+	 */
+	private static synchronized Handler getRenderHandler() {
+		if (renderHandler == null) {
+			renderThread = new HandlerThread("aCal week view render", Process.THREAD_PRIORITY_DEFAULT);
+			renderThread.start();
+			renderHandler = new Handler(renderThread.getLooper());
+		}
+		return renderHandler;
+	}
+
 }
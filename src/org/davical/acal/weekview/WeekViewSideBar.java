@@ -19,6 +19,7 @@ package org.davical.acal.weekview;
 import androidx.core.content.ContextCompat;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.util.AttributeSet;
@@ -83,7 +84,8 @@ public class WeekViewSideBar extends ImageView {
 		
 		float offset = -context.getScrollY();
 		
-		canvas.drawBitmap(context.getImageCache().getSideBar(this.getWidth()), 0,offset, p);
+		Bitmap sidebar = context.getImageCache().getSideBar(this.getWidth(), this);
+		if (sidebar != null) canvas.drawBitmap(sidebar, 0,offset, p);
 		p.setStyle(Paint.Style.STROKE);
 		p.setColor(ContextCompat.getColor(context, R.color.WeekViewSidebarBorder));
 		canvas.drawRect(0, 0, this.getWidth(), this.getHeight(), p);
@@ -1,36 +1,84 @@
 package org.davical.acal.weekview;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * Calculates and stores a timetable of event data for a given set of data.
- * 
- * The timetable is constructed in a way that helps weekview draw events nicely. Full timetabling is a p time algorithm
- * the one used here is not complete, but is efficient. Further improvements would be appreciated.
+ *
+ * The timetable is constructed in a way that helps weekview draw events nicely.  Horizontal (multi-day)
+ * events are stacked into rows, and vertical (in-day) events are placed in columns, with each group of
+ * overlapping events sharing the width of the day between the columns that group needs.  The layout
+ * itself is done by IntervalLayout.
  * @author Chris Noldus
  *
  */
 public class WeekViewTimeTable {
-	
-	private WVCacheObject[][] timetable;
-	private ArrayList<WVCacheObject> data;
+
+	// Events shorter than this are laid out as if they were this long, since that is
+	// about the least we will draw them as.
+	private static final long MIN_VERTICAL_DURATION = 15 * 60 * 1000L;
+
+	private final ArrayList<WVCacheObject> data;
+	private final IntervalLayout layout;
 	private boolean horizontal = false;
-	
+
 	//Some left over sideaffect data that needs to be kept for now
 	public int HDepth = 0;
-	public int lastMaxX = 0;
-	
+
 	public WeekViewTimeTable(ArrayList<WVCacheObject> data, boolean horizontal) {
 		this.data = data;
 		this.horizontal = horizontal;
-		if (horizontal) constructHorizontal();
-		else constructVertical();
+
+		int n = data.size();
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		for (int i = 0; i < n; i++) {
+			WVCacheObject co = data.get(i);
+			starts[i] = co.getStart();
+			ends[i] = co.getEnd();
+			if (!horizontal && ends[i] < starts[i] + MIN_VERTICAL_DURATION)
+				ends[i] = starts[i] + MIN_VERTICAL_DURATION;
+		}
+		layout = new IntervalLayout(starts, ends);
+		if (horizontal) HDepth = layout.getMaxColumns(); //TODO this sideaffect is needed by weekview days
 	}
-	
-	public WVCacheObject[][] getTimetable() {
-		return this.timetable;
+
+	/**
+	 * @return The number of events in the timetable
+	 */
+	public int size() {
+		return data.size();
+	}
+
+	public WVCacheObject getEvent(int i) {
+		return data.get(i);
 	}
-	
+
+	/**
+	 * @return The column the event is in, or for a horizontal timetable its row.
+	 */
+	public int getColumn(int i) {
+		return layout.getColumn(i);
+	}
+
+	/**
+	 * @return The number of columns that the day is divided into for this event and the
+	 * events it overlaps.
+	 */
+	public int getClusterColumns(int i) {
+		return layout.getClusterColumns(i);
+	}
+
+	/**
+	 * @return How many columns this event can be drawn across without covering another.
+	 */
+	public int getSpan(int i) {
+		return layout.getSpan(i);
+	}
+
 	/**
 	 * 2 Timetables are equivalent if they contain the exact same data set and go in the same direction
 	 */
@@ -40,51 +88,14 @@ public class WeekViewTimeTable {
 		WeekViewTimeTable o = (WeekViewTimeTable)other;
 		if (this.horizontal != o.horizontal) return false;
 		if (this.data.size() != o.data.size()) return false;
-		for (WVCacheObject wv: data) if (!o.data.contains(wv)) return false;
+		Set<WVCacheObject> ours = Collections.newSetFromMap(new IdentityHashMap<WVCacheObject,Boolean>());
+		ours.addAll(data);
+		for (WVCacheObject wv: o.data) if (!ours.contains(wv)) return false;
 		return true;
 	}
-	
-	private void constructHorizontal() {
-		timetable = new WVCacheObject[data.size()][data.size()]; //maximum possible
-		int depth = 0;
-		for (int x = 0; x < data.size(); x++) {
-			WVCacheObject co = data.get(x);
-			int i = 0;
-			boolean go = true;
-			while(go) {
-				WVCacheObject[] row = timetable[i];
-				int j=0;
-				while(true) {
-					if (row[j] == null) { row[j] = co; go=false; break; }
-					else if (!(row[j].getEnd() > (co.getStart()))) {j++; continue; }
-					else break;
-				}
-				i++;
-			}
-			depth = Math.max(depth,i);
-		}
-		HDepth = depth; //TODO this sideaffect is needed by weekview days
-	}
-	
-	private void constructVertical() {
-		timetable = new WVCacheObject[data.size()][data.size()]; //maximum possible
-		int maxX = 0;
-		for (WVCacheObject co :data){
-			int x = 0; int y = 0;
-			while (timetable[y][x] != null) {
-				if (co.overlaps(timetable[y][x])) {
-					//if our end time is before [y][x]'s, we need to extend[y][x]'s range
-					if (co.getEnd() < (timetable[y][x].getEnd())) timetable[y+1][x] = timetable[y][x];
-					x++;
-				} else {
-					y++;
-				}
-			}
-			timetable[y][x] = co;
-			if (x > maxX) maxX = x;
-		}
-		lastMaxX = maxX;
+
+	public int hashCode() {
+		return data.size() * 2 + (horizontal ? 1 : 0);
 	}
-	
 
 }